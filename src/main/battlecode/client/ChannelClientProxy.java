@@ -0,0 +1,360 @@
+package battlecode.client;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import battlecode.serial.notification.Notification;
+import battlecode.engine.signal.Signal;
+import battlecode.server.Config;
+
+/**
+ * A proxy that talks to a match server over a non-blocking SocketChannel.
+ *
+ * The server sends one continuous serialized object stream, so each read the
+ * channel is ready for is treated as a frame. Frames land in a single direct
+ * buffer that is reused for the whole match, and the object stream is
+ * deserialized straight out of that buffer on a background thread. The
+ * thread waits on a Selector rather than blocking in the socket, and records
+ * how long connecting took and how long each object took to become available
+ * after its last bytes arrived. The figures are shown with the viewer's
+ * metrics, and printed at the end of the match if bc.client.channel-stats is
+ * set.
+ */
+public final class ChannelClientProxy implements ClientProxy {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int NUM_OBJECTS = 4096;
+	private static final long CONNECT_TIMEOUT = 10000;
+
+	// marks the end of the object stream
+	private static final Object END = new Object();
+
+	private static class Failure {
+		final Throwable cause;
+		Failure(Throwable cause) { this.cause = cause; }
+	}
+
+	private final String host;
+	private final SocketChannel channel;
+	private final Selector readSelector;
+	private final Selector writeSelector;
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final ObjectOutputStream oos;
+	private final BlockingQueue<Object> objects =
+		new ArrayBlockingQueue<Object>(NUM_OBJECTS);
+
+	private final long connectTime;
+	private long lastArrival = 0;
+	private volatile long framesRead = 0;
+	private volatile long bytesRead = 0;
+	private volatile long objectsRead = 0;
+	private volatile long totalLatency = 0;
+	private volatile long maxLatency = 0;
+
+	private Object last = null;
+	private Object peekBuffer;
+	private boolean peeked = false;
+
+	/**
+	 * Connects to a match server and sends it the first object of the
+	 * conversation.
+	 *
+	 * @param host the server to connect to
+	 * @param port the port the server listens on
+	 * @param request the object the server expects first, usually a
+	 * MatchInfo
+	 */
+	public ChannelClientProxy(String host, int port, Object request)
+		throws IOException {
+		this.host = host;
+		long start = System.nanoTime();
+		channel = connect(host, port);
+		connectTime = System.nanoTime() - start;
+		boolean opened = false;
+		try {
+			readSelector = Selector.open();
+			writeSelector = Selector.open();
+			channel.register(readSelector, SelectionKey.OP_READ);
+			channel.register(writeSelector, SelectionKey.OP_WRITE);
+			readBuffer.limit(0);
+
+			oos = new ObjectOutputStream(new ChannelOutputStream());
+			oos.writeObject(request);
+			oos.flush();
+			opened = true;
+		}
+		finally {
+			if (!opened) {
+				release();
+			}
+		}
+
+		Thread thread = new Thread(new Runnable() {
+			public void run() { readObjects(); }
+		}, "ChannelClientProxy " + host);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return a channel connected to the server, in non-blocking mode
+	 */
+	private static SocketChannel connect(String host, int port) throws IOException {
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved()) {
+			throw new UnknownHostException(host);
+		}
+		SocketChannel channel = SocketChannel.open();
+		Selector connectSelector = null;
+		boolean connected = false;
+		try {
+			channel.configureBlocking(false);
+			if (!channel.connect(address)) {
+				connectSelector = Selector.open();
+				channel.register(connectSelector, SelectionKey.OP_CONNECT);
+				if (connectSelector.select(CONNECT_TIMEOUT) == 0) {
+					throw new SocketTimeoutException("Timed out connecting to " + host);
+				}
+				channel.finishConnect();
+			}
+			connected = true;
+			return channel;
+		}
+		finally {
+			if (connectSelector != null) {
+				connectSelector.close();
+			}
+			if (!connected) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Closes the channel and selectors after the conversation couldn't be
+	 * started.
+	 */
+	private void release() {
+		try {
+			channel.close();
+			if (readSelector != null) readSelector.close();
+			if (writeSelector != null) writeSelector.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	public Object readObject() throws EOFException {
+		if (peeked) {
+			peeked = false;
+			return peekBuffer;
+		}
+		if (last == null) {
+			try {
+				Object obj = objects.take();
+				if (obj != END && !(obj instanceof Failure)) {
+					return obj;
+				}
+				last = obj;
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while reading match");
+			}
+		}
+		if (last == END) {
+			throw new EOFException();
+		}
+		Throwable cause = ((Failure) last).cause;
+		if (cause instanceof IOException) {
+			// the connection broke, so the match ends where it got to
+			throw (EOFException) new EOFException("Connection to " + host + " lost: "
+			                                      + cause).initCause(cause);
+		}
+		throw new IllegalStateException("Can't read match from " + host, cause);
+	}
+
+	public Object peekObject() throws EOFException {
+		if (!peeked) {
+			peekBuffer = readObject();
+			peeked = true;
+		}
+		return peekBuffer;
+	}
+
+	public boolean isDebuggingAvailable() {
+		return true;
+	}
+
+	public void writeNotification(Notification n) {
+		writeObject(n);
+	}
+
+	public void writeSignal(Signal s) {
+		writeObject(s);
+	}
+
+	/**
+	 * @return how long it took to connect to the server, in milliseconds
+	 */
+	public double getConnectMillis() {
+		return connectTime / 1e6;
+	}
+
+	/**
+	 * @return the number of reads that delivered data
+	 */
+	public long getFramesRead() {
+		return framesRead;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the average time between the last bytes of an object arriving
+	 * and the object being deserialized, in milliseconds
+	 */
+	public double getMeanFrameLatencyMillis() {
+		return totalLatency / 1e6 / Math.max(objectsRead, 1);
+	}
+
+	/**
+	 * @return the longest time between the last bytes of an object arriving
+	 * and the object being deserialized, in milliseconds
+	 */
+	public double getMaxFrameLatencyMillis() {
+		return maxLatency / 1e6;
+	}
+
+	private synchronized void writeObject(Object o) {
+		try {
+			oos.writeObject(o);
+			oos.flush();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void readObjects() {
+		try {
+			try {
+				ObjectInputStream ois = StreamClientProxy.createObjectInputStream(
+					new ChannelInputStream());
+				while (true) {
+					Object obj = ois.readObject();
+					long latency = System.nanoTime() - lastArrival;
+					totalLatency += latency;
+					maxLatency = Math.max(maxLatency, latency);
+					objectsRead++;
+					objects.put(obj);
+				}
+			}
+			catch (EOFException e) {
+				objects.put(END);
+			}
+			catch (Exception e) {
+				objects.put(new Failure(e));
+			}
+			catch (LinkageError e) {
+				// e.g. a class missing from the client's copy of the server jar
+				objects.put(new Failure(e));
+			}
+		}
+		catch (InterruptedException e) {
+		}
+		if (Config.getGlobalConfig().getBoolean("bc.client.channel-stats")) {
+			System.out.println(getReport());
+		}
+	}
+
+	/**
+	 * @return the connection and latency figures of the match so far
+	 */
+	public String getReport() {
+		return String.format("%s: connected in %.1f ms, %d frames, %d objects,"
+		                     + " %.2f ms mean / %.2f ms max latency per object",
+		                     host, getConnectMillis(), framesRead, objectsRead,
+		                     getMeanFrameLatencyMillis(), getMaxFrameLatencyMillis());
+	}
+
+	/**
+	 * Presents the reads from the channel as a stream, waiting for the
+	 * channel to become readable whenever the buffer runs out.
+	 */
+	private class ChannelInputStream extends InputStream {
+
+		public int read() throws IOException {
+			if (!fill()) return -1;
+			return readBuffer.get() & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (!fill()) return -1;
+			int n = Math.min(len, readBuffer.remaining());
+			readBuffer.get(b, off, n);
+			return n;
+		}
+
+		public int available() {
+			return readBuffer.remaining();
+		}
+
+		public void close() throws IOException {
+			channel.close();
+			readSelector.close();
+			writeSelector.close();
+		}
+
+		private boolean fill() throws IOException {
+			while (!readBuffer.hasRemaining()) {
+				readBuffer.clear();
+				int n = channel.read(readBuffer);
+				readBuffer.flip();
+				if (n == -1) {
+					return false;
+				}
+				if (n == 0) {
+					readSelector.select();
+					readSelector.selectedKeys().clear();
+					continue;
+				}
+				lastArrival = System.nanoTime();
+				framesRead++;
+				bytesRead += n;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes to the channel, waiting for it to become writable when the
+	 * socket's send buffer is full.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				if (channel.write(buffer) == 0) {
+					writeSelector.select();
+					writeSelector.selectedKeys().clear();
+				}
+			}
+		}
+	}
+}
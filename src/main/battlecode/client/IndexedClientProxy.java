@@ -0,0 +1,156 @@
+package battlecode.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+import battlecode.client.replay.IndexedReplayFile;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.ExtensibleMetadata;
+import battlecode.serial.RoundStats;
+import battlecode.serial.notification.Notification;
+
+/**
+ * A proxy that plays back a replay stored in the indexed format.
+ *
+ * Objects are delivered in the same order as they would be from a .rms
+ * stream, but the round cursor can be moved with {@link #seek(int)} so that
+ * playback of a match starts at any round without decoding the rounds before
+ * it. BufferedMatch uses this to skip straight to the footer and read rounds
+ * from the file only when they are asked for.
+ *
+ * Playback of a damaged replay stops at the first damaged section, or at the
+ * end of the first match that was recovered without its footer.
+ */
+public final class IndexedClientProxy implements ClientProxy {
+
+	private final IndexedReplayFile replay;
+	// false if the file belongs to another proxy
+	private final boolean ownsReplay;
+
+	// position of the next object to deliver
+	private int match = 0;
+	private int metadataIndex = -1; // -1 means the header is next
+	private List<ExtensibleMetadata> metadata = null;
+	private int round = 0;
+	private boolean statsNext = false;
+
+	private Object peekBuffer;
+	private boolean peeked = false;
+
+	public IndexedClientProxy(String path) throws IOException {
+		replay = new IndexedReplayFile(path);
+		ownsReplay = true;
+	}
+
+	/**
+	 * Plays back an already open replay from the start of the given match.
+	 * The replay is left open when this proxy is dropped.
+	 */
+	public IndexedClientProxy(IndexedReplayFile replay, int match) {
+		this.replay = replay;
+		this.match = match;
+		ownsReplay = false;
+	}
+
+	public IndexedReplayFile getReplayFile() {
+		return replay;
+	}
+
+	/**
+	 * @return the index in the file of the match being played back
+	 */
+	public synchronized int getMatchIndex() {
+		return match;
+	}
+
+	/**
+	 * Moves playback of the current match to the given round. The header of
+	 * the match is still delivered first if it hasn't been read yet.
+	 *
+	 * @param round the next round to deliver
+	 */
+	public synchronized void seek(int round) {
+		if (match < replay.getMatchCount()) {
+			this.round = Math.max(0, Math.min(round, replay.getNumRounds(match)));
+			statsNext = false;
+			peeked = false;
+		}
+	}
+
+	public synchronized Object readObject() throws EOFException {
+		if (peeked) {
+			peeked = false;
+			return peekBuffer;
+		}
+		try {
+			return nextObject();
+		}
+		catch (IOException e) {
+			// keep what was read so far, like a truncated stream
+			System.err.println(e.getMessage() + ", stopping playback");
+			match = replay.getMatchCount();
+			throw new EOFException();
+		}
+	}
+
+	public synchronized Object peekObject() throws EOFException {
+		if (!peeked) {
+			peekBuffer = readObject();
+			peeked = true;
+		}
+		return peekBuffer;
+	}
+
+	public boolean isDebuggingAvailable() {
+		return false;
+	}
+
+	public void writeNotification(Notification n) {
+		assert isDebuggingAvailable();
+	}
+
+	public void writeSignal(Signal s) {
+		assert isDebuggingAvailable();
+	}
+
+	private Object nextObject() throws IOException {
+		while (match < replay.getMatchCount()) {
+			if (metadataIndex == -1) {
+				metadataIndex = 0;
+				metadata = replay.getMetadata(match);
+				return replay.getHeader(match);
+			}
+			if (metadataIndex < metadata.size()) {
+				return metadata.get(metadataIndex++);
+			}
+			if (statsNext) {
+				statsNext = false;
+				RoundStats stats = replay.getRoundStats(match, round++);
+				if (stats != null) {
+					return stats;
+				}
+			}
+			if (round < replay.getNumRounds(match)) {
+				statsNext = true;
+				return replay.getRound(match, round);
+			}
+			Object footer = replay.getFooter(match);
+			if (footer == null) {
+				// recovered from a damaged replay, nothing more can follow
+				break;
+			}
+			match++;
+			metadataIndex = -1;
+			round = 0;
+			return footer;
+		}
+		throw new EOFException();
+	}
+
+	protected void finalize() throws Throwable {
+		if (ownsReplay) {
+			replay.close();
+		}
+	}
+}
@@ -2,8 +2,10 @@ package battlecode.client;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
+import battlecode.client.util.ConfigOptions;
 import battlecode.serial.*;
 import battlecode.serial.notification.Notification;
 import battlecode.server.proxy.Proxy;
@@ -12,10 +14,24 @@ import battlecode.engine.signal.Signal;
 public class LocalProxy extends Proxy implements ClientProxy {
 
 	public static final LocalProxy INSTANCE = new LocalProxy(); 
-	
-	private final Queue<Object> queue;
+
+	/** The default number of objects the server may get ahead of the client. */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	// the most objects moved from the queue to the batch at once
+	private static final int MAX_BATCH = 256;
+
+	private final BlockingQueue<Object> queue;
+
+	// objects taken off the queue but not read yet; only the reader uses it
+	private final Queue<Object> batch;
 	
 	private final Notifier notifier;
+
+	private volatile long objectsWritten = 0;
+	private volatile int maxDepth = 0;
+	private volatile long writerWaitTime = 0;
+	private volatile long readerWaitTime = 0;
 	
 	private static class Notifier extends Observable {
 		public void notify(Object obj) {
@@ -27,7 +43,9 @@ public class LocalProxy extends Proxy implements ClientProxy {
 	
 	// Can't instantiate.
 	private LocalProxy() {
-		queue = new ConcurrentLinkedQueue<Object>();
+		queue = new LinkedBlockingQueue<Object>(
+			ConfigOptions.getInt("bc.client.local-queue-capacity", DEFAULT_CAPACITY));
+		batch = new ArrayDeque<Object>(MAX_BATCH);
 		notifier = new Notifier();
 	}
 
@@ -35,33 +53,95 @@ public class LocalProxy extends Proxy implements ClientProxy {
 		return null;
 	}
 
+	/**
+	 * Hands an object to the client, blocking while the client is a full
+	 * queue behind the server.
+	 */
 	public void writeObject(Object o) throws IOException {
-		queue.add(o);
+		if (!queue.offer(o)) {
+			long start = System.nanoTime();
+			try {
+				queue.put(o);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while queueing " + o);
+			}
+			writerWaitTime += System.nanoTime() - start;
+		}
+		objectsWritten++;
+		int depth = queue.size();
+		if (depth > maxDepth) maxDepth = depth;
 	}
 
 	public Object readObject() throws EOFException {
-		synchronized (queue) {
-			while (queue.isEmpty())
-				try {
-					Thread.sleep(250);
-				} catch (InterruptedException e) {
-				}
-			return queue.poll();
+		synchronized (batch) {
+			fillBatch();
+			return batch.poll();
 		}
 	}
 
 	public Object peekObject() throws EOFException {
 		assert false: "Local match shouldn't have best-of-3 early termination";
-		synchronized (queue) {
-			while (queue.isEmpty()) {
-				try {
-					Thread.sleep(250);
-				}
-				catch (InterruptedException e) {
-				}
+		synchronized (batch) {
+			fillBatch();
+			return batch.peek();
+		}
+	}
+
+	/**
+	 * Waits until at least one object is available, then moves everything
+	 * the server has written so far (up to a limit) in one go.
+	 */
+	private void fillBatch() {
+		if (!batch.isEmpty() || queue.drainTo(batch, MAX_BATCH) > 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		while (true) {
+			try {
+				batch.add(queue.take());
+				break;
+			}
+			catch (InterruptedException e) {
 			}
-			return queue.peek();
 		}
+		readerWaitTime += System.nanoTime() - start;
+		queue.drainTo(batch, MAX_BATCH - 1);
+	}
+
+	/**
+	 * @return the number of objects written by the server but not read yet
+	 */
+	public int getQueueDepth() {
+		return queue.size() + batch.size();
+	}
+
+	/**
+	 * @return the largest number of objects the server has been ahead by
+	 */
+	public int getMaxQueueDepth() {
+		return maxDepth;
+	}
+
+	public long getObjectsWritten() {
+		return objectsWritten;
+	}
+
+	/**
+	 * @return the total time in nanoseconds the server spent blocked on a
+	 * full queue
+	 */
+	public long getWriterWaitTime() {
+		return writerWaitTime;
+	}
+
+	/**
+	 * @return the total time in nanoseconds the client spent waiting for the
+	 * server to produce an object
+	 */
+	public long getReaderWaitTime() {
+		return readerWaitTime;
 	}
 
 	public boolean isDebuggingAvailable() {
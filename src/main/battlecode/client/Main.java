@@ -6,8 +6,6 @@ import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.net.UnknownHostException;
 
 import javax.swing.JFrame;
@@ -19,6 +17,7 @@ import battlecode.client.StreamClientProxy;
 import battlecode.client.viewer.MatchViewer;
 import battlecode.client.MatchDialog.Choice;
 import battlecode.client.MatchDialog.Parameter;
+import battlecode.client.replay.IndexedReplayFile;
 import battlecode.serial.MatchInfo;
 import battlecode.server.Config;
 import battlecode.server.Server;
@@ -85,6 +84,7 @@ public class Main {
 		String saveFile = (md.getSaveChoice() ? md.getSavePath() : null);
 
 		ClientProxy theProxy = null;
+		File replayFile = null;
 		Thread serverThread = null;
 
 		switch (choice) {
@@ -100,7 +100,17 @@ public class Main {
 					}
 				}
 
-				theProxy = new StreamClientProxy(filePath);
+				// a replay that is still being written can't be cached
+				if (IndexedReplayFile.isIndexedReplay(filePath)) {
+					theProxy = new IndexedClientProxy(filePath);
+					replayFile = new File(filePath);
+				}
+				else if (options.getBoolean("bc.client.follow-replay"))
+					theProxy = StreamClientProxy.follow(filePath);
+				else {
+					theProxy = new StreamClientProxy(filePath);
+					replayFile = new File(filePath);
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 				return;
@@ -129,23 +139,15 @@ public class Main {
 
 		case REMOTE:
 			try {
-				Socket socket = new Socket(md.getSource(), 6370);
-
-				ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
 				String teamA = md.getParameter(Parameter.TEAM_A), teamB = md.getParameter(Parameter.TEAM_B);
 				String[] maps = md.getAllMaps().toArray(new String[0]);
-				out.writeObject(new MatchInfo(teamA, teamB, maps));
-				out.flush();
-
-				Thread.sleep(1000);
-
-				theProxy = new StreamClientProxy(socket.getInputStream(), out);
+				theProxy = new ChannelClientProxy(md.getSource(), 6370,
+				                                  new MatchInfo(teamA, teamB, maps));
 			} catch (UnknownHostException e) {
+				System.err.println("Unknown host " + md.getSource());
 				e.printStackTrace();
 			} catch (IOException e) {
 				e.printStackTrace();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
 			}
 
 			break;
@@ -154,7 +156,7 @@ public class Main {
 
 		options.setBoolean("bc.client.opengl", md.getGlClientChoice());
 		options.setBoolean("bc.client.minimap", md.getMinimapChoice());
-		Main.showViewer(createFrame(), new MatchViewer(theProxy, md.getLockstepChoice()));
+		Main.showViewer(createFrame(), new MatchViewer(theProxy, md.getLockstepChoice(), replayFile));
 		if (serverThread != null)
 			serverThread.start();
 	}
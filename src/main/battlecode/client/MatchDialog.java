@@ -59,6 +59,7 @@ public class MatchDialog extends JDialog implements ActionListener {
 	private final EnumMap<Parameter, JComboBox> parameters;
 	
 	private final MatchInputFinder finder;
+	private final MatchInputCache inputCache;
 	
 	
 	/**
@@ -139,18 +140,32 @@ public class MatchDialog extends JDialog implements ActionListener {
 		choices = new EnumMap<Choice, JRadioButton>(Choice.class);
 		parameters = new EnumMap<Parameter, JComboBox>(Parameter.class);
 		finder = new MatchInputFinder();
+		inputCache = new MatchInputCache(finder);
+		inputCache.addListener(new MatchInputCache.Listener() {
+			public void matchInputsChanged(final String host,
+			                               final String[][] matchInputs) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						// Only show listings for the host that is selected.
+						if (getChoice() == Choice.REMOTE && host.equals(getSource()))
+							fillParameters(matchInputs);
+					}
+				});
+			}
+		});
 		matchOptionsGroup = new ButtonGroup();
 		dlgChooser = new JFileChooser();
 		dlgChooser.setFileFilter(new FileFilter() {
 
 			public boolean accept(File f) {
-				if (f.getName().endsWith(".rms") || f.isDirectory())
+				if (f.getName().endsWith(".rms") || f.getName().endsWith(".rmx")
+				    || f.isDirectory())
 					return true;
 				return false;
 			}
 
 			public String getDescription() {
-				return "BattleCode Match Files (*.rms)";
+				return "BattleCode Match Files (*.rms, *.rmx)";
 			}
 			
 		});
@@ -579,19 +594,34 @@ public class MatchDialog extends JDialog implements ActionListener {
 	
 	/**
 	 * Fills the dropdown match input boxes with available team and map
-	 * choices. Either does so locally, if local is selected, or uses an RPC
-	 * to determine the choices available on the remote host.
+	 * choices. Either does so locally, if local is selected, or from the
+	 * last known choices on the remote host, which are updated in the
+	 * background when they are out of date.
 	 */
 	private void populateParameters() {
 		String[][] matchInputs;
 		
 		if (choices.get(Choice.REMOTE).isSelected())
-			matchInputs = finder.findMatchInputsRemotely(getSource());
+			matchInputs = inputCache.get(getSource());
 		else
 			matchInputs = finder.findMatchInputsLocally();
 		
+		fillParameters(matchInputs);
+	}
+	
+	/**
+	 * Replaces the choices in the dropdown match input boxes, keeping the
+	 * current selections where they are still available.
+	 *
+	 * @param matchInputs the teams and the maps to choose from
+	 */
+	private void fillParameters(String[][] matchInputs) {
 		if (matchInputs != null) {
-
+			
+			// Remember the selections.
+			Map<Parameter, Object> selected = new EnumMap<Parameter, Object>(Parameter.class);
+			for (Map.Entry<Parameter, JComboBox> entries : parameters.entrySet())
+				selected.put(entries.getKey(), entries.getValue().getSelectedItem());
 			
 			// Clear dropdowns.
 			for (Map.Entry<Parameter, JComboBox> entries : parameters.entrySet())
@@ -615,6 +645,11 @@ public class MatchDialog extends JDialog implements ActionListener {
 				items.add(s);
 				parameters.get(Parameter.MAP).addItem(s);
 			}
+			
+			// Restore the selections.
+			for (Map.Entry<Parameter, Object> entries : selected.entrySet())
+				if (entries.getValue() != null)
+					parameters.get(entries.getKey()).setSelectedItem(entries.getValue());
 		}
 	}
 	
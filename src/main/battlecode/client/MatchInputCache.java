@@ -0,0 +1,176 @@
+package battlecode.client;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import battlecode.client.util.ConfigOptions;
+import battlecode.server.Server;
+
+/**
+ * Remembers the teams and maps available on each remote host.
+ *
+ * Listings are returned immediately from the cache, even when they are
+ * older than the TTL; a stale or missing listing is fetched again in the
+ * background, and listeners are told when a fresh listing differs from the
+ * one they were given. The cache is kept in the user's home directory, so
+ * the last known listing is also available right after the client starts.
+ * Listings are fetched one at a time by a single daemon thread shared by all
+ * caches.
+ */
+public class MatchInputCache {
+
+	/**
+	 * Is told when a fresh listing arrives for a host. Called on the
+	 * refresher thread.
+	 */
+	public interface Listener {
+		public void matchInputsChanged(String host, String[][] matchInputs);
+	}
+
+	private static final File DEFAULT_CACHE_FILE = new File(
+			System.getProperty("user.home")
+			+ File.separator + ".battlecode.inputs");
+
+	/** The default time a listing stays fresh, in milliseconds. */
+	private static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+	private static class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String[][] matchInputs;
+		final long fetchedAt;
+
+		Entry(String[][] matchInputs, long fetchedAt) {
+			this.matchInputs = matchInputs;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+
+	private static final ExecutorService refresher = Executors.newSingleThreadExecutor(
+		new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MatchInputCache refresher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	private final MatchInputFinder finder;
+	private final File cacheFile;
+	private final long ttl;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	// guarded by this
+	private final Map<String, Entry> entries;
+	private final Set<String> refreshing = new HashSet<String>();
+
+	public MatchInputCache(MatchInputFinder finder) {
+		this(finder, DEFAULT_CACHE_FILE,
+		     ConfigOptions.getLong("bc.client.match-input-ttl", DEFAULT_TTL));
+	}
+
+	MatchInputCache(MatchInputFinder finder, File cacheFile, long ttl) {
+		this.finder = finder;
+		this.cacheFile = cacheFile;
+		this.ttl = ttl;
+		entries = load(cacheFile);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Gets the last known listing for a host, and starts fetching a new one
+	 * if it is missing or older than the TTL.
+	 *
+	 * @param host the remote host
+	 * @return the last known listing, or null if none is known yet
+	 */
+	public synchronized String[][] get(String host) {
+		Entry entry = entries.get(host);
+		if (entry == null || System.currentTimeMillis() - entry.fetchedAt > ttl) {
+			refresh(host);
+		}
+		return (entry == null ? null : entry.matchInputs);
+	}
+
+	/**
+	 * Starts fetching a new listing for a host, unless one is already being
+	 * fetched.
+	 *
+	 * @param host the remote host
+	 */
+	public synchronized void refresh(final String host) {
+		if (host == null || host.length() == 0 || !refreshing.add(host)) {
+			return;
+		}
+		refresher.execute(new Runnable() {
+			public void run() {
+				String[][] matchInputs = finder.findMatchInputsRemotely(host);
+				Entry previous;
+				synchronized (MatchInputCache.this) {
+					refreshing.remove(host);
+					if (matchInputs == null) {
+						return;
+					}
+					previous = entries.put(host, new Entry(matchInputs,
+					                                       System.currentTimeMillis()));
+					save();
+				}
+				if (previous == null
+				    || !Arrays.deepEquals(previous.matchInputs, matchInputs)) {
+					for (Listener listener: listeners) {
+						listener.matchInputsChanged(host, matchInputs);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the cache file, keeping only the entries it holds in the current
+	 * format; a missing, corrupt or foreign file gives an empty cache.
+	 */
+	private static Map<String, Entry> load(File cacheFile) {
+		Map<String, Entry> loaded = new HashMap<String, Entry>();
+		if (cacheFile.exists()) {
+			try {
+				ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(cacheFile)));
+				try {
+					Object stored = in.readObject();
+					if (stored instanceof Map) {
+						for (Map.Entry<?, ?> e: ((Map<?, ?>) stored).entrySet()) {
+							if (e.getKey() instanceof String && e.getValue() instanceof Entry
+							    && ((Entry) e.getValue()).matchInputs != null) {
+								loaded.put((String) e.getKey(), (Entry) e.getValue());
+							}
+						}
+					}
+				}
+				finally {
+					in.close();
+				}
+			} catch (Exception e) {
+				Server.warn("couldn't load cached match inputs: " + e.getMessage());
+				loaded.clear();
+			}
+		}
+		return loaded;
+	}
+
+	private void save() {
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(cacheFile)));
+			out.writeObject(entries);
+			out.close();
+		} catch (IOException e) {
+			Server.warn("couldn't store cached match inputs: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package battlecode.client;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link MatchInputCache} keeps its listings across restarts,
+ * serves stale listings while fetching new ones, copes with a corrupt or
+ * foreign cache file, and fetches a host only once at a time.
+ *
+ * It uses a temporary cache file and a fake finder, so it needs no server.
+ *
+ * Usage: MatchInputCacheCheck
+ */
+public class MatchInputCacheCheck {
+
+	private static final String HOST = "example-host";
+	private static final long TTL = 60 * 1000;
+
+	private static int failures = 0;
+
+	/**
+	 * Hands out the listing it was given, after waiting for the gate to open.
+	 */
+	private static class FakeFinder extends MatchInputFinder {
+		final AtomicInteger fetches = new AtomicInteger();
+		final CountDownLatch gate;
+		volatile String[][] listing;
+
+		FakeFinder(String[][] listing, CountDownLatch gate) {
+			this.listing = listing;
+			this.gate = gate;
+		}
+
+		public String[][] findMatchInputsRemotely(String host) {
+			fetches.incrementAndGet();
+			try {
+				gate.await();
+			}
+			catch (InterruptedException e) {
+				return null;
+			}
+			return listing;
+		}
+	}
+
+	/**
+	 * Counts down when a listing arrives.
+	 */
+	private static class Arrivals implements MatchInputCache.Listener {
+		final CountDownLatch arrived;
+
+		Arrivals(int count) {
+			arrived = new CountDownLatch(count);
+		}
+
+		public void matchInputsChanged(String host, String[][] matchInputs) {
+			arrived.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			return arrived.await(10, TimeUnit.SECONDS);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("battlecode", ".inputs");
+		try {
+			checkRoundTrip(file);
+			checkStale(file);
+			checkCorrupt(file);
+			checkForeign(file);
+			checkSingleFetch(file);
+		}
+		finally {
+			file.delete();
+		}
+		if (failures > 0) {
+			System.err.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	private static void checkRoundTrip(File file) throws Exception {
+		file.delete();
+		String[][] listing = listing("teamA", "map1");
+		FakeFinder finder = new FakeFinder(listing, new CountDownLatch(0));
+		MatchInputCache cache = new MatchInputCache(finder, file, TTL);
+		Arrivals arrivals = new Arrivals(1);
+		cache.addListener(arrivals);
+		check("missing file gives no listing", cache.get(HOST) == null);
+		check("missing listing is fetched", arrivals.await());
+
+		FakeFinder reloadedFinder = new FakeFinder(null, new CountDownLatch(0));
+		MatchInputCache reloaded = new MatchInputCache(reloadedFinder, file, TTL);
+		check("saved listing is loaded", Arrays.deepEquals(listing, reloaded.get(HOST)));
+		check("fresh listing isn't fetched again", reloadedFinder.fetches.get() == 0);
+	}
+
+	private static void checkStale(File file) throws Exception {
+		file.delete();
+		String[][] old = listing("teamA", "map1");
+		MatchInputCache cache = new MatchInputCache(
+			new FakeFinder(old, new CountDownLatch(0)), file, TTL);
+		Arrivals first = new Arrivals(1);
+		cache.addListener(first);
+		cache.get(HOST);
+		first.await();
+		// a negative TTL makes every listing stale
+		String[][] fresh = listing("teamA", "teamB", "map1");
+		FakeFinder finder = new FakeFinder(fresh, new CountDownLatch(0));
+		MatchInputCache stale = new MatchInputCache(finder, file, -1);
+		Arrivals arrivals = new Arrivals(1);
+		stale.addListener(arrivals);
+		check("stale listing is served", Arrays.deepEquals(old, stale.get(HOST)));
+		check("changed listing is announced", arrivals.await());
+		check("stale listing is fetched again", finder.fetches.get() == 1);
+		MatchInputCache reloaded = new MatchInputCache(
+			new FakeFinder(null, new CountDownLatch(0)), file, TTL);
+		check("fresh listing replaces the stale one", Arrays.deepEquals(fresh, reloaded.get(HOST)));
+	}
+
+	private static void checkCorrupt(File file) throws Exception {
+		OutputStream out = new FileOutputStream(file);
+		out.write("not a serialized cache".getBytes("UTF-8"));
+		out.close();
+		String[][] listing = listing("teamA", "map2");
+		MatchInputCache cache = new MatchInputCache(
+			new FakeFinder(listing, new CountDownLatch(0)), file, TTL);
+		Arrivals arrivals = new Arrivals(1);
+		cache.addListener(arrivals);
+		check("corrupt file gives no listing", cache.get(HOST) == null);
+		check("corrupt file is replaced", arrivals.await());
+		MatchInputCache reloaded = new MatchInputCache(
+			new FakeFinder(null, new CountDownLatch(0)), file, TTL);
+		check("replaced file is loaded", Arrays.deepEquals(listing, reloaded.get(HOST)));
+	}
+
+	private static void checkForeign(File file) throws Exception {
+		// a map in some other format, e.g. from an older client
+		Map<String, String[][]> foreign = new HashMap<String, String[][]>();
+		foreign.put(HOST, listing("teamA"));
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+		out.writeObject(foreign);
+		out.close();
+		MatchInputCache cache = new MatchInputCache(
+			new FakeFinder(null, new CountDownLatch(0)), file, TTL);
+		check("foreign entries are ignored", cache.get(HOST) == null);
+	}
+
+	private static void checkSingleFetch(File file) throws Exception {
+		file.delete();
+		CountDownLatch gate = new CountDownLatch(1);
+		FakeFinder finder = new FakeFinder(listing("teamA"), gate);
+		MatchInputCache cache = new MatchInputCache(finder, file, TTL);
+		Arrivals arrivals = new Arrivals(1);
+		cache.addListener(arrivals);
+		for (int i = 0; i < 10; i++) {
+			cache.get(HOST);
+			cache.refresh(HOST);
+		}
+		gate.countDown();
+		arrivals.await();
+		check("host is fetched once while a fetch is in flight", finder.fetches.get() == 1);
+	}
+
+	private static String[][] listing(String... names) {
+		return new String[][] { names };
+	}
+
+	private static void check(String what, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package battlecode.client;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A stand-in for the remote RPC server that lists the teams and maps of the
+ * local installation. It answers both tagged calls over a persistent
+ * RPCChannel and the one-call-per-connection protocol, and can be told to
+ * take a while to answer, so that the client can be tried against a slow
+ * server without one. The client only makes tagged calls with
+ * bc.client.rpc-channel set.
+ *
+ * Usage: MatchInputServer [port [delay in ms]]
+ */
+public class MatchInputServer {
+
+	private final int delay;
+	private final MatchInputFinder finder = new MatchInputFinder();
+
+	public MatchInputServer(int delay) {
+		this.delay = delay;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0 ? Integer.parseInt(args[0]) : 12370);
+		int delay = (args.length > 1 ? Integer.parseInt(args[1]) : 0);
+		new MatchInputServer(delay).serve(port);
+	}
+
+	/**
+	 * Accepts connections on the given port until the process is stopped.
+	 */
+	public void serve(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port);
+		System.out.println("Listing match inputs on port " + port);
+		while (true) {
+			final Socket socket = server.accept();
+			new Thread() {
+				public void run() {
+					try {
+						handle(socket);
+					} catch (Exception e) {
+					} finally {
+						try { socket.close(); } catch (IOException e) {}
+					}
+				}
+			}.start();
+		}
+	}
+
+	private void handle(Socket socket) throws Exception {
+		ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+		out.flush();
+		ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+		Object first = in.readObject();
+		if (!RPCChannel.HANDSHAKE.equals(first)) {
+			out.writeObject(answer(first));
+			out.flush();
+			return;
+		}
+		out.writeObject(RPCChannel.HANDSHAKE);
+		out.flush();
+		while (true) {
+			RPCChannel.Message call = (RPCChannel.Message) in.readObject();
+			out.writeObject(new RPCChannel.Message(call.id, answer(call.body)));
+			out.reset();
+			out.flush();
+		}
+	}
+
+	private Object answer(Object arg) throws InterruptedException {
+		if (!"find-match-inputs".equals(arg)) {
+			return null;
+		}
+		Thread.sleep(delay);
+		return finder.findMatchInputsLocally();
+	}
+}
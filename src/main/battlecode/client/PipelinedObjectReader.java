@@ -0,0 +1,284 @@
+package battlecode.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OptionalDataException;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.util.zip.ZipException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads serialized objects from a stream on two background threads.
+ *
+ * The first thread pulls bytes from the underlying stream (which inflates
+ * them when it is a GZIPInputStream) into a bounded ring of buffers. The
+ * second thread deserializes objects from those buffers into a bounded queue,
+ * which {@link #readObject()} consumes. Decompression, deserialization and
+ * whatever the caller does with the objects therefore run concurrently.
+ */
+public class PipelinedObjectReader {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int NUM_CHUNKS = 16;
+	private static final int NUM_OBJECTS = 4096;
+
+	private static class Chunk {
+		final byte[] data = new byte[CHUNK_SIZE];
+		int length;
+		IOException error;
+	}
+
+	// marks the end of the object stream
+	private static final Object END = new Object();
+
+	private static class Failure {
+		final Throwable cause;
+		final long offset;
+		Failure(Throwable cause, long offset) {
+			this.cause = cause;
+			this.offset = offset;
+		}
+
+		/**
+		 * A stream that was cut off or damaged part way through still holds
+		 * the objects before the damage. Anything else (a missing or changed
+		 * class, say) means this client can't read the stream at all.
+		 */
+		boolean isTruncation() {
+			return cause instanceof StreamCorruptedException
+				|| cause instanceof OptionalDataException
+				|| cause instanceof UTFDataFormatException
+				|| cause instanceof ZipException
+				|| cause instanceof EOFException;
+		}
+	}
+
+	private final InputStream source;
+	private final BlockingQueue<Chunk> freeChunks =
+		new ArrayBlockingQueue<Chunk>(NUM_CHUNKS);
+	private final BlockingQueue<Chunk> fullChunks =
+		new ArrayBlockingQueue<Chunk>(NUM_CHUNKS);
+	private final BlockingQueue<Object> objects =
+		new ArrayBlockingQueue<Object>(NUM_OBJECTS);
+
+	private volatile long bytesRead = 0;
+	private volatile long objectsRead = 0;
+	private volatile long startTime = 0;
+	private volatile long endTime = 0;
+
+	private Object last = null;
+
+	/**
+	 * Starts reading objects from the given stream.
+	 *
+	 * @param source the stream to read from, inflated on the reader's first
+	 * thread if it is compressed
+	 */
+	public PipelinedObjectReader(InputStream source) {
+		this.source = source;
+		for (int i = 0; i < NUM_CHUNKS; i++) {
+			freeChunks.add(new Chunk());
+		}
+		startTime = System.nanoTime();
+		startThread("inflater", new Runnable() {
+			public void run() { readChunks(); }
+		});
+		startThread("deserializer", new Runnable() {
+			public void run() { readObjects(); }
+		});
+	}
+
+	/**
+	 * Blocks until the next object has been deserialized.
+	 *
+	 * @return the next object in the stream
+	 * @throws EOFException if the stream has ended, or is truncated or
+	 * damaged beyond this point
+	 * @throws IllegalStateException if the stream holds objects this client
+	 * can't deserialize, such as classes from another version of the server
+	 */
+	public Object readObject() throws EOFException {
+		if (last == null) {
+			try {
+				Object obj = objects.take();
+				if (obj != END && !(obj instanceof Failure)) {
+					return obj;
+				}
+				last = obj;
+				if (obj instanceof Failure && ((Failure) obj).isTruncation()) {
+					Failure failure = (Failure) obj;
+					System.err.println("Match stream is damaged near byte "
+					                   + failure.offset + " (uncompressed) after "
+					                   + objectsRead + " objects, keeping what was"
+					                   + " read before it: " + failure.cause);
+				}
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while reading match");
+			}
+		}
+		if (last instanceof Failure && !((Failure) last).isTruncation()) {
+			Failure failure = (Failure) last;
+			throw new IllegalStateException("Can't read match stream at byte "
+			                                + failure.offset + " (uncompressed)"
+			                                + " after " + objectsRead + " objects",
+			                                failure.cause);
+		}
+		throw new EOFException();
+	}
+
+	/**
+	 * @return the number of bytes pulled from the stream, after inflation
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the number of objects deserialized so far
+	 */
+	public long getObjectsRead() {
+		return objectsRead;
+	}
+
+	/**
+	 * @return the average rate at which bytes were pulled from the stream
+	 */
+	public double getBytesPerSecond() {
+		return bytesRead / getElapsedSeconds();
+	}
+
+	/**
+	 * @return the average rate at which objects were deserialized
+	 */
+	public double getObjectsPerSecond() {
+		return objectsRead / getElapsedSeconds();
+	}
+
+	private double getElapsedSeconds() {
+		long end = (endTime != 0 ? endTime : System.nanoTime());
+		return Math.max(end - startTime, 1) / 1e9;
+	}
+
+	private void startThread(String stage, Runnable task) {
+		Thread thread = new Thread(task, "PipelinedObjectReader " + stage);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void readChunks() {
+		try {
+			while (true) {
+				Chunk chunk = freeChunks.take();
+				try {
+					chunk.length = source.read(chunk.data, 0, CHUNK_SIZE);
+				}
+				catch (IOException e) {
+					chunk.length = -1;
+					chunk.error = e;
+				}
+				catch (Throwable e) {
+					// the deserializer still has to be told the stream ended
+					chunk.length = -1;
+					chunk.error = new IOException("Can't read match stream", e);
+				}
+				fullChunks.put(chunk);
+				if (chunk.length == -1) {
+					break;
+				}
+				bytesRead += chunk.length;
+			}
+			source.close();
+		}
+		catch (InterruptedException e) {
+		}
+		catch (IOException e) {
+		}
+	}
+
+	private void readObjects() {
+		ChunkInputStream chunks = new ChunkInputStream();
+		long objectStart = 0;
+		try {
+			ObjectInputStream ois;
+			try {
+				ois = StreamClientProxy.createObjectInputStream(chunks);
+				while (true) {
+					objectStart = chunks.consumed;
+					objects.put(ois.readObject());
+					objectsRead++;
+				}
+			}
+			catch (EOFException e) {
+				objects.put(END);
+			}
+			catch (InterruptedException e) {
+				// from put, not from the stream
+				throw e;
+			}
+			catch (Throwable e) {
+				// anything at all, including linkage errors and running out
+				// of memory, must end the queue or readObject() blocks forever
+				objects.put(new Failure(e, objectStart));
+			}
+		}
+		catch (InterruptedException e) {
+		}
+		endTime = System.nanoTime();
+	}
+
+	/**
+	 * Presents the chunks filled by the first thread as a stream.
+	 */
+	private class ChunkInputStream extends InputStream {
+
+		private Chunk current = null;
+		private int position = 0;
+		// bytes handed to the deserializer so far
+		volatile long consumed = 0;
+
+		public int read() throws IOException {
+			if (!nextChunk()) return -1;
+			consumed++;
+			return current.data[position++] & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (!nextChunk()) return -1;
+			int n = Math.min(len, current.length - position);
+			System.arraycopy(current.data, position, b, off, n);
+			position += n;
+			consumed += n;
+			return n;
+		}
+
+		public int available() {
+			return (current == null || current.length == -1
+			        ? 0 : current.length - position);
+		}
+
+		private boolean nextChunk() throws IOException {
+			while (current == null || position == current.length) {
+				if (current != null) {
+					freeChunks.add(current);
+				}
+				try {
+					current = fullChunks.take();
+				}
+				catch (InterruptedException e) {
+					throw new IOException("Interrupted while reading match");
+				}
+				position = 0;
+			}
+			if (current.error != null) {
+				throw current.error;
+			}
+			return current.length != -1;
+		}
+	}
+}
@@ -0,0 +1,360 @@
+package battlecode.client;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reusable connection to an RPC server.
+ *
+ * Calls are made on background threads, and every call has a deadline,
+ * counted from when it is made, after which its future fails with a
+ * TimeoutException.
+ *
+ * The RPC servers answer one call per connection, so by default each call
+ * opens a connection of its own, with the deadline applied as a socket
+ * timeout. Servers that accept tagged calls, such as
+ * {@link MatchInputServer}, can be used with bc.client.rpc-channel set.
+ * Calls are then tagged with an id and written to one persistent
+ * connection, so any number of them can be in flight at once; a reader
+ * thread matches the replies to their calls, and a broken connection is
+ * re-established on the next call. A server that doesn't acknowledge the
+ * handshake in time is remembered as answering one call per connection.
+ */
+public final class RPCChannel {
+
+	/** The first message on a connection, echoed back by servers that
+	 * accept tagged calls. */
+	static final String HANDSHAKE = "rpc-channel";
+
+	private static final int CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * A call or a reply, tagged with the id of the call.
+	 */
+	static final class Message implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final long id;
+		final Object body;
+
+		Message(long id, Object body) {
+			this.id = id;
+			this.body = body;
+		}
+	}
+
+	private static final Map<String, RPCChannel> channels =
+		new HashMap<String, RPCChannel>();
+
+	private static final ThreadFactory threadFactory = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "RPCChannel worker");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+	// connects and makes the calls, so callers never block on the network
+	private static final ExecutorService workers =
+		Executors.newCachedThreadPool(threadFactory);
+	// fails calls that run past their deadline, even while still connecting
+	private static final ScheduledExecutorService deadlines =
+		Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+	private final String host;
+	private final int port;
+	private final AtomicLong nextId = new AtomicLong();
+	private final Map<Long, Call> pending = new ConcurrentHashMap<Long, Call>();
+
+	// guarded by this
+	private Socket socket = null;
+	private ObjectOutputStream output = null;
+	// whether the server answers one call per connection
+	private boolean legacy;
+
+	private RPCChannel(String host, int port) {
+		this.host = host;
+		this.port = port;
+		legacy = !battlecode.server.Config.getGlobalConfig()
+			.getBoolean("bc.client.rpc-channel");
+	}
+
+	/**
+	 * @return the channel to the given server, shared by all callers
+	 */
+	public static synchronized RPCChannel get(String host, int port) {
+		String key = host + ":" + port;
+		RPCChannel channel = channels.get(key);
+		if (channel == null) {
+			channel = new RPCChannel(host, port);
+			channels.put(key, channel);
+		}
+		return channel;
+	}
+
+	/**
+	 * Sends a call to the server and waits for the reply.
+	 *
+	 * @param arg the argument to the RPC server
+	 * @param timeout how long to wait for the reply, in milliseconds
+	 * @return the RPC server's response
+	 * @throws IOException if the call couldn't be made
+	 * @throws TimeoutException if there was no reply in time
+	 */
+	public Object call(Object arg, long timeout)
+		throws IOException, TimeoutException {
+		try {
+			return callAsync(arg, timeout).get();
+		}
+		catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted during RPC call");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof TimeoutException) throw (TimeoutException) cause;
+			throw new IOException("RPC call failed: " + cause);
+		}
+	}
+
+	/**
+	 * Sends a call to the server without waiting for the reply.
+	 *
+	 * @param arg the argument to the RPC server
+	 * @param timeout how long the server has to reply, in milliseconds;
+	 * after that the future fails with a TimeoutException
+	 * @return the RPC server's eventual response
+	 */
+	public Future<Object> callAsync(final Object arg, final long timeout) {
+		final Call call = new Call(nextId.incrementAndGet());
+		call.deadline = deadlines.schedule(new Runnable() {
+			public void run() {
+				pending.remove(call.id);
+				call.fail(new TimeoutException("No reply from " + host + " after "
+				                               + timeout + " ms"));
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		workers.execute(new Runnable() {
+			public void run() {
+				if (call.isDone()) return;
+				try {
+					if (!send(call, arg)) {
+						call.complete(callOnce(arg, (int) timeout));
+					}
+				}
+				catch (Exception e) {
+					call.fail(e);
+				}
+			}
+		});
+		return call;
+	}
+
+	/**
+	 * Writes a tagged call to the persistent connection, reconnecting once if
+	 * the connection turns out to be broken. Runs on a worker.
+	 *
+	 * @return false if the server doesn't accept tagged calls
+	 */
+	private synchronized boolean send(Call call, Object arg) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			if (!legacy && socket == null) {
+				connect();
+			}
+			if (legacy) {
+				return false;
+			}
+			pending.put(call.id, call);
+			try {
+				output.writeObject(new Message(call.id, arg));
+				output.reset();
+				output.flush();
+				return true;
+			}
+			catch (IOException e) {
+				pending.remove(call.id);
+				disconnect(e);
+				if (attempt > 0) throw e;
+			}
+		}
+	}
+
+	/**
+	 * Connects and offers the handshake. A server that doesn't echo it, or
+	 * doesn't answer in time, is taken to answer one call per connection.
+	 */
+	private void connect() throws IOException {
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+		}
+		catch (IOException e) {
+			s.close();
+			throw e;
+		}
+		try {
+			s.setSoTimeout(CONNECT_TIMEOUT);
+			ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+			out.writeObject(HANDSHAKE);
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+			if (!HANDSHAKE.equals(in.readObject())) {
+				legacy = true;
+				s.close();
+				return;
+			}
+			s.setSoTimeout(0);
+			socket = s;
+			output = out;
+			startReader(s, in);
+		}
+		catch (SocketTimeoutException e) {
+			// the server is waiting for the rest of what it took for a call
+			legacy = true;
+			s.close();
+		}
+		catch (ClassNotFoundException e) {
+			legacy = true;
+			s.close();
+		}
+		catch (EOFException e) {
+			// the server answered the handshake as a call and hung up
+			legacy = true;
+			s.close();
+		}
+		catch (IOException e) {
+			s.close();
+			throw e;
+		}
+	}
+
+	private synchronized void disconnect(Exception cause) {
+		if (socket == null) return;
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+		}
+		socket = null;
+		output = null;
+		for (Long id: pending.keySet()) {
+			Call call = pending.remove(id);
+			if (call != null) call.fail(cause);
+		}
+	}
+
+	private void startReader(final Socket s, final ObjectInputStream in) {
+		Thread thread = new Thread("RPCChannel " + host) {
+			public void run() {
+				try {
+					while (true) {
+						Message reply = (Message) in.readObject();
+						Call call = pending.remove(reply.id);
+						if (call != null) call.complete(reply.body);
+					}
+				}
+				catch (Exception e) {
+					synchronized (RPCChannel.this) {
+						if (socket == s) disconnect(e);
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Makes a call on a connection of its own, the way servers that don't
+	 * accept tagged calls expect.
+	 */
+	private Object callOnce(Object arg, int timeout)
+		throws IOException, ClassNotFoundException {
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(host, port),
+			          Math.min(timeout, CONNECT_TIMEOUT));
+			s.setSoTimeout(timeout);
+			ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+			out.writeObject(arg);
+			out.flush();
+			return new ObjectInputStream(s.getInputStream()).readObject();
+		}
+		finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * The future of a call, completed by the reader thread, a worker, or the
+	 * call's deadline, whichever comes first.
+	 */
+	private static final class Call implements Future<Object> {
+		final long id;
+		volatile ScheduledFuture<?> deadline;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Object result;
+		private Throwable failure;
+
+		Call(long id) {
+			this.id = id;
+		}
+
+		synchronized void complete(Object value) {
+			if (done.getCount() == 0) return;
+			result = value;
+			finish();
+		}
+
+		synchronized void fail(Throwable cause) {
+			if (done.getCount() == 0) return;
+			failure = cause;
+			finish();
+		}
+
+		private void finish() {
+			done.countDown();
+			if (deadline != null) deadline.cancel(false);
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			fail(new CancellationException());
+			return true;
+		}
+
+		public synchronized boolean isCancelled() {
+			return failure instanceof CancellationException;
+		}
+
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		public Object get() throws InterruptedException, ExecutionException {
+			done.await();
+			return report();
+		}
+
+		public Object get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return report();
+		}
+
+		private synchronized Object report() throws ExecutionException {
+			if (failure instanceof CancellationException) {
+				throw (CancellationException) failure;
+			}
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return result;
+		}
+	}
+}
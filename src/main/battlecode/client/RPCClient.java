@@ -1,79 +1,78 @@
 package battlecode.client;
 
+import battlecode.client.util.ConfigOptions;
 import battlecode.server.Server;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A utility class for making remote method calls.
  */
 public class RPCClient {
-	
-	/** The socket to use for communication. */
-	private final Socket socket;
-	
+
+	/** The channel calls are made on, shared with other clients of the host. */
+	private final RPCChannel channel;
+
 	/** The default RPC port. */
 	private static final int DEFAULT_PORT = 12370;
-	
+
+	/** The default deadline of a call, in milliseconds. */
+	private static final long DEFAULT_TIMEOUT = 5000;
+
 	/**
 	 * Creates a new RPC client that will talk to the given host over the
 	 * default port.
 	 *
 	 * @param host the hostname of the remote machine
-	 * @throws UnknownHostException if the host couldn't be resolved
-	 * @throws IOException if the host couldn't be reached
 	 */
-	public RPCClient(String host) throws UnknownHostException, IOException {
+	public RPCClient(String host) {
 		this(host, DEFAULT_PORT);
 	}
-	
+
 	/**
 	 * Creates a new RPC client that will talk to the given host over the given
-	 * port.
+	 * port. The connection is made by the first call.
 	 *
 	 * @param host the hostname of the remote machine
-	 * @throws UnknownHostException if the host couldn't be resolved
-	 * @throws IOException if the host couldn't be reached
 	 */
-	public RPCClient(String host, int port) throws UnknownHostException, IOException {
-		socket = new Socket(host, port);
+	public RPCClient(String host, int port) {
+		channel = RPCChannel.get(host, port);
 	}
-	
+
 	/**
 	 * Pass the given argument to the RPC server and return its reply.
 	 *
 	 * @param arg the argument to the RPC server
 	 * @param <T> the type of the argument to the RPC server
-	 * @return the RPC server's response
+	 * @return the RPC server's response, or null if the call failed or timed
+	 * out
 	 */
 	public <T> Object call(T arg) {
 		try {
-			// Use serialization.
-			ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
-			ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
-			
-			// Write the argument to the stream.
-			output.writeObject(arg);
-			output.reset();
-			output.flush();
-			
-			// Get the input.
-			Object result = input.readObject();
-			
-			// Close the socket.
-			socket.close();
-			
-			return result;
+			return channel.call(arg, getTimeout());
 		} catch (IOException e) {
 			Server.error("RPC client error: " + e.getMessage());
-		} catch (ClassNotFoundException e) {
+		} catch (TimeoutException e) {
 			Server.error("RPC client error: " + e.getMessage());
 		}
-		
+
 		// If something went wrong...
 		return null;
 	}
+
+	/**
+	 * Pass the given argument to the RPC server without waiting for its reply.
+	 *
+	 * @param arg the argument to the RPC server
+	 * @param <T> the type of the argument to the RPC server
+	 * @return the RPC server's eventual response
+	 */
+	public <T> Future<Object> callAsync(T arg) {
+		return channel.callAsync(arg, getTimeout());
+	}
+
+	private static long getTimeout() {
+		return ConfigOptions.getLong("bc.client.rpc-timeout", DEFAULT_TIMEOUT);
+	}
 }
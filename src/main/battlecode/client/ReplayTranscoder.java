@@ -0,0 +1,280 @@
+package battlecode.client;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import battlecode.client.replay.IndexedReplayWriter;
+import battlecode.client.replay.XmlObjectInputStream;
+import battlecode.client.viewer.render.DrawState;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.MatchFooter;
+import battlecode.serial.MatchHeader;
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundStats;
+import battlecode.server.proxy.XStreamProxy;
+import battlecode.world.GameMap;
+
+/**
+ * Converts replays to the indexed format from the command line, several at
+ * a time.
+ *
+ * Binary and XML replays, compressed or not, are accepted. Each converted
+ * replay is read back and both copies are played through a game state; the
+ * conversion only counts as verified if every match ends in the same state.
+ *
+ * Usage: ReplayTranscoder [-threads n] [-out dir] [-no-verify] file-or-dir...
+ */
+public class ReplayTranscoder {
+
+	/** The extension given to converted replays. */
+	public static final String EXTENSION = ".rmx";
+
+	private static final class Result {
+		File input;
+		File output;
+		int matches;
+		long rounds;
+		long nanos;
+		boolean verified;
+		String error;
+	}
+
+	/**
+	 * Plays the matches of a replay and records the state each one ends in.
+	 */
+	private static final class StateRecorder {
+		private DrawState state = null;
+		final List<Long> digests = new ArrayList<Long>();
+		long rounds = 0;
+
+		void add(Object obj) {
+			if (obj instanceof MatchHeader) {
+				state = DrawState.FACTORY.createState(
+					(GameMap) ((MatchHeader) obj).getMap());
+			}
+			else if (state == null) {
+				return;
+			}
+			else if (obj instanceof RoundDelta) {
+				state.apply((RoundDelta) obj);
+				rounds++;
+			}
+			else if (obj instanceof RoundStats) {
+				state.apply((RoundStats) obj);
+			}
+			else if (obj instanceof Signal[]) {
+				for (Signal signal: (Signal[]) obj) {
+					state.apply(signal);
+				}
+			}
+			else if (obj instanceof MatchFooter) {
+				digests.add(state.computeDigest());
+				state = null;
+			}
+		}
+	}
+
+	private final File outputDir;
+	private final boolean verify;
+
+	public ReplayTranscoder(File outputDir, boolean verify) {
+		this.outputDir = outputDir;
+		this.verify = verify;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		int threads = Runtime.getRuntime().availableProcessors();
+		File outputDir = null;
+		boolean verify = true;
+		List<File> inputs = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-out"))
+				outputDir = new File(args[++i]);
+			else if (args[i].equals("-no-verify"))
+				verify = false;
+			else
+				addInputs(new File(args[i]), inputs);
+		}
+		if (inputs.isEmpty()) {
+			System.err.println("Usage: ReplayTranscoder [-threads n] [-out dir]"
+			                   + " [-no-verify] file-or-dir...");
+			System.exit(1);
+		}
+		if (outputDir != null)
+			outputDir.mkdirs();
+
+		boolean ok = new ReplayTranscoder(outputDir, verify).run(inputs, threads);
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static void addInputs(File file, List<File> inputs) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children == null) return;
+			for (File child: children) {
+				if (child.isDirectory() || child.getName().endsWith(".rms")
+				    || child.getName().endsWith(".xml"))
+					addInputs(child, inputs);
+			}
+		}
+		else {
+			inputs.add(file);
+		}
+	}
+
+	/**
+	 * Converts the given replays on a pool of threads and prints a line for
+	 * each and a summary.
+	 *
+	 * @return true if every replay was converted (and verified)
+	 */
+	public boolean run(List<File> inputs, int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		for (final File input: inputs) {
+			results.add(pool.submit(new Callable<Result>() {
+				public Result call() {
+					return convert(input);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		long inputBytes = 0, outputBytes = 0, rounds = 0;
+		int failures = 0;
+		for (Future<Result> future: results) {
+			Result result;
+			try {
+				result = future.get();
+			}
+			catch (java.util.concurrent.ExecutionException e) {
+				e.getCause().printStackTrace();
+				failures++;
+				continue;
+			}
+			if (result.error != null) {
+				failures++;
+				System.out.println(result.input + ": FAILED: " + result.error);
+				continue;
+			}
+			inputBytes += result.input.length();
+			outputBytes += result.output.length();
+			rounds += result.rounds;
+			System.out.println(String.format(
+				"%s: %d matches, %d rounds, %d KB to %d KB (%.2f), %.0f ms%s",
+				result.input, result.matches, result.rounds,
+				result.input.length() >> 10, result.output.length() >> 10,
+				(double) result.output.length() / Math.max(result.input.length(), 1),
+				result.nanos / 1e6, (result.verified ? ", verified" : "")));
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format(
+			"%d replays converted, %d failed, %.1f s on %d threads:"
+			+ " %.1f MB/s, %.0f rounds/s, size ratio %.2f",
+			inputs.size() - failures, failures, seconds, threads,
+			inputBytes / 1e6 / seconds, rounds / seconds,
+			(double) outputBytes / Math.max(inputBytes, 1)));
+		return failures == 0;
+	}
+
+	/**
+	 * Converts one replay, and verifies it unless told not to.
+	 */
+	private Result convert(File input) {
+		Result result = new Result();
+		result.input = input;
+		result.output = outputFor(input);
+		long start = System.nanoTime();
+		StateRecorder original = new StateRecorder();
+		try {
+			ObjectInputStream in = openReplay(input);
+			IndexedReplayWriter writer = new IndexedReplayWriter(result.output.getPath());
+			try {
+				while (true) {
+					Object obj;
+					try {
+						obj = in.readObject();
+					}
+					catch (EOFException e) {
+						break;
+					}
+					writer.write(obj);
+					if (verify) original.add(obj);
+					else if (obj instanceof RoundDelta) original.rounds++;
+					else if (obj instanceof MatchFooter) original.digests.add(0L);
+				}
+			}
+			finally {
+				writer.close();
+				in.close();
+			}
+			result.matches = original.digests.size();
+			result.rounds = original.rounds;
+			if (verify) {
+				StateRecorder converted = new StateRecorder();
+				IndexedClientProxy proxy = new IndexedClientProxy(result.output.getPath());
+				try {
+					while (true) {
+						converted.add(proxy.readObject());
+					}
+				}
+				catch (EOFException e) {
+				}
+				finally {
+					proxy.getReplayFile().close();
+				}
+				if (!original.digests.equals(converted.digests)) {
+					result.error = "converted replay ends in a different state";
+				}
+				result.verified = (result.error == null);
+			}
+		}
+		catch (Exception e) {
+			result.error = e.toString();
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private File outputFor(File input) {
+		String name = input.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		File dir = (outputDir != null ? outputDir : input.getAbsoluteFile().getParentFile());
+		return new File(dir, name + EXTENSION);
+	}
+
+	/**
+	 * Opens a replay, working out whether it is compressed and whether it
+	 * is XML from its first bytes.
+	 */
+	static ObjectInputStream openReplay(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		in.mark(2);
+		int magic = in.read() | (in.read() << 8);
+		in.reset();
+		if (magic == GZIPInputStream.GZIP_MAGIC)
+			in = new BufferedInputStream(new GZIPInputStream(in, 64 * 1024), 64 * 1024);
+
+		in.mark(64);
+		int c;
+		do {
+			c = in.read();
+		} while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+		in.reset();
+		if (c == '<')
+			return new XmlObjectInputStream(in, XStreamProxy.getXStream());
+		return new ObjectInputStream(in);
+	}
+}
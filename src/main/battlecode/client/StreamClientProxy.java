@@ -1,28 +1,33 @@
 package battlecode.client;
 
+import battlecode.serial.MatchFooter;
+import battlecode.serial.MatchHeader;
 import battlecode.serial.notification.Notification;
 
 import battlecode.engine.signal.Signal;
 
 import java.io.*;
+import battlecode.client.replay.XmlObjectInputStream;
+import battlecode.client.util.ConfigOptions;
+import battlecode.client.util.TailInputStream;
 import battlecode.server.Config;
 import battlecode.server.proxy.XStreamProxy;
 
 public final class StreamClientProxy implements ClientProxy {
 
-	private ObjectInputStream  ois;
+	// how long to wait for the next match after a footer when following
+	private static final long DEFAULT_FOLLOW_IDLE_TIMEOUT = 5000;
+	private static final long DEFAULT_FOLLOW_POLL_INTERVAL = 500;
+
+	private final PipelinedObjectReader reader;
 	private ObjectOutputStream oos = null;
+	private TailInputStream tail = null;
 
 	private Object peekBuffer;
 	private boolean peeked = false;
 
 	public StreamClientProxy(InputStream stream) throws IOException {
-		if(Config.getGlobalConfig().getBoolean("bc.server.output-xml")) {
-			ois = XStreamProxy.getXStream().createObjectInputStream(stream);	
-		}
-		else {
-			ois = new ObjectInputStream(stream);
-		}
+		reader = new PipelinedObjectReader(stream);
 	}
 
 	public StreamClientProxy(InputStream is, ObjectOutputStream os) throws IOException {
@@ -31,7 +36,24 @@ public final class StreamClientProxy implements ClientProxy {
 	}
 
 	public StreamClientProxy(String path) throws IOException {
-		this(new java.util.zip.GZIPInputStream(new FileInputStream(path)));
+		this(new java.util.zip.GZIPInputStream(new FileInputStream(path), 64 * 1024));
+	}
+
+	private StreamClientProxy(TailInputStream tail) throws IOException {
+		this(new DeferredGZIPInputStream(tail));
+		this.tail = tail;
+	}
+
+	/**
+	 * Reads a compressed match file that may still be being written. Reads
+	 * wait for more of the file instead of failing at its end; the stream
+	 * only ends when no further match has started for a while after a footer.
+	 */
+	public static StreamClientProxy follow(String path) throws IOException {
+		return new StreamClientProxy(new TailInputStream(
+			new File(path),
+			ConfigOptions.getLong("bc.client.follow-poll-interval",
+			                      DEFAULT_FOLLOW_POLL_INTERVAL)));
 	}
 
 	public Object readObject() throws EOFException {
@@ -40,21 +62,41 @@ public final class StreamClientProxy implements ClientProxy {
 			//System.out.println("SP " + peekBuffer);
 			return peekBuffer;
 		}
-		try {
-
-			Object o = ois.readObject();
-			//System.out.println("SP " + o);
-                        return o;
+		Object o = reader.readObject();
+		//System.out.println("SP " + o);
+		if (tail != null) {
+			if (o instanceof MatchFooter) {
+				tail.finish(ConfigOptions.getLong("bc.client.follow-idle-timeout",
+				                                  DEFAULT_FOLLOW_IDLE_TIMEOUT));
+			}
+			else if (o instanceof MatchHeader) {
+				tail.follow();
+			}
 		}
-		catch (EOFException e) {
-			throw e;
+		return o;
+	}
+
+	static ObjectInputStream createObjectInputStream(InputStream stream)
+		throws IOException {
+		Config config = Config.getGlobalConfig();
+		if(config.getBoolean("bc.server.output-xml")) {
+			if (config.getBoolean("bc.client.xstream-reader")) {
+				return XStreamProxy.getXStream().createObjectInputStream(stream);
+			}
+			return new XmlObjectInputStream(stream, XStreamProxy.getXStream());
 		}
-		catch (Exception e) {
-			e.printStackTrace();
-			throw new RuntimeException("Deserialization failed");
+		else {
+			return new ObjectInputStream(stream);
 		}
 	}
 
+	/**
+	 * @return the reader that decompresses and deserializes the stream
+	 */
+	public PipelinedObjectReader getReader() {
+		return reader;
+	}
+
 	public Object peekObject() throws EOFException {
 		if (!peeked) {
 			peekBuffer = readObject();
@@ -75,6 +117,42 @@ public final class StreamClientProxy implements ClientProxy {
 		writeObject(s);
 	}
 
+	/**
+	 * Reads the gzip header on the first read rather than on construction,
+	 * since a file that is still being written may not have one yet.
+	 */
+	private static final class DeferredGZIPInputStream extends InputStream {
+		private final InputStream raw;
+		private InputStream in = null;
+
+		DeferredGZIPInputStream(InputStream raw) {
+			this.raw = raw;
+		}
+
+		private InputStream in() throws IOException {
+			if (in == null) {
+				in = new java.util.zip.GZIPInputStream(raw, 64 * 1024);
+			}
+			return in;
+		}
+
+		public int read() throws IOException {
+			return in().read();
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in().read(b, off, len);
+		}
+
+		public int available() throws IOException {
+			return (in == null ? 0 : in.available());
+		}
+
+		public void close() throws IOException {
+			raw.close();
+		}
+	}
+
 	private void writeObject(Object o) {
 		assert isDebuggingAvailable();
 		try {
@@ -84,8 +162,4 @@ public final class StreamClientProxy implements ClientProxy {
 			e.printStackTrace();
 		}
 	}
-
-	protected void finalize() throws Throwable {
-		if (ois != null) ois.close();
-	}
 }
@@ -0,0 +1,459 @@
+package battlecode.client.replay;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import battlecode.serial.*;
+
+/**
+ * Random access to a replay stored in the indexed format.
+ *
+ * An indexed replay starts with a magic number and a version, followed by one
+ * group of sections per match: a header section holding the
+ * {@link MatchHeader} and its {@link ExtensibleMetadata}, a run of round
+ * blocks, and a footer section holding the {@link MatchFooter}. Every section
+ * is a type byte and a length followed by a deflated payload, so each one can
+ * be decoded without touching the rest of the file. Round blocks are encoded
+ * with a {@link SignalCodec} (in version 1 they were object streams like the
+ * other sections). Since version 3 every section starts with a sync marker
+ * and carries a CRC32 of its payload, and since version 4 round blocks carry
+ * the schemas of the signal classes that wrote them. The file ends
+ * with an index section that maps every block of every match to its offset,
+ * and a fixed-size trailer pointing at the index.
+ *
+ * If the index of a file of version 3 or later is missing or damaged, as it
+ * is when the writer died, the sections are scanned instead. Every match is
+ * recovered up to its first damaged section, and the scan picks up again at
+ * the next sync marker. A match recovered without its footer has no footer, and
+ * {@link #getDamageOffset()} tells where the first damage was found.
+ *
+ * Decoded blocks are cached, so reading the rounds of a match in order only
+ * decodes each block once.
+ */
+public class IndexedReplayFile {
+
+	static final int MAGIC = 0x42435249; // "BCRI"
+	static final int VERSION = 4;
+	static final int SYNC = 0x53594e43; // "SYNC"
+
+	static final byte SECTION_HEADER = 1;
+	static final byte SECTION_ROUNDS = 2;
+	static final byte SECTION_FOOTER = 3;
+	static final byte SECTION_INDEX = 4;
+
+	private static final int TRAILER_SIZE = 12;
+	private static final int SECTION_HEADER_SIZE = 13;
+	// keyframe workers each walk their own run of rounds, so keep a couple of
+	// blocks for each of them
+	private static final int CACHED_BLOCKS =
+		Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The location of every section of one match.
+	 */
+	static class MatchIndex {
+		final long headerOffset;
+		final long footerOffset;
+		final int numRounds;
+		final int roundsPerBlock;
+		final long[] blockOffsets;
+
+		MatchIndex(long headerOffset, long footerOffset, int numRounds,
+		           int roundsPerBlock, long[] blockOffsets) {
+			this.headerOffset = headerOffset;
+			this.footerOffset = footerOffset;
+			this.numRounds = numRounds;
+			this.roundsPerBlock = roundsPerBlock;
+			this.blockOffsets = blockOffsets;
+		}
+
+		static MatchIndex read(DataInput in) throws IOException {
+			long headerOffset = in.readLong();
+			long footerOffset = in.readLong();
+			int numRounds = in.readInt();
+			int roundsPerBlock = in.readInt();
+			long[] blockOffsets = new long[in.readInt()];
+			for (int i = 0; i < blockOffsets.length; i++) {
+				blockOffsets[i] = in.readLong();
+			}
+			return new MatchIndex(headerOffset, footerOffset, numRounds,
+			                      roundsPerBlock, blockOffsets);
+		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeLong(headerOffset);
+			out.writeLong(footerOffset);
+			out.writeInt(numRounds);
+			out.writeInt(roundsPerBlock);
+			out.writeInt(blockOffsets.length);
+			for (long offset: blockOffsets) {
+				out.writeLong(offset);
+			}
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final int version;
+	private final MatchIndex[] matches;
+	private long damageOffset = -1;
+	private final SignalCodec codec = SignalCodec.createDefault();
+
+	private final Map<Long, Object[]> blockCache =
+		new LinkedHashMap<Long, Object[]>(CACHED_BLOCKS, 0.75f, true) {
+			private static final long serialVersionUID = 0; // don't serialize
+			protected boolean removeEldestEntry(Map.Entry<Long, Object[]> e) {
+				return size() > CACHED_BLOCKS;
+			}
+		};
+
+	/**
+	 * Opens an indexed replay and reads its index.
+	 *
+	 * @param path the replay file
+	 * @throws IOException if the file couldn't be read or isn't an indexed
+	 * replay
+	 */
+	public IndexedReplayFile(String path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		try {
+			if (file.length() < 8 + TRAILER_SIZE
+			    || file.readInt() != MAGIC) {
+				throw new IOException(path + " is not an indexed replay");
+			}
+			version = file.readInt();
+			if (version < 1 || version > VERSION) {
+				throw new IOException(path + " has unsupported version "
+				                      + version);
+			}
+			MatchIndex[] index;
+			try {
+				index = readIndex();
+			}
+			catch (IOException e) {
+				if (version < 3) {
+					throw new IOException(path + " has no index, it may be truncated");
+				}
+				index = recover();
+				System.err.println(String.format(
+					"%s is damaged at offset %d of %d, recovered %d matches",
+					path, damageOffset, file.length(), index.length));
+			}
+			matches = index;
+		}
+		catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks whether the given file starts like an indexed replay.
+	 *
+	 * @param path the file to check
+	 * @return true if the file has the indexed replay magic number
+	 */
+	public static boolean isIndexedReplay(String path) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(path));
+			try {
+				return in.readInt() == MAGIC;
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the offset of the first damaged or missing section found while
+	 * recovering the replay, or -1 if its index was intact
+	 */
+	public long getDamageOffset() {
+		return damageOffset;
+	}
+
+	public int getMatchCount() {
+		return matches.length;
+	}
+
+	public int getNumRounds(int match) {
+		return matches[match].numRounds;
+	}
+
+	public synchronized MatchHeader getHeader(int match) throws IOException {
+		return (MatchHeader) readObjects(matches[match].headerOffset,
+		                                 SECTION_HEADER)[0];
+	}
+
+	/**
+	 * @return the metadata that was sent along with the header of the match
+	 */
+	public synchronized List<ExtensibleMetadata> getMetadata(int match)
+		throws IOException {
+		Object[] objects = readObjects(matches[match].headerOffset,
+		                               SECTION_HEADER);
+		List<ExtensibleMetadata> metadata = new ArrayList<ExtensibleMetadata>();
+		for (int i = 1; i < objects.length; i++) {
+			metadata.add((ExtensibleMetadata) objects[i]);
+		}
+		return metadata;
+	}
+
+	/**
+	 * @return the footer of the match, or null if the match was recovered
+	 * without one
+	 */
+	public synchronized MatchFooter getFooter(int match) throws IOException {
+		if (matches[match].footerOffset == -1) {
+			return null;
+		}
+		return (MatchFooter) readObjects(matches[match].footerOffset,
+		                                 SECTION_FOOTER)[0];
+	}
+
+	/**
+	 * Decodes a single round, reading only the block that contains it.
+	 *
+	 * @param match the index of the match in the file
+	 * @param round the round to read
+	 * @return the delta of the given round
+	 * @throws IOException if the block couldn't be read
+	 */
+	public synchronized RoundDelta getRound(int match, int round)
+		throws IOException {
+		return (RoundDelta) getBlockEntry(match, round, 0);
+	}
+
+	/**
+	 * @return the stats sent after the given round, or null if there were none
+	 */
+	public synchronized RoundStats getRoundStats(int match, int round)
+		throws IOException {
+		return (RoundStats) getBlockEntry(match, round, 1);
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private Object getBlockEntry(int match, int round, int entry)
+		throws IOException {
+		MatchIndex index = matches[match];
+		if (round < 0 || round >= index.numRounds) {
+			throw new IndexOutOfBoundsException("Round " + round + " of "
+			                                    + index.numRounds);
+		}
+		long offset = index.blockOffsets[round / index.roundsPerBlock];
+		Object[] block = blockCache.get(offset);
+		if (block == null) {
+			block = (version >= 2 ? readBlock(offset)
+			         : readObjects(offset, SECTION_ROUNDS));
+			blockCache.put(offset, block);
+		}
+		return block[2 * (round % index.roundsPerBlock) + entry];
+	}
+
+	private MatchIndex[] readIndex() throws IOException {
+		file.seek(file.length() - TRAILER_SIZE);
+		long indexOffset = file.readLong();
+		if (file.readInt() != MAGIC) {
+			throw new IOException("No trailer");
+		}
+		DataInputStream index = new DataInputStream(
+			new ByteArrayInputStream(readSection(indexOffset, SECTION_INDEX)));
+		MatchIndex[] matches = new MatchIndex[index.readInt()];
+		for (int i = 0; i < matches.length; i++) {
+			matches[i] = MatchIndex.read(index);
+		}
+		return matches;
+	}
+
+	/**
+	 * Rebuilds the index by scanning the sections of the file.
+	 */
+	private MatchIndex[] recover() throws IOException {
+		List<MatchIndex> found = new ArrayList<MatchIndex>();
+		// the match being scanned
+		long headerOffset = -1;
+		List<Long> blocks = new ArrayList<Long>();
+		int numRounds = 0;
+		int roundsPerBlock = 0;
+
+		long offset = 8;
+		while (offset < file.length()) {
+			byte type;
+			long next;
+			try {
+				type = peekSectionType(offset);
+				byte[] payload = readSection(offset, type);
+				next = offset + SECTION_HEADER_SIZE + payload.length;
+				if (type == SECTION_ROUNDS && headerOffset != -1) {
+					int rounds = codec.decode(inflate(payload), version >= 4).length / 2;
+					if (roundsPerBlock == 0) {
+						roundsPerBlock = rounds;
+					}
+					else if (rounds > roundsPerBlock
+					         || numRounds % roundsPerBlock != 0) {
+						throw new IOException("Block of " + rounds + " rounds");
+					}
+					blocks.add(offset);
+					numRounds += rounds;
+				}
+			}
+			catch (IOException e) {
+				if (damageOffset == -1) {
+					damageOffset = offset;
+				}
+				if (headerOffset != -1) {
+					found.add(new MatchIndex(headerOffset, -1, numRounds,
+					                         Math.max(roundsPerBlock, 1),
+					                         toArray(blocks)));
+					headerOffset = -1;
+				}
+				offset = findSync(offset + 1);
+				continue;
+			}
+			if (type == SECTION_HEADER) {
+				if (headerOffset != -1) {
+					found.add(new MatchIndex(headerOffset, -1, numRounds,
+					                         Math.max(roundsPerBlock, 1),
+					                         toArray(blocks)));
+				}
+				headerOffset = offset;
+				blocks.clear();
+				numRounds = 0;
+				roundsPerBlock = 0;
+			}
+			else if (type == SECTION_FOOTER && headerOffset != -1) {
+				found.add(new MatchIndex(headerOffset, offset, numRounds,
+				                         Math.max(roundsPerBlock, 1),
+				                         toArray(blocks)));
+				headerOffset = -1;
+			}
+			offset = next;
+		}
+		if (headerOffset != -1) {
+			found.add(new MatchIndex(headerOffset, -1, numRounds,
+			                         Math.max(roundsPerBlock, 1), toArray(blocks)));
+		}
+		if (damageOffset == -1) {
+			// every section was intact, so only the index went missing
+			damageOffset = file.length();
+		}
+		return found.toArray(new MatchIndex[found.size()]);
+	}
+
+	private static long[] toArray(List<Long> list) {
+		long[] array = new long[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	private byte peekSectionType(long offset) throws IOException {
+		file.seek(offset + (version >= 3 ? 4 : 0));
+		return file.readByte();
+	}
+
+	/**
+	 * @return the offset of the next sync marker at or after the given one,
+	 * or the end of the file if there is none
+	 */
+	private long findSync(long from) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		long offset = from;
+		while (offset + 4 <= file.length()) {
+			file.seek(offset);
+			int n = file.read(buffer, 0, (int) Math.min(buffer.length,
+			                                            file.length() - offset));
+			for (int i = 0; i + 4 <= n; i++) {
+				int word = ((buffer[i] & 0xFF) << 24) | ((buffer[i + 1] & 0xFF) << 16)
+					| ((buffer[i + 2] & 0xFF) << 8) | (buffer[i + 3] & 0xFF);
+				if (word == SYNC) {
+					return offset + i;
+				}
+			}
+			offset += Math.max(n - 3, 1);
+		}
+		return file.length();
+	}
+
+	private byte[] readSection(long offset, byte type) throws IOException {
+		file.seek(offset);
+		if (version >= 3 && file.readInt() != SYNC) {
+			throw new IOException("Replay is damaged at offset " + offset
+			                      + ": no section starts there");
+		}
+		if (file.readByte() != type) {
+			throw new IOException("Expected section " + type + " at offset "
+			                      + offset);
+		}
+		int length = file.readInt();
+		int checksum = (version >= 3 ? file.readInt() : 0);
+		if (length < 0 || file.getFilePointer() + length > file.length()) {
+			throw new IOException("Replay is damaged at offset " + offset
+			                      + ": section runs past the end of the file");
+		}
+		byte[] payload = new byte[length];
+		file.readFully(payload);
+		if (version >= 3) {
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			if ((int) crc.getValue() != checksum) {
+				throw new IOException("Replay is damaged at offset " + offset
+				                      + ": checksum mismatch");
+			}
+		}
+		return payload;
+	}
+
+	private static byte[] inflate(byte[] payload) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			InputStream in = new InflaterInputStream(
+				new ByteArrayInputStream(payload), inflater);
+			ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				inflated.write(buffer, 0, n);
+			}
+			return inflated.toByteArray();
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	private Object[] readBlock(long offset) throws IOException {
+		return codec.decode(inflate(readSection(offset, SECTION_ROUNDS)), version >= 4);
+	}
+
+	private Object[] readObjects(long offset, byte type) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			ObjectInputStream ois = new ObjectInputStream(
+				new InflaterInputStream(new ByteArrayInputStream(
+					readSection(offset, type)), inflater));
+			Object[] objects = new Object[ois.readInt()];
+			for (int i = 0; i < objects.length; i++) {
+				objects[i] = ois.readObject();
+			}
+			return objects;
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Replay section at offset " + offset
+			                      + " has an unknown class: " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+	}
+}
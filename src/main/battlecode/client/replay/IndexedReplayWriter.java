@@ -0,0 +1,255 @@
+package battlecode.client.replay;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import battlecode.client.ClientProxy;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.*;
+
+/**
+ * Writes matches in the indexed replay format read by
+ * {@link IndexedReplayFile}.
+ *
+ * The writer accepts the same sequence of objects that a match server writes
+ * to a .rms stream, so converting a replay is a matter of copying every object
+ * from a {@link ClientProxy} into {@link #write(Object)}. Rounds are grouped
+ * into blocks that can each be decoded on their own, and the offsets of every
+ * block are collected into an index that is written when the file is closed.
+ */
+public class IndexedReplayWriter {
+
+	/** The number of rounds stored in each block by default. */
+	public static final int DEFAULT_ROUNDS_PER_BLOCK = 50;
+
+	private final DataOutputStream out;
+	private final int roundsPerBlock;
+	private final SignalCodec codec = SignalCodec.createDefault();
+	private long position = 0;
+
+	private final List<IndexedReplayFile.MatchIndex> matches =
+		new ArrayList<IndexedReplayFile.MatchIndex>();
+
+	// state of the match currently being written
+	private MatchHeader header = null;
+	private final List<ExtensibleMetadata> metadata =
+		new ArrayList<ExtensibleMetadata>();
+	private long headerOffset = -1;
+	private final List<Long> blockOffsets = new ArrayList<Long>();
+	private final List<Object> block = new ArrayList<Object>();
+	private List<Signal> currentBreak = null;
+	private int numRounds = 0;
+
+	/**
+	 * Creates a writer that stores the default number of rounds per block.
+	 *
+	 * @param path the file to write to
+	 * @throws IOException if the file couldn't be created
+	 */
+	public IndexedReplayWriter(String path) throws IOException {
+		this(path, DEFAULT_ROUNDS_PER_BLOCK);
+	}
+
+	/**
+	 * Creates a writer that stores the given number of rounds per block.
+	 *
+	 * @param path the file to write to
+	 * @param roundsPerBlock the number of rounds to store in each block
+	 * @throws IOException if the file couldn't be created
+	 */
+	public IndexedReplayWriter(String path, int roundsPerBlock)
+		throws IOException {
+		assert roundsPerBlock > 0;
+		this.roundsPerBlock = roundsPerBlock;
+		out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(path)));
+		out.writeInt(IndexedReplayFile.MAGIC);
+		out.writeInt(IndexedReplayFile.VERSION);
+		position = 8;
+	}
+
+	/**
+	 * Copies every object from the given proxy into a new indexed replay.
+	 *
+	 * @param source the proxy to read the match objects from
+	 * @param path the file to write to
+	 * @return the number of matches written
+	 * @throws IOException if the replay couldn't be written
+	 */
+	public static int convert(ClientProxy source, String path)
+		throws IOException {
+		IndexedReplayWriter writer = new IndexedReplayWriter(path);
+		try {
+			while (true) {
+				Object obj;
+				try {
+					obj = source.readObject();
+				}
+				catch (EOFException e) {
+					break;
+				}
+				writer.write(obj);
+			}
+		}
+		finally {
+			writer.close();
+		}
+		return writer.matches.size();
+	}
+
+	/**
+	 * Adds the next object of the match stream to the replay. Break signals
+	 * are merged into the following round, the same way
+	 * {@link battlecode.client.viewer.BufferedMatch} does it.
+	 *
+	 * @param obj the object read from the match stream
+	 * @throws IOException if the replay couldn't be written
+	 */
+	public void write(Object obj) throws IOException {
+		if (obj instanceof MatchHeader) {
+			if (header != null) {
+				System.err.println("Match without footer, dropping "
+				                   + numRounds + " rounds");
+				resetMatch();
+			}
+			header = (MatchHeader) obj;
+		}
+		else if (obj instanceof ExtensibleMetadata) {
+			// metadata arriving before the header belongs to the next match
+			if (headerOffset == -1) {
+				metadata.add((ExtensibleMetadata) obj);
+			}
+		}
+		else if (header == null) {
+			return;
+		}
+		else if (obj instanceof RoundDelta) {
+			writeHeaderSection();
+			RoundDelta delta = (RoundDelta) obj;
+			if (currentBreak != null) {
+				Signal[] signals = delta.getSignals();
+				Signal[] merged = new Signal[currentBreak.size() + signals.length];
+				currentBreak.toArray(merged);
+				System.arraycopy(signals, 0, merged, currentBreak.size(),
+				                 signals.length);
+				delta = new RoundDelta(merged);
+				currentBreak = null;
+			}
+			if (block.size() == 2 * roundsPerBlock) {
+				writeBlock();
+			}
+			block.add(delta);
+			block.add(null);
+			numRounds++;
+		}
+		else if (obj instanceof RoundStats) {
+			if (!block.isEmpty()) {
+				block.set(block.size() - 1, obj);
+			}
+		}
+		else if (obj instanceof Signal[]) {
+			if (currentBreak == null) {
+				currentBreak = new ArrayList<Signal>();
+			}
+			currentBreak.addAll(Arrays.asList((Signal[]) obj));
+		}
+		else if (obj instanceof MatchFooter) {
+			writeHeaderSection();
+			if (!block.isEmpty()) {
+				writeBlock();
+			}
+			long footerOffset = writeSection(IndexedReplayFile.SECTION_FOOTER,
+			                                 Collections.singletonList(obj));
+			long[] offsets = new long[blockOffsets.size()];
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = blockOffsets.get(i);
+			}
+			matches.add(new IndexedReplayFile.MatchIndex(headerOffset,
+				footerOffset, numRounds, roundsPerBlock, offsets));
+			resetMatch();
+		}
+	}
+
+	/**
+	 * Writes the index and closes the file. A match that is missing its
+	 * footer is not included in the index.
+	 *
+	 * @throws IOException if the index couldn't be written
+	 */
+	public void close() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream index = new DataOutputStream(bytes);
+		index.writeInt(matches.size());
+		for (IndexedReplayFile.MatchIndex match: matches) {
+			match.write(index);
+		}
+		index.flush();
+		long indexOffset = position;
+		writeSection(IndexedReplayFile.SECTION_INDEX, bytes.toByteArray());
+		out.writeLong(indexOffset);
+		out.writeInt(IndexedReplayFile.MAGIC);
+		out.close();
+	}
+
+	private void resetMatch() {
+		header = null;
+		metadata.clear();
+		headerOffset = -1;
+		blockOffsets.clear();
+		block.clear();
+		currentBreak = null;
+		numRounds = 0;
+	}
+
+	private void writeHeaderSection() throws IOException {
+		if (headerOffset != -1) return;
+		List<Object> objects = new ArrayList<Object>();
+		objects.add(header);
+		objects.addAll(metadata);
+		headerOffset = writeSection(IndexedReplayFile.SECTION_HEADER, objects);
+	}
+
+	private void writeBlock() throws IOException {
+		byte[] encoded = codec.encode(block);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		OutputStream deflated = new DeflaterOutputStream(bytes, deflater);
+		deflated.write(encoded);
+		deflated.close();
+		deflater.end();
+		blockOffsets.add(writeSection(IndexedReplayFile.SECTION_ROUNDS,
+		                              bytes.toByteArray()));
+		block.clear();
+	}
+
+	private long writeSection(byte type, List<Object> objects)
+		throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		ObjectOutputStream oos = new ObjectOutputStream(
+			new DeflaterOutputStream(bytes, deflater));
+		oos.writeInt(objects.size());
+		for (Object obj: objects) {
+			oos.writeObject(obj);
+		}
+		oos.close();
+		deflater.end();
+		return writeSection(type, bytes.toByteArray());
+	}
+
+	private long writeSection(byte type, byte[] payload) throws IOException {
+		long offset = position;
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		out.writeInt(IndexedReplayFile.SYNC);
+		out.writeByte(type);
+		out.writeInt(payload.length);
+		out.writeInt((int) crc.getValue());
+		out.write(payload);
+		position += 13 + payload.length;
+		return offset;
+	}
+}
@@ -0,0 +1,297 @@
+package battlecode.client.replay;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import battlecode.client.util.FieldLayout;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.RoundDelta;
+
+/**
+ * Encodes rounds and signals with a registry of type-tagged codecs instead
+ * of generic Java serialization.
+ *
+ * Every object is written as a tag followed by whatever the codec registered
+ * for that tag writes. RoundDeltas are written as their signals, and the hot
+ * signal types and RoundStats have codecs that write their fields directly.
+ * Objects of any other type are written with Java serialization into a
+ * separate stream that follows the tagged data, so that stream's class
+ * descriptors and handles are shared by all such objects in a batch.
+ *
+ * Tags are part of the format: a type keeps its tag even if the class is
+ * missing, so data written by another build can still be read. A batch
+ * starts with the {@link FieldLayout.Schema} of every field layout it uses,
+ * so the fields of a class that changed in another build are matched by
+ * name rather than misread.
+ */
+public final class SignalCodec {
+
+	/**
+	 * Writes and reads the objects of one type.
+	 */
+	public interface TypeCodec {
+		public void write(Object obj, DataOutput out) throws IOException;
+		public Object read(DataInput in) throws IOException;
+	}
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_SERIALIZED = 1;
+	private static final int TAG_ROUND_DELTA = 2;
+
+	/** The first tag available to registered types. */
+	public static final int FIRST_TYPE_TAG = 16;
+
+	// the types with built-in codecs, in tag order; never reorder
+	private static final String[] BUILT_IN_TYPES = {
+		"battlecode.world.signal.MovementSignal",
+		"battlecode.world.signal.EnergonChangeSignal",
+		"battlecode.world.signal.BytecodesUsedSignal",
+		"battlecode.world.signal.AttackSignal",
+		"battlecode.world.signal.SpawnSignal",
+		"battlecode.world.signal.DeathSignal",
+		"battlecode.world.signal.IndicatorStringSignal",
+		"battlecode.serial.RoundStats",
+	};
+
+	private final Map<Class<?>, Integer> tags = new HashMap<Class<?>, Integer>();
+	private final Map<Integer, TypeCodec> codecs = new HashMap<Integer, TypeCodec>();
+
+	/**
+	 * @return a codec with the built-in types registered
+	 */
+	public static SignalCodec createDefault() {
+		SignalCodec codec = new SignalCodec();
+		for (int i = 0; i < BUILT_IN_TYPES.length; i++) {
+			Class<?> type;
+			try {
+				type = Class.forName(BUILT_IN_TYPES[i]);
+			}
+			catch (ClassNotFoundException e) {
+				continue;
+			}
+			FieldLayout layout = FieldLayout.forClass(type);
+			if (layout != null) {
+				codec.register(FIRST_TYPE_TAG + i, type, forLayout(layout));
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * Registers the codec for a type. Only objects of exactly that class are
+	 * written with it.
+	 */
+	public synchronized void register(int tag, Class<?> type, TypeCodec codec) {
+		if (tag < FIRST_TYPE_TAG) {
+			throw new IllegalArgumentException("Tag " + tag + " is reserved");
+		}
+		tags.put(type, tag);
+		codecs.put(tag, codec);
+	}
+
+	/**
+	 * @return a codec that writes the fields of objects with the given layout
+	 * one after the other, and stores the layout's schema with each batch
+	 */
+	public static TypeCodec forLayout(FieldLayout layout) {
+		return new LayoutCodec(layout);
+	}
+
+	private static final class LayoutCodec implements TypeCodec {
+		final FieldLayout layout;
+
+		LayoutCodec(FieldLayout layout) {
+			this.layout = layout;
+		}
+
+		public void write(Object obj, DataOutput out) throws IOException {
+			layout.write(obj, out);
+		}
+
+		public Object read(DataInput in) throws IOException {
+			return layout.read(in);
+		}
+	}
+
+	/**
+	 * Encodes a batch of objects, which may include nulls.
+	 */
+	public byte[] encode(List<?> objects) throws IOException {
+		Batch batch = new Batch();
+		FieldLayout.writeVarInt(batch.tagged, objects.size());
+		for (Object obj: objects) {
+			writeObject(obj, batch);
+		}
+		batch.tagged.close();
+		ByteArrayOutputStream schemaBytes = new ByteArrayOutputStream();
+		DataOutputStream schemas = new DataOutputStream(schemaBytes);
+		FieldLayout.writeVarInt(schemas, batch.layouts.size());
+		for (Map.Entry<Integer, FieldLayout> entry: batch.layouts.entrySet()) {
+			FieldLayout.writeVarInt(schemas, entry.getKey());
+			entry.getValue().getSchema().write(schemas);
+		}
+		schemas.close();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(schemaBytes.size() + batch.taggedBytes.size());
+		schemaBytes.writeTo(data);
+		batch.taggedBytes.writeTo(data);
+		if (batch.serialized != null) {
+			batch.serialized.close();
+			batch.serializedBytes.writeTo(data);
+		}
+		data.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a batch written by {@link #encode(List)}.
+	 */
+	public Object[] decode(byte[] data) throws IOException {
+		return decode(data, true);
+	}
+
+	/**
+	 * Decodes a batch written by {@link #encode(List)}, or by an older
+	 * version of it that didn't store schemas. Those batches are read with
+	 * the layouts of the classes at hand.
+	 */
+	public Object[] decode(byte[] data, boolean hasSchemas) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		int taggedLength = in.readInt();
+		Reader reader = new Reader(data, 4 + taggedLength);
+		DataInputStream tagged = new DataInputStream(
+			new ByteArrayInputStream(data, 4, taggedLength));
+		if (hasSchemas) {
+			reader.schemas = new HashMap<Integer, FieldLayout.Schema>();
+			for (int n = FieldLayout.readVarInt(tagged); n > 0; n--) {
+				int tag = FieldLayout.readVarInt(tagged);
+				reader.schemas.put(tag, FieldLayout.Schema.read(tagged));
+			}
+		}
+		Object[] objects = new Object[FieldLayout.readVarInt(tagged)];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = readObject(tagged, reader);
+		}
+		return objects;
+	}
+
+	private void writeObject(Object obj, Batch batch) throws IOException {
+		DataOutputStream out = batch.tagged;
+		if (obj == null) {
+			FieldLayout.writeVarInt(out, TAG_NULL);
+			return;
+		}
+		if (obj.getClass() == RoundDelta.class) {
+			Signal[] signals = ((RoundDelta) obj).getSignals();
+			FieldLayout.writeVarInt(out, TAG_ROUND_DELTA);
+			FieldLayout.writeVarInt(out, signals.length);
+			for (Signal signal: signals) {
+				writeObject(signal, batch);
+			}
+			return;
+		}
+		Integer tag;
+		TypeCodec codec;
+		synchronized (this) {
+			tag = tags.get(obj.getClass());
+			codec = (tag == null ? null : codecs.get(tag));
+		}
+		if (codec != null) {
+			FieldLayout.writeVarInt(out, tag);
+			codec.write(obj, out);
+			if (codec instanceof LayoutCodec && !batch.layouts.containsKey(tag)) {
+				batch.layouts.put(tag, ((LayoutCodec) codec).layout);
+			}
+		}
+		else {
+			FieldLayout.writeVarInt(out, TAG_SERIALIZED);
+			batch.serialized().writeObject(obj);
+		}
+	}
+
+	private Object readObject(DataInput in, Reader reader) throws IOException {
+		int tag = FieldLayout.readVarInt(in);
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_SERIALIZED:
+			return reader.readSerialized();
+		case TAG_ROUND_DELTA: {
+			Signal[] signals = new Signal[FieldLayout.readVarInt(in)];
+			for (int i = 0; i < signals.length; i++) {
+				signals[i] = (Signal) readObject(in, reader);
+			}
+			return new RoundDelta(signals);
+		}
+		}
+		TypeCodec codec;
+		synchronized (this) {
+			codec = codecs.get(tag);
+		}
+		if (codec == null) {
+			throw new IOException("No codec registered for tag " + tag);
+		}
+		if (codec instanceof LayoutCodec && reader.schemas != null) {
+			FieldLayout.Schema schema = reader.schemas.get(tag);
+			if (schema == null) {
+				throw new IOException("No schema for tag " + tag);
+			}
+			return ((LayoutCodec) codec).layout.read(in, schema);
+		}
+		return codec.read(in);
+	}
+
+	/**
+	 * The two streams an encoded batch is built from.
+	 */
+	private static final class Batch {
+		final ByteArrayOutputStream taggedBytes = new ByteArrayOutputStream();
+		final DataOutputStream tagged = new DataOutputStream(taggedBytes);
+		// the layouts used in the batch, by tag
+		final Map<Integer, FieldLayout> layouts = new TreeMap<Integer, FieldLayout>();
+		ByteArrayOutputStream serializedBytes = null;
+		ObjectOutputStream serialized = null;
+
+		ObjectOutputStream serialized() throws IOException {
+			if (serialized == null) {
+				serializedBytes = new ByteArrayOutputStream();
+				serialized = new ObjectOutputStream(serializedBytes);
+			}
+			return serialized;
+		}
+	}
+
+	/**
+	 * Reads the serialized objects of a batch, opening their stream on the
+	 * first one.
+	 */
+	private static final class Reader {
+		private final byte[] data;
+		private final int offset;
+		private ObjectInputStream serialized = null;
+		// the schemas stored with the batch, by tag, or null if it has none
+		Map<Integer, FieldLayout.Schema> schemas = null;
+
+		Reader(byte[] data, int offset) {
+			this.data = data;
+			this.offset = offset;
+		}
+
+		Object readSerialized() throws IOException {
+			if (serialized == null) {
+				serialized = new ObjectInputStream(new ByteArrayInputStream(
+					data, offset, data.length - offset));
+			}
+			try {
+				return serialized.readObject();
+			}
+			catch (ClassNotFoundException e) {
+				throw new IOException("Unknown class " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package battlecode.client.replay;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import battlecode.client.ClientProxy;
+import battlecode.client.IndexedClientProxy;
+import battlecode.client.StreamClientProxy;
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundStats;
+
+/**
+ * Compares {@link SignalCodec} with Java serialization on the rounds of a
+ * replay, batched the way indexed replays store them.
+ *
+ * Each encoder runs a number of warm-up passes over all the batches before
+ * the measured passes, and the median pass is reported.
+ *
+ * Usage: SignalCodecBenchmark replay [passes]
+ */
+public class SignalCodecBenchmark {
+
+	private static final int WARMUP_PASSES = 5;
+
+	private interface Encoder {
+		byte[] encode(List<Object> batch) throws IOException;
+		Object[] decode(byte[] data) throws IOException;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: SignalCodecBenchmark replay [passes]");
+			System.exit(1);
+		}
+		int passes = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+		List<List<Object>> batches = readBatches(args[0]);
+		int rounds = 0;
+		for (List<Object> batch: batches) rounds += batch.size() / 2;
+		System.out.println(rounds + " rounds in " + batches.size() + " batches");
+
+		final SignalCodec codec = SignalCodec.createDefault();
+		run("SignalCodec", new Encoder() {
+			public byte[] encode(List<Object> batch) throws IOException {
+				return codec.encode(batch);
+			}
+			public Object[] decode(byte[] data) throws IOException {
+				return codec.decode(data);
+			}
+		}, batches, rounds, passes);
+		run("serialization", new Encoder() {
+			public byte[] encode(List<Object> batch) throws IOException {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream oos = new ObjectOutputStream(bytes);
+				oos.writeInt(batch.size());
+				for (Object obj: batch) oos.writeObject(obj);
+				oos.close();
+				return bytes.toByteArray();
+			}
+			public Object[] decode(byte[] data) throws IOException {
+				ObjectInputStream ois = new ObjectInputStream(
+					new ByteArrayInputStream(data));
+				try {
+					Object[] objects = new Object[ois.readInt()];
+					for (int i = 0; i < objects.length; i++) {
+						objects[i] = ois.readObject();
+					}
+					return objects;
+				}
+				catch (ClassNotFoundException e) {
+					throw new IOException(e.getMessage());
+				}
+			}
+		}, batches, rounds, passes);
+	}
+
+	private static void run(String name, Encoder encoder, List<List<Object>> batches,
+	                        int rounds, int passes) throws IOException {
+		long[] encodeTimes = new long[passes];
+		long[] decodeTimes = new long[passes];
+		long bytes = 0;
+		for (int pass = -WARMUP_PASSES; pass < passes; pass++) {
+			List<byte[]> encoded = new ArrayList<byte[]>(batches.size());
+			long start = System.nanoTime();
+			for (List<Object> batch: batches) {
+				encoded.add(encoder.encode(batch));
+			}
+			long encodeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (byte[] data: encoded) {
+				encoder.decode(data);
+			}
+			long decodeTime = System.nanoTime() - start;
+			if (pass >= 0) {
+				encodeTimes[pass] = encodeTime;
+				decodeTimes[pass] = decodeTime;
+			}
+			bytes = 0;
+			for (byte[] data: encoded) bytes += data.length;
+		}
+		System.out.println(String.format(
+			"%-14s encode %8.0f ns/round  decode %8.0f ns/round  %6.0f bytes/round",
+			name, (double) median(encodeTimes) / rounds,
+			(double) median(decodeTimes) / rounds, (double) bytes / rounds));
+	}
+
+	private static long median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	/**
+	 * Reads every round of the replay into batches of (delta, stats) pairs.
+	 */
+	private static List<List<Object>> readBatches(String path) throws IOException {
+		ClientProxy proxy = (IndexedReplayFile.isIndexedReplay(path)
+		                     ? new IndexedClientProxy(path)
+		                     : new StreamClientProxy(path));
+		List<List<Object>> batches = new ArrayList<List<Object>>();
+		List<Object> batch = new ArrayList<Object>();
+		try {
+			while (true) {
+				Object obj = proxy.readObject();
+				if (obj instanceof RoundDelta) {
+					if (batch.size() == 2 * IndexedReplayWriter.DEFAULT_ROUNDS_PER_BLOCK) {
+						batches.add(batch);
+						batch = new ArrayList<Object>();
+					}
+					batch.add(obj);
+					batch.add(null);
+				}
+				else if (obj instanceof RoundStats && !batch.isEmpty()) {
+					batch.set(batch.size() - 1, obj);
+				}
+			}
+		}
+		catch (EOFException e) {
+		}
+		if (!batch.isEmpty()) batches.add(batch);
+		return batches;
+	}
+}
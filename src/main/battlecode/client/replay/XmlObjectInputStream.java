@@ -0,0 +1,431 @@
+package battlecode.client.replay;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+import battlecode.client.util.FieldLayout;
+import battlecode.common.MapLocation;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.RoundDelta;
+
+/**
+ * Reads the object streams XStream writes for XML replays with a pull
+ * parser.
+ *
+ * Rounds make up nearly all of a replay, so RoundDeltas and the signals in
+ * them are built directly: the element of each field is looked up through
+ * XStream's own mapper and its text parsed according to the field's type.
+ * Anything that doesn't follow the plain reflective layout, such as
+ * references, custom converters or other top-level objects, is handed back
+ * to XStream as a small XML fragment.
+ */
+public class XmlObjectInputStream extends ObjectInputStream {
+
+	private static final String NULL = "null";
+
+	/**
+	 * An element that has been read but not decoded yet.
+	 */
+	private static final class Node {
+		final String name;
+		String[] attributes = null; // name and value pairs
+		String text = "";
+		List<Node> children = null;
+
+		Node(String name) {
+			this.name = name;
+		}
+	}
+
+	/** Thrown when a value can't be decoded without XStream. */
+	private static final class Unsupported extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+
+	/**
+	 * How the fields of a class are serialized, or null if the class isn't
+	 * written by XStream's reflection converter.
+	 */
+	private static final class Layout {
+		final FieldLayout fields;
+		final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+		Layout(FieldLayout fields) {
+			this.fields = fields;
+		}
+	}
+
+	private final InputStream in;
+	private final XMLStreamReader xml;
+	private final XStream xstream;
+	private final Mapper mapper;
+	private final Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+	private final Map<Class<?>, Layout> layouts = new HashMap<Class<?>, Layout>();
+	private final String signalsElement;
+
+	private boolean started = false;
+	private long decoded = 0;
+	private long delegated = 0;
+
+	public XmlObjectInputStream(InputStream in, XStream xstream) throws IOException {
+		super();
+		this.in = in;
+		this.xstream = xstream;
+		mapper = xstream.getMapper();
+		signalsElement = mapper.serializedMember(RoundDelta.class, "signals");
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			xml = factory.createXMLStreamReader(in);
+		}
+		catch (XMLStreamException e) {
+			throw new IOException("Can't read XML replay: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of objects built without XStream
+	 */
+	public long getDecodedCount() {
+		return decoded;
+	}
+
+	/**
+	 * @return the number of objects handed to XStream
+	 */
+	public long getDelegatedCount() {
+		return delegated;
+	}
+
+	protected Object readObjectOverride() throws IOException, ClassNotFoundException {
+		try {
+			// the first element is the object-stream root
+			if (!started) {
+				if (!nextElement()) throw new EOFException();
+				started = true;
+			}
+			if (!nextElement()) throw new EOFException();
+			Node node = readNode();
+			// references are paths or ids within the whole round, so a round
+			// that has any is handed to XStream in one piece
+			if (node.attributes == null && resolve(node.name) == RoundDelta.class
+			    && !hasReferences(node)) {
+				RoundDelta delta = decodeRoundDelta(node);
+				if (delta != null) return delta;
+			}
+			return delegate(node);
+		}
+		catch (XMLStreamException e) {
+			throw new IOException("Malformed XML replay: " + e.getMessage());
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			xml.close();
+		}
+		catch (XMLStreamException e) {
+		}
+		in.close();
+	}
+
+	private boolean nextElement() throws XMLStreamException {
+		while (xml.hasNext()) {
+			switch (xml.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				return true;
+			case XMLStreamConstants.END_ELEMENT:
+			case XMLStreamConstants.END_DOCUMENT:
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private Node readNode() throws XMLStreamException {
+		Node node = new Node(xml.getLocalName());
+		int count = xml.getAttributeCount();
+		if (count > 0) {
+			node.attributes = new String[2 * count];
+			for (int i = 0; i < count; i++) {
+				node.attributes[2 * i] = xml.getAttributeLocalName(i);
+				node.attributes[2 * i + 1] = xml.getAttributeValue(i);
+			}
+		}
+		while (true) {
+			switch (xml.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				if (node.children == null) node.children = new ArrayList<Node>();
+				node.children.add(readNode());
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				node.text = (node.text.length() == 0 ? xml.getText()
+				             : node.text + xml.getText());
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return node;
+			}
+		}
+	}
+
+	/**
+	 * @return whether an element below this one refers to, or is referred to
+	 * by, another
+	 */
+	private static boolean hasReferences(Node node) {
+		if (node.attributes != null) {
+			for (int i = 0; i < node.attributes.length; i += 2) {
+				if (node.attributes[i].equals("reference") || node.attributes[i].equals("id")) {
+					return true;
+				}
+			}
+		}
+		if (node.children != null) {
+			for (Node child: node.children) {
+				if (hasReferences(child)) return true;
+			}
+		}
+		return false;
+	}
+
+	private RoundDelta decodeRoundDelta(Node node) {
+		if (node.children == null || node.children.size() != 1) return null;
+		Node signals = node.children.get(0);
+		if (!signals.name.equals(signalsElement) || signals.attributes != null) {
+			return null;
+		}
+		int count = (signals.children == null ? 0 : signals.children.size());
+		Signal[] result = new Signal[count];
+		for (int i = 0; i < count; i++) {
+			Node child = signals.children.get(i);
+			if (NULL.equals(child.name)) continue;
+			Class<?> type = resolve(child.name);
+			Object signal;
+			try {
+				if (type == null) throw UNSUPPORTED;
+				signal = decodeObject(child, type);
+				decoded++;
+			}
+			catch (Unsupported e) {
+				signal = delegate(child);
+			}
+			result[i] = (Signal) signal;
+		}
+		return new RoundDelta(result);
+	}
+
+	private Object decodeObject(Node node, Class<?> type) throws Unsupported {
+		Layout layout = getLayout(type);
+		if (layout == null || node.attributes != null) throw UNSUPPORTED;
+		Object obj = layout.fields.newInstance();
+		if (node.children != null) {
+			for (Node child: node.children) {
+				Integer field = layout.indexes.get(child.name);
+				if (field == null || child.attributes != null) throw UNSUPPORTED;
+				layout.fields.set(field, obj, decodeValue(layout.fields, field, child));
+			}
+		}
+		return obj;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object decodeValue(FieldLayout fields, int field, Node node)
+		throws Unsupported {
+		FieldLayout.Kind kind = fields.getKind(field);
+		try {
+			switch (kind) {
+			case STRING:
+				return node.text;
+			case LOCATION:
+				return decodeObject(node, MapLocation.class);
+			case ENUM:
+				return Enum.valueOf((Class) fields.getEnumType(field), node.text.trim());
+			case BOOLEAN: case BYTE: case SHORT: case CHAR: case INT: case LONG:
+			case FLOAT: case DOUBLE:
+				return decodePrimitive(kind, node.text);
+			}
+			// arrays
+			List<Node> items = node.children;
+			int length = (items == null ? 0 : items.size());
+			Class<?> component = (kind == FieldLayout.Kind.ENUM_ARRAY
+			                      ? fields.getEnumType(field) : componentType(kind));
+			Object array = Array.newInstance(component, length);
+			for (int i = 0; i < length; i++) {
+				Node item = items.get(i);
+				if (item.attributes != null) throw UNSUPPORTED;
+				if (NULL.equals(item.name)) {
+					if (component.isPrimitive()) throw UNSUPPORTED;
+					continue;
+				}
+				Object value;
+				switch (kind) {
+				case STRING_ARRAY:
+					value = item.text;
+					break;
+				case ENUM_ARRAY:
+					value = Enum.valueOf((Class) component, item.text.trim());
+					break;
+				case LOCATION_ARRAY:
+					if (resolve(item.name) != MapLocation.class) throw UNSUPPORTED;
+					value = decodeObject(item, MapLocation.class);
+					break;
+				default:
+					value = decodePrimitive(primitiveKind(kind), item.text);
+				}
+				Array.set(array, i, value);
+			}
+			return array;
+		}
+		catch (IllegalArgumentException e) {
+			// also covers malformed numbers
+			throw UNSUPPORTED;
+		}
+		catch (StringIndexOutOfBoundsException e) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	private static Object decodePrimitive(FieldLayout.Kind kind, String text) {
+		text = text.trim();
+		switch (kind) {
+		case BOOLEAN: return Boolean.valueOf(text);
+		case BYTE: return Byte.valueOf(text);
+		case SHORT: return Short.valueOf(text);
+		case CHAR: return text.charAt(0);
+		case INT: return Integer.valueOf(text);
+		case LONG: return Long.valueOf(text);
+		case FLOAT: return Float.valueOf(text);
+		case DOUBLE: return Double.valueOf(text);
+		default: throw new AssertionError(kind);
+		}
+	}
+
+	private static FieldLayout.Kind primitiveKind(FieldLayout.Kind arrayKind) {
+		switch (arrayKind) {
+		case BOOLEAN_ARRAY: return FieldLayout.Kind.BOOLEAN;
+		case BYTE_ARRAY: return FieldLayout.Kind.BYTE;
+		case INT_ARRAY: return FieldLayout.Kind.INT;
+		case LONG_ARRAY: return FieldLayout.Kind.LONG;
+		case FLOAT_ARRAY: return FieldLayout.Kind.FLOAT;
+		case DOUBLE_ARRAY: return FieldLayout.Kind.DOUBLE;
+		default: throw new AssertionError(arrayKind);
+		}
+	}
+
+	private static Class<?> componentType(FieldLayout.Kind arrayKind) {
+		switch (arrayKind) {
+		case BOOLEAN_ARRAY: return boolean.class;
+		case BYTE_ARRAY: return byte.class;
+		case INT_ARRAY: return int.class;
+		case LONG_ARRAY: return long.class;
+		case FLOAT_ARRAY: return float.class;
+		case DOUBLE_ARRAY: return double.class;
+		case STRING_ARRAY: return String.class;
+		case LOCATION_ARRAY: return MapLocation.class;
+		default: throw new AssertionError(arrayKind);
+		}
+	}
+
+	/**
+	 * @return the class XStream writes with the given element name, or null
+	 * if there is none
+	 */
+	private Class<?> resolve(String name) {
+		if (classes.containsKey(name)) {
+			return classes.get(name);
+		}
+		Class<?> type;
+		try {
+			type = mapper.realClass(name);
+		}
+		catch (RuntimeException e) {
+			type = null;
+		}
+		classes.put(name, type);
+		return type;
+	}
+
+	private Layout getLayout(Class<?> type) {
+		if (layouts.containsKey(type)) {
+			return layouts.get(type);
+		}
+		Layout layout = null;
+		FieldLayout fields = FieldLayout.forClass(type);
+		if (fields != null && xstream.getConverterLookup().lookupConverterForType(type)
+		    instanceof ReflectionConverter) {
+			layout = new Layout(fields);
+			for (int i = 0; i < fields.getFieldCount(); i++) {
+				String element = mapper.serializedMember(fields.getDeclaringClass(i),
+				                                         fields.getFieldName(i));
+				if (layout.indexes.put(element, i) != null) {
+					// shadowed fields are told apart with attributes
+					layout = null;
+					break;
+				}
+			}
+		}
+		layouts.put(type, layout);
+		return layout;
+	}
+
+	private Object delegate(Node node) {
+		delegated++;
+		StringBuilder out = new StringBuilder();
+		appendXml(node, out);
+		return xstream.fromXML(out.toString());
+	}
+
+	private static void appendXml(Node node, StringBuilder out) {
+		out.append('<').append(node.name);
+		if (node.attributes != null) {
+			for (int i = 0; i < node.attributes.length; i += 2) {
+				out.append(' ').append(node.attributes[i]).append("=\"");
+				appendEscaped(node.attributes[i + 1], out);
+				out.append('"');
+			}
+		}
+		out.append('>');
+		if (node.children != null) {
+			for (Node child: node.children) {
+				appendXml(child, out);
+			}
+		}
+		else {
+			appendEscaped(node.text, out);
+		}
+		out.append("</").append(node.name).append('>');
+	}
+
+	private static void appendEscaped(String text, StringBuilder out) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&': out.append("&amp;"); break;
+			case '<': out.append("&lt;"); break;
+			case '>': out.append("&gt;"); break;
+			case '"': out.append("&quot;"); break;
+			default: out.append(c);
+			}
+		}
+	}
+}
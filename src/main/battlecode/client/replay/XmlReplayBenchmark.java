@@ -0,0 +1,186 @@
+package battlecode.client.replay;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.GZIPInputStream;
+
+import com.thoughtworks.xstream.XStream;
+
+import battlecode.common.MapLocation;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.RoundDelta;
+import battlecode.server.proxy.XStreamProxy;
+import battlecode.world.signal.DeathSignal;
+import battlecode.world.signal.MovementOverrideSignal;
+
+/**
+ * Compares the time and allocation it takes to read an XML replay with
+ * {@link XmlObjectInputStream} and with XStream's own object stream.
+ *
+ * Before that, both readers are given a small replay whose rounds share
+ * objects between signals, which XStream writes as references, and must
+ * read back the same objects.
+ *
+ * Usage: XmlReplayBenchmark replay.rms [runs]
+ */
+public class XmlReplayBenchmark {
+
+	private static final class Result {
+		long objects = 0;
+		long rounds = 0;
+		long nanos = Long.MAX_VALUE;
+		long allocated = -1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: XmlReplayBenchmark replay.rms [runs]");
+			System.exit(1);
+		}
+		String path = args[0];
+		int runs = (args.length > 1 ? Integer.parseInt(args[1]) : 3);
+
+		if (!readSameObjects(sharedReferenceReplay())) {
+			System.out.println("MISMATCH: readers disagree on rounds with shared references");
+		}
+
+		Result stax = new Result(), xstream = new Result();
+		for (int i = 0; i < runs; i++) {
+			run(path, false, stax);
+			run(path, true, xstream);
+		}
+		report("pull parser", stax);
+		report("XStream", xstream);
+		if (stax.objects != xstream.objects || stax.rounds != xstream.rounds) {
+			System.out.println("MISMATCH: readers disagree on the replay's contents");
+		}
+		System.out.println(String.format("speedup: %.1fx",
+		                                 (double) xstream.nanos / stax.nanos));
+	}
+
+	private static void run(String path, boolean useXStream, Result result)
+		throws IOException, ClassNotFoundException {
+		InputStream in = open(path);
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		ObjectInputStream ois = (useXStream
+		                         ? XStreamProxy.getXStream().createObjectInputStream(in)
+		                         : new XmlObjectInputStream(in, XStreamProxy.getXStream()));
+		long objects = 0, rounds = 0;
+		try {
+			while (true) {
+				Object obj = ois.readObject();
+				objects++;
+				if (obj instanceof RoundDelta) rounds++;
+			}
+		}
+		catch (EOFException e) {
+		}
+		long nanos = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes();
+		ois.close();
+
+		result.objects = objects;
+		result.rounds = rounds;
+		if (nanos < result.nanos) {
+			result.nanos = nanos;
+			if (allocatedBefore >= 0) {
+				result.allocated = allocatedAfter - allocatedBefore;
+			}
+		}
+	}
+
+	/**
+	 * @return a replay of two rounds: one where two signals share a location,
+	 * and one that holds the same signal twice
+	 */
+	private static byte[] sharedReferenceReplay() throws IOException {
+		MapLocation loc = new MapLocation(3, 4);
+		Signal death = new DeathSignal(7);
+		StringWriter xml = new StringWriter();
+		ObjectOutputStream out = XStreamProxy.getXStream().createObjectOutputStream(xml);
+		out.writeObject(new RoundDelta(new Signal[] {
+			new MovementOverrideSignal(1, loc), new MovementOverrideSignal(2, loc) }));
+		out.writeObject(new RoundDelta(new Signal[] { death, null, death }));
+		out.close();
+		return xml.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * @return whether both readers read the same objects from the replay,
+	 * compared by how XStream writes them
+	 */
+	private static boolean readSameObjects(byte[] replay)
+		throws IOException, ClassNotFoundException {
+		XStream xstream = XStreamProxy.getXStream();
+		ObjectInputStream expected = xstream.createObjectInputStream(
+			new ByteArrayInputStream(replay));
+		ObjectInputStream actual = new XmlObjectInputStream(
+			new ByteArrayInputStream(replay), xstream);
+		try {
+			while (true) {
+				Object obj;
+				try {
+					obj = expected.readObject();
+				}
+				catch (EOFException e) {
+					try {
+						actual.readObject();
+						return false;
+					}
+					catch (EOFException end) {
+						return true;
+					}
+				}
+				if (!xstream.toXML(obj).equals(xstream.toXML(actual.readObject()))) {
+					return false;
+				}
+			}
+		}
+		catch (EOFException e) {
+			return false;
+		}
+		catch (RuntimeException e) {
+			// XStream failed to resolve a fragment
+			e.printStackTrace();
+			return false;
+		}
+		finally {
+			expected.close();
+			actual.close();
+		}
+	}
+
+	private static void report(String name, Result result) {
+		System.out.println(String.format(
+			"%-12s %8d objects %6d rounds %8.0f ms %10.0f objects/s %s", name,
+			result.objects, result.rounds, result.nanos / 1e6,
+			result.objects / (result.nanos / 1e9),
+			(result.allocated >= 0 ? (result.allocated >> 20) + " MB allocated" : "")));
+	}
+
+	private static InputStream open(String path) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(path), 64 * 1024);
+		in.mark(2);
+		int magic = in.read() | (in.read() << 8);
+		in.reset();
+		if (magic == GZIPInputStream.GZIP_MAGIC) {
+			return new GZIPInputStream(in, 64 * 1024);
+		}
+		return in;
+	}
+
+	/**
+	 * @return the bytes allocated by this thread so far, or -1 if the JVM
+	 * doesn't track them
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,47 @@
+package battlecode.client.util;
+
+import battlecode.server.Config;
+
+/**
+ * Reads numeric client options from the global configuration, falling back
+ * to a default when an option is missing or malformed.
+ */
+public class ConfigOptions {
+
+	private ConfigOptions() {}
+
+	public static int getInt(String key, int defaultValue) {
+		return (int) getLong(key, defaultValue);
+	}
+
+	public static long getLong(String key, long defaultValue) {
+		String value = get(key);
+		if (value == null) return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Ignoring malformed option " + key + "=" + value);
+			return defaultValue;
+		}
+	}
+
+	public static double getDouble(String key, double defaultValue) {
+		String value = get(key);
+		if (value == null) return defaultValue;
+		try {
+			return Double.parseDouble(value.trim());
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Ignoring malformed option " + key + "=" + value);
+			return defaultValue;
+		}
+	}
+
+	private static String get(String key) {
+		Config config = Config.getGlobalConfig();
+		if (config == null) return null;
+		String value = config.get(key);
+		return (value == null || value.trim().length() == 0 ? null : value);
+	}
+}
@@ -0,0 +1,739 @@
+package battlecode.client.util;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import battlecode.common.MapLocation;
+
+/**
+ * The serializable fields of a class whose state is made of primitives,
+ * strings, enums, map locations and arrays of those, together with a way to
+ * create instances without running a constructor.
+ *
+ * This is what Java serialization does for such classes, minus the class
+ * descriptors and handle tables, which lets the replay code store signals as
+ * plain columns of numbers and rebuild them later. Classes that customize
+ * their serialization, or have fields of any other type, have no layout.
+ *
+ * The order of the fields and of enum constants isn't guaranteed to be the
+ * same in another build of a class, so data that outlives the process is
+ * stored together with the {@link Schema} of the layout that wrote it.
+ */
+public final class FieldLayout {
+
+	/** How the value of a field is stored. */
+	public static enum Kind {
+		BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE,
+		STRING, ENUM, LOCATION,
+		BOOLEAN_ARRAY, BYTE_ARRAY, INT_ARRAY, LONG_ARRAY, FLOAT_ARRAY,
+		DOUBLE_ARRAY, STRING_ARRAY, ENUM_ARRAY, LOCATION_ARRAY
+	}
+
+	private static final Map<Class<?>, FieldLayout> layouts =
+		new ConcurrentHashMap<Class<?>, FieldLayout>();
+	private static final Map<Class<?>, Boolean> unsupported =
+		new ConcurrentHashMap<Class<?>, Boolean>();
+
+	private final Class<?> type;
+	private final Field[] fields;
+	private final Kind[] kinds;
+	private final Constructor<?> constructor;
+	private final Schema schema;
+
+	private FieldLayout(Class<?> type, Field[] fields, Kind[] kinds,
+	                    Constructor<?> constructor) {
+		this.type = type;
+		this.fields = fields;
+		this.kinds = kinds;
+		this.constructor = constructor;
+		this.schema = new Schema(this);
+	}
+
+	/**
+	 * @return the layout of the given class, or null if its instances can't
+	 * be stored field by field
+	 */
+	public static FieldLayout forClass(Class<?> type) {
+		FieldLayout layout = layouts.get(type);
+		if (layout == null && !unsupported.containsKey(type)) {
+			layout = createLayout(type);
+			if (layout != null) {
+				layouts.put(type, layout);
+			}
+			else {
+				unsupported.put(type, Boolean.TRUE);
+			}
+		}
+		return layout;
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	public int getFieldCount() {
+		return fields.length;
+	}
+
+	public Kind getKind(int field) {
+		return kinds[field];
+	}
+
+	public String getFieldName(int field) {
+		return fields[field].getName();
+	}
+
+	public Class<?> getDeclaringClass(int field) {
+		return fields[field].getDeclaringClass();
+	}
+
+	@SuppressWarnings("unchecked")
+	public Class<? extends Enum> getEnumType(int field) {
+		Class<?> c = fields[field].getType();
+		return (Class<? extends Enum>) (c.isArray() ? c.getComponentType() : c);
+	}
+
+	/**
+	 * Creates an instance with every field at its default value, the way
+	 * Java serialization does before filling in the fields.
+	 */
+	public Object newInstance() {
+		try {
+			return constructor.newInstance();
+		}
+		catch (Exception e) {
+			throw new RuntimeException("Can't instantiate " + type.getName(), e);
+		}
+	}
+
+	public Object get(int field, Object obj) {
+		try {
+			return fields[field].get(obj);
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void set(int field, Object obj, Object value) {
+		try {
+			fields[field].set(obj, value);
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return the names and kinds of the fields, to be stored with data
+	 * written by this layout
+	 */
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Writes every field of the given object. Primitive fields are read
+	 * without boxing.
+	 */
+	public void write(Object obj, DataOutput out) throws IOException {
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				Field f = fields[i];
+				switch (kinds[i]) {
+				case BOOLEAN: out.writeBoolean(f.getBoolean(obj)); break;
+				case BYTE: out.writeByte(f.getByte(obj)); break;
+				case SHORT: out.writeShort(f.getShort(obj)); break;
+				case CHAR: out.writeChar(f.getChar(obj)); break;
+				case INT: writeVarInt(out, f.getInt(obj)); break;
+				case LONG: out.writeLong(f.getLong(obj)); break;
+				case FLOAT: out.writeFloat(f.getFloat(obj)); break;
+				case DOUBLE: out.writeDouble(f.getDouble(obj)); break;
+				default: writeValue(i, f.get(obj), out);
+				}
+			}
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads an object written by {@link #write}.
+	 */
+	public Object read(DataInput in) throws IOException {
+		Object obj = newInstance();
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				Field f = fields[i];
+				switch (kinds[i]) {
+				case BOOLEAN: f.setBoolean(obj, in.readBoolean()); break;
+				case BYTE: f.setByte(obj, in.readByte()); break;
+				case SHORT: f.setShort(obj, in.readShort()); break;
+				case CHAR: f.setChar(obj, in.readChar()); break;
+				case INT: f.setInt(obj, readVarInt(in)); break;
+				case LONG: f.setLong(obj, in.readLong()); break;
+				case FLOAT: f.setFloat(obj, in.readFloat()); break;
+				case DOUBLE: f.setDouble(obj, in.readDouble()); break;
+				default: f.set(obj, readValue(i, in));
+				}
+			}
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+		return obj;
+	}
+
+	/**
+	 * Reads an object written by a layout with the given schema, which may
+	 * come from another build of the class. Fields are matched by name, as
+	 * Java serialization does: written fields the class no longer has, or
+	 * has with another kind, are skipped, fields that weren't written keep
+	 * their default values, and enum constants are matched by name.
+	 */
+	public Object read(DataInput in, Schema written) throws IOException {
+		if (written.equals(schema)) {
+			return read(in);
+		}
+		int[] targets = written.getTargets(this);
+		Object obj = newInstance();
+		for (int i = 0; i < written.kinds.length; i++) {
+			Object value = written.readValue(i, in, this, targets[i]);
+			if (targets[i] >= 0) {
+				set(targets[i], obj, value);
+			}
+		}
+		return obj;
+	}
+
+	/**
+	 * Writes the value of one field. Primitive values are passed boxed.
+	 */
+	public void writeValue(int field, Object value, DataOutput out)
+		throws IOException {
+		switch (kinds[field]) {
+		case BOOLEAN: out.writeBoolean((Boolean) value); break;
+		case BYTE: out.writeByte((Byte) value); break;
+		case SHORT: out.writeShort((Short) value); break;
+		case CHAR: out.writeChar((Character) value); break;
+		case INT: writeVarInt(out, (Integer) value); break;
+		case LONG: out.writeLong((Long) value); break;
+		case FLOAT: out.writeFloat((Float) value); break;
+		case DOUBLE: out.writeDouble((Double) value); break;
+		case STRING: writeString(out, (String) value); break;
+		case ENUM: writeEnum(out, (Enum<?>) value); break;
+		case LOCATION: writeLocation(out, (MapLocation) value); break;
+		default: writeArray(field, value, out);
+		}
+	}
+
+	/**
+	 * Reads the value of one field written by {@link #writeValue}.
+	 */
+	public Object readValue(int field, DataInput in) throws IOException {
+		switch (kinds[field]) {
+		case BOOLEAN: return in.readBoolean();
+		case BYTE: return in.readByte();
+		case SHORT: return in.readShort();
+		case CHAR: return in.readChar();
+		case INT: return readVarInt(in);
+		case LONG: return in.readLong();
+		case FLOAT: return in.readFloat();
+		case DOUBLE: return in.readDouble();
+		case STRING: return readString(in);
+		case ENUM: return readEnum(in, getEnumType(field));
+		case LOCATION: return readLocation(in);
+		default: return readArray(field, in);
+		}
+	}
+
+	private void writeArray(int field, Object value, DataOutput out)
+		throws IOException {
+		if (value == null) {
+			writeVarInt(out, -1);
+			return;
+		}
+		switch (kinds[field]) {
+		case BOOLEAN_ARRAY: {
+			boolean[] a = (boolean[]) value;
+			writeVarInt(out, a.length);
+			for (boolean v: a) out.writeBoolean(v);
+			break;
+		}
+		case BYTE_ARRAY: {
+			byte[] a = (byte[]) value;
+			writeVarInt(out, a.length);
+			out.write(a);
+			break;
+		}
+		case INT_ARRAY: {
+			int[] a = (int[]) value;
+			writeVarInt(out, a.length);
+			for (int v: a) writeVarInt(out, v);
+			break;
+		}
+		case LONG_ARRAY: {
+			long[] a = (long[]) value;
+			writeVarInt(out, a.length);
+			for (long v: a) out.writeLong(v);
+			break;
+		}
+		case FLOAT_ARRAY: {
+			float[] a = (float[]) value;
+			writeVarInt(out, a.length);
+			for (float v: a) out.writeFloat(v);
+			break;
+		}
+		case DOUBLE_ARRAY: {
+			double[] a = (double[]) value;
+			writeVarInt(out, a.length);
+			for (double v: a) out.writeDouble(v);
+			break;
+		}
+		case STRING_ARRAY: {
+			String[] a = (String[]) value;
+			writeVarInt(out, a.length);
+			for (String v: a) writeString(out, v);
+			break;
+		}
+		case ENUM_ARRAY: {
+			Enum<?>[] a = (Enum<?>[]) value;
+			writeVarInt(out, a.length);
+			for (Enum<?> v: a) writeEnum(out, v);
+			break;
+		}
+		case LOCATION_ARRAY: {
+			MapLocation[] a = (MapLocation[]) value;
+			writeVarInt(out, a.length);
+			for (MapLocation v: a) writeLocation(out, v);
+			break;
+		}
+		default:
+			throw new AssertionError(kinds[field]);
+		}
+	}
+
+	private Object readArray(int field, DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length == -1) {
+			return null;
+		}
+		switch (kinds[field]) {
+		case BOOLEAN_ARRAY: {
+			boolean[] a = new boolean[length];
+			for (int i = 0; i < length; i++) a[i] = in.readBoolean();
+			return a;
+		}
+		case BYTE_ARRAY: {
+			byte[] a = new byte[length];
+			in.readFully(a);
+			return a;
+		}
+		case INT_ARRAY: {
+			int[] a = new int[length];
+			for (int i = 0; i < length; i++) a[i] = readVarInt(in);
+			return a;
+		}
+		case LONG_ARRAY: {
+			long[] a = new long[length];
+			for (int i = 0; i < length; i++) a[i] = in.readLong();
+			return a;
+		}
+		case FLOAT_ARRAY: {
+			float[] a = new float[length];
+			for (int i = 0; i < length; i++) a[i] = in.readFloat();
+			return a;
+		}
+		case DOUBLE_ARRAY: {
+			double[] a = new double[length];
+			for (int i = 0; i < length; i++) a[i] = in.readDouble();
+			return a;
+		}
+		case STRING_ARRAY: {
+			String[] a = new String[length];
+			for (int i = 0; i < length; i++) a[i] = readString(in);
+			return a;
+		}
+		case ENUM_ARRAY: {
+			Class<? extends Enum> enumType = getEnumType(field);
+			Enum<?>[] a = (Enum<?>[]) java.lang.reflect.Array.newInstance(
+				enumType, length);
+			for (int i = 0; i < length; i++) a[i] = readEnum(in, enumType);
+			return a;
+		}
+		case LOCATION_ARRAY: {
+			MapLocation[] a = new MapLocation[length];
+			for (int i = 0; i < length; i++) a[i] = readLocation(in);
+			return a;
+		}
+		default:
+			throw new AssertionError(kinds[field]);
+		}
+	}
+
+	/**
+	 * Writes an int using one byte for small values, zigzag-encoded so that
+	 * small negative values stay small.
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		int v = (value << 1) ^ (value >> 31);
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (v >>> 1) ^ -(v & 1);
+			}
+		}
+		throw new IOException("Malformed variable-length int");
+	}
+
+	public static void writeString(DataOutput out, String value)
+		throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) out.writeUTF(value);
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		return (in.readBoolean() ? in.readUTF() : null);
+	}
+
+	public static void writeEnum(DataOutput out, Enum<?> value)
+		throws IOException {
+		writeVarInt(out, (value == null ? -1 : value.ordinal()));
+	}
+
+	public static Enum<?> readEnum(DataInput in, Class<? extends Enum> type)
+		throws IOException {
+		int ordinal = readVarInt(in);
+		return (ordinal == -1 ? null : type.getEnumConstants()[ordinal]);
+	}
+
+	public static void writeLocation(DataOutput out, MapLocation value)
+		throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			writeVarInt(out, value.getX());
+			writeVarInt(out, value.getY());
+		}
+	}
+
+	public static MapLocation readLocation(DataInput in) throws IOException {
+		if (!in.readBoolean()) return null;
+		int x = readVarInt(in);
+		return new MapLocation(x, readVarInt(in));
+	}
+
+	/**
+	 * The names and kinds of the fields of a layout, in the order they are
+	 * written, and the constants of its enum fields in ordinal order.
+	 */
+	public static final class Schema {
+		private final String[] names;
+		private final Kind[] kinds;
+		// the constant names of each enum field, or null
+		private final String[][] constants;
+		// the layout last matched against, and which of its fields each
+		// written field goes to
+		private volatile FieldLayout target = null;
+		private volatile int[] targets = null;
+
+		private Schema(String[] names, Kind[] kinds, String[][] constants) {
+			this.names = names;
+			this.kinds = kinds;
+			this.constants = constants;
+		}
+
+		private Schema(FieldLayout layout) {
+			int n = layout.fields.length;
+			names = new String[n];
+			kinds = layout.kinds.clone();
+			constants = new String[n][];
+			for (int i = 0; i < n; i++) {
+				Field f = layout.fields[i];
+				names[i] = f.getDeclaringClass().getName() + "." + f.getName();
+				if (kinds[i] == Kind.ENUM || kinds[i] == Kind.ENUM_ARRAY) {
+					Enum<?>[] values = layout.getEnumType(i).getEnumConstants();
+					constants[i] = new String[values.length];
+					for (int j = 0; j < values.length; j++) {
+						constants[i][j] = values[j].name();
+					}
+				}
+			}
+		}
+
+		public void write(DataOutput out) throws IOException {
+			writeVarInt(out, names.length);
+			for (int i = 0; i < names.length; i++) {
+				out.writeUTF(names[i]);
+				out.writeUTF(kinds[i].name());
+				if (constants[i] != null) {
+					writeVarInt(out, constants[i].length);
+					for (String name: constants[i]) {
+						out.writeUTF(name);
+					}
+				}
+			}
+		}
+
+		public static Schema read(DataInput in) throws IOException {
+			int n = readVarInt(in);
+			String[] names = new String[n];
+			Kind[] kinds = new Kind[n];
+			String[][] constants = new String[n][];
+			for (int i = 0; i < n; i++) {
+				names[i] = in.readUTF();
+				try {
+					kinds[i] = Kind.valueOf(in.readUTF());
+				}
+				catch (IllegalArgumentException e) {
+					throw new IOException("Unknown field kind in schema: " + e.getMessage());
+				}
+				if (kinds[i] == Kind.ENUM || kinds[i] == Kind.ENUM_ARRAY) {
+					constants[i] = new String[readVarInt(in)];
+					for (int j = 0; j < constants[i].length; j++) {
+						constants[i][j] = in.readUTF();
+					}
+				}
+			}
+			return new Schema(names, kinds, constants);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Schema)) return false;
+			Schema other = (Schema) o;
+			return Arrays.equals(names, other.names)
+				&& Arrays.equals(kinds, other.kinds)
+				&& Arrays.deepEquals(constants, other.constants);
+		}
+
+		public int hashCode() {
+			return Arrays.hashCode(names);
+		}
+
+		/**
+		 * @return for each written field, the index of the field of the
+		 * layout with the same name and kind, or -1
+		 */
+		private int[] getTargets(FieldLayout layout) {
+			if (target == layout) {
+				return targets;
+			}
+			int[] result = new int[names.length];
+			for (int i = 0; i < names.length; i++) {
+				result[i] = -1;
+				for (int j = 0; j < layout.fields.length; j++) {
+					if (names[i].equals(layout.schema.names[j])
+					    && kinds[i] == layout.kinds[j]) {
+						result[i] = j;
+						break;
+					}
+				}
+			}
+			targets = result;
+			target = layout;
+			return result;
+		}
+
+		/**
+		 * Reads a written field, translating enum constants to the field of
+		 * the layout it goes to, or skipping it if it goes nowhere.
+		 */
+		private Object readValue(int field, DataInput in, FieldLayout layout,
+		                         int target) throws IOException {
+			switch (kinds[field]) {
+			case ENUM:
+				return translate(field, readVarInt(in), layout, target);
+			case ENUM_ARRAY: {
+				int length = readVarInt(in);
+				if (length == -1 || target < 0) {
+					for (int i = 0; i < length; i++) readVarInt(in);
+					return null;
+				}
+				Enum<?>[] a = (Enum<?>[]) java.lang.reflect.Array.newInstance(
+					layout.getEnumType(target), length);
+				for (int i = 0; i < length; i++) {
+					a[i] = translate(field, readVarInt(in), layout, target);
+				}
+				return a;
+			}
+			}
+			if (target >= 0) {
+				return layout.readValue(target, in);
+			}
+			// the kinds other than enums don't depend on the field's type
+			return skipValue(kinds[field], in);
+		}
+
+		private Enum<?> translate(int field, int ordinal, FieldLayout layout,
+		                          int target) throws IOException {
+			if (ordinal == -1 || target < 0) {
+				return null;
+			}
+			if (ordinal >= constants[field].length) {
+				throw new IOException("Bad constant " + ordinal + " of " + names[field]);
+			}
+			String name = constants[field][ordinal];
+			for (Enum<?> value: layout.getEnumType(target).getEnumConstants()) {
+				if (value.name().equals(name)) {
+					return value;
+				}
+			}
+			return null;
+		}
+
+		private static Object skipValue(Kind kind, DataInput in) throws IOException {
+			switch (kind) {
+			case BOOLEAN: return in.readBoolean();
+			case BYTE: return in.readByte();
+			case SHORT: return in.readShort();
+			case CHAR: return in.readChar();
+			case INT: return readVarInt(in);
+			case LONG: return in.readLong();
+			case FLOAT: return in.readFloat();
+			case DOUBLE: return in.readDouble();
+			case STRING: return readString(in);
+			case LOCATION: return readLocation(in);
+			}
+			int length = readVarInt(in);
+			for (int i = 0; i < length; i++) {
+				switch (kind) {
+				case BOOLEAN_ARRAY: in.readBoolean(); break;
+				case BYTE_ARRAY: in.readByte(); break;
+				case INT_ARRAY: readVarInt(in); break;
+				case LONG_ARRAY: in.readLong(); break;
+				case FLOAT_ARRAY: in.readFloat(); break;
+				case DOUBLE_ARRAY: in.readDouble(); break;
+				case STRING_ARRAY: readString(in); break;
+				case LOCATION_ARRAY: readLocation(in); break;
+				default: throw new AssertionError(kind);
+				}
+			}
+			return null;
+		}
+	}
+
+	private static FieldLayout createLayout(Class<?> type) {
+		if (!Serializable.class.isAssignableFrom(type)
+		    || Externalizable.class.isAssignableFrom(type)) {
+			return null;
+		}
+		List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			hierarchy.add(0, c);
+		}
+		List<Field> fields = new ArrayList<Field>();
+		List<Kind> kinds = new ArrayList<Kind>();
+		for (Class<?> c: hierarchy) {
+			if (hasCustomSerialization(c)) {
+				return null;
+			}
+			for (Field f: c.getDeclaredFields()) {
+				int mod = f.getModifiers();
+				if (Modifier.isStatic(mod) || Modifier.isTransient(mod)) {
+					continue;
+				}
+				Kind kind = kindOf(f.getType());
+				if (kind == null) {
+					return null;
+				}
+				try {
+					f.setAccessible(true);
+				}
+				catch (SecurityException e) {
+					return null;
+				}
+				fields.add(f);
+				kinds.add(kind);
+			}
+		}
+		Constructor<?> constructor = findConstructor(type);
+		if (constructor == null) {
+			return null;
+		}
+		return new FieldLayout(type, fields.toArray(new Field[fields.size()]),
+		                       kinds.toArray(new Kind[kinds.size()]),
+		                       constructor);
+	}
+
+	private static boolean hasCustomSerialization(Class<?> c) {
+		String[] names = { "readObject", "writeObject", "readResolve",
+		                   "writeReplace", "readObjectNoData" };
+		for (Method m: c.getDeclaredMethods()) {
+			for (String name: names) {
+				if (m.getName().equals(name)) return true;
+			}
+		}
+		return false;
+	}
+
+	private static Kind kindOf(Class<?> c) {
+		if (c == boolean.class) return Kind.BOOLEAN;
+		if (c == byte.class) return Kind.BYTE;
+		if (c == short.class) return Kind.SHORT;
+		if (c == char.class) return Kind.CHAR;
+		if (c == int.class) return Kind.INT;
+		if (c == long.class) return Kind.LONG;
+		if (c == float.class) return Kind.FLOAT;
+		if (c == double.class) return Kind.DOUBLE;
+		if (c == String.class) return Kind.STRING;
+		if (c == MapLocation.class) return Kind.LOCATION;
+		if (c.isEnum()) return Kind.ENUM;
+		if (c == boolean[].class) return Kind.BOOLEAN_ARRAY;
+		if (c == byte[].class) return Kind.BYTE_ARRAY;
+		if (c == int[].class) return Kind.INT_ARRAY;
+		if (c == long[].class) return Kind.LONG_ARRAY;
+		if (c == float[].class) return Kind.FLOAT_ARRAY;
+		if (c == double[].class) return Kind.DOUBLE_ARRAY;
+		if (c == String[].class) return Kind.STRING_ARRAY;
+		if (c == MapLocation[].class) return Kind.LOCATION_ARRAY;
+		if (c.isArray() && c.getComponentType().isEnum()) return Kind.ENUM_ARRAY;
+		return null;
+	}
+
+	/**
+	 * Finds the constructor Java serialization uses, which leaves every field
+	 * at its default value, or the class's own no-argument constructor if
+	 * that isn't available.
+	 */
+	private static Constructor<?> findConstructor(Class<?> type) {
+		try {
+			Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+			Object factory = factoryClass.getMethod("getReflectionFactory")
+				.invoke(null);
+			Method method = factoryClass.getMethod(
+				"newConstructorForSerialization", Class.class, Constructor.class);
+			Constructor<?> c = (Constructor<?>) method.invoke(factory, type,
+				Object.class.getDeclaredConstructor());
+			c.setAccessible(true);
+			return c;
+		}
+		catch (Exception e) {
+		}
+		try {
+			Constructor<?> c = type.getDeclaredConstructor();
+			c.setAccessible(true);
+			return c;
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package battlecode.client.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for a file to change, using the platform's file change notification
+ * where it is available.
+ *
+ * Notification isn't delivered for every filesystem (network mounts in
+ * particular), so waits are bounded by a poll interval and the caller is
+ * expected to look at the file again whenever a wait returns.
+ */
+final class FileChangeWatcher {
+
+	private final Path name;
+	private final long pollMillis;
+	private volatile WatchService service = null;
+
+	FileChangeWatcher(File file, long pollMillis) {
+		this.name = file.toPath().getFileName();
+		this.pollMillis = pollMillis;
+		try {
+			Path dir = file.getAbsoluteFile().toPath().getParent();
+			service = dir.getFileSystem().newWatchService();
+			dir.register(service, StandardWatchEventKinds.ENTRY_MODIFY,
+			             StandardWatchEventKinds.ENTRY_CREATE);
+		}
+		catch (IOException e) {
+			System.err.println("Can't watch " + file + ", polling it instead");
+			close();
+		}
+		catch (UnsupportedOperationException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Blocks until the file has changed or the poll interval has passed.
+	 *
+	 * @return true if a change to the file was reported
+	 */
+	boolean await() throws InterruptedException {
+		WatchService service = this.service;
+		if (service == null) {
+			Thread.sleep(pollMillis);
+			return false;
+		}
+		long deadline = System.currentTimeMillis() + pollMillis;
+		long remaining = pollMillis;
+		while (remaining > 0) {
+			WatchKey key;
+			try {
+				key = service.poll(remaining, TimeUnit.MILLISECONDS);
+			}
+			catch (ClosedWatchServiceException e) {
+				return false;
+			}
+			if (key == null) {
+				return false;
+			}
+			boolean changed = false;
+			for (WatchEvent<?> event: key.pollEvents()) {
+				if (name.equals(event.context())
+				    || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					changed = true;
+				}
+			}
+			key.reset();
+			if (changed) {
+				return true;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return false;
+	}
+
+	void close() {
+		WatchService service = this.service;
+		this.service = null;
+		if (service != null) {
+			try {
+				service.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+}
@@ -1,13 +1,18 @@
 package battlecode.client.util;
 
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Caches loaded images by key. Safe to share between threads, since draw
+ * objects are created while keyframes are built in parallel.
+ */
 public class ImageResource<E> {
 
-	private Map<E, ImageFile> cache;
+	private ConcurrentMap<E, ImageFile> cache;
 
 	public ImageResource() {
-		cache = new HashMap<E, ImageFile>();
+		cache = new ConcurrentHashMap<E, ImageFile>();
 	}
 
 	public ImageFile getResource(E key, String path) {
@@ -17,7 +22,12 @@ public class ImageResource<E> {
 		}
 		//System.out.println("caching " + path);
 		img = new ImageFile(path);
-		cache.put(key, img);
+		ImageFile cached = cache.putIfAbsent(key, img);
+		if (cached != null) {
+			// another thread loaded it first
+			img.unload();
+			return cached;
+		}
 		return img;
 	}
 }
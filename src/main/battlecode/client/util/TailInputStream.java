@@ -0,0 +1,96 @@
+package battlecode.client.util;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file that is still being written, waiting for more data at its end
+ * instead of reporting end of file.
+ *
+ * The stream only ends once it has been told to {@link #finish(long)} and no
+ * new data has arrived for the given time since then, or once it is closed. A file that
+ * shrinks under the reader is reported as an error.
+ */
+public class TailInputStream extends InputStream {
+
+	private final File file;
+	private final FileInputStream in;
+	private final FileChannel channel;
+	private final FileChangeWatcher watcher;
+
+	private volatile long idleTimeout = -1;
+	private volatile boolean closed = false;
+	private volatile long lastData = System.currentTimeMillis();
+	// when finish() was last called
+	private volatile long finishTime = 0;
+
+	/**
+	 * @param pollMillis the longest to wait between looks at the file when
+	 * no change is reported
+	 */
+	public TailInputStream(File file, long pollMillis) throws IOException {
+		this.file = file;
+		in = new FileInputStream(file);
+		channel = in.getChannel();
+		watcher = new FileChangeWatcher(file, pollMillis);
+	}
+
+	/**
+	 * Lets the stream end once no data has arrived for the given number of
+	 * milliseconds, counted from now at the earliest, e.g. after the
+	 * writer's last expected record.
+	 */
+	public void finish(long idleTimeout) {
+		finishTime = System.currentTimeMillis();
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Goes back to waiting indefinitely at the end of the file.
+	 */
+	public void follow() {
+		idleTimeout = -1;
+		lastData = System.currentTimeMillis();
+	}
+
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		while (!closed) {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				lastData = System.currentTimeMillis();
+				return n;
+			}
+			if (channel.size() < channel.position()) {
+				throw new IOException(file + " was truncated while being read");
+			}
+			long timeout = idleTimeout;
+			if (timeout >= 0 && System.currentTimeMillis()
+			    - Math.max(lastData, finishTime) >= timeout) {
+				return -1;
+			}
+			try {
+				watcher.await();
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while following " + file);
+			}
+		}
+		return -1;
+	}
+
+	public int available() throws IOException {
+		return in.available();
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		watcher.close();
+		in.close();
+	}
+}
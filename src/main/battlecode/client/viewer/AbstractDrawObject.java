@@ -11,6 +11,9 @@ import battlecode.client.viewer.render.RenderConfiguration;
 
 import static battlecode.client.viewer.AbstractAnimation.AnimationType.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.Iterator;
@@ -64,6 +67,14 @@ public abstract class AbstractDrawObject<Animation extends AbstractAnimation> {
         turnedOn = copy.turnedOn;
         broadcastRadius = copy.broadcastRadius;
         broadcastRadiusSq = copy.broadcastRadiusSq;
+        // states share units and copy them before changing them, so a copy
+        // has to carry on exactly where the original was
+        maxEnergon = copy.maxEnergon;
+        roundsUntilAttackIdle = copy.roundsUntilAttackIdle;
+        roundsUntilMovementIdle = copy.roundsUntilMovementIdle;
+        attackAction = copy.attackAction;
+        movementAction = copy.movementAction;
+        componentType = copy.componentType;
 
         for (Map.Entry<AbstractAnimation.AnimationType, Animation> entry : copy.animations.entrySet()) {
             animations.put(entry.getKey(), (Animation) entry.getValue().clone());
@@ -115,6 +126,8 @@ public abstract class AbstractDrawObject<Animation extends AbstractAnimation> {
     };
     protected String[] indicatorStrings =
             new String[GameConstants.NUMBER_OF_INDICATOR_STRINGS];
+    // the state allowed to change this object in place
+    Object owner = null;
 
     public void setDirection(Direction d) {
         dir = d;
@@ -227,6 +240,21 @@ public abstract class AbstractDrawObject<Animation extends AbstractAnimation> {
         bytecodesUsed = used;
     }
 
+    public boolean isPowered() {
+        return turnedOn;
+    }
+
+    /**
+     * @return true if {@link #updateRound()} would leave this object as it
+     * is, because it isn't moving, attacking, broadcasting or animating
+     */
+    public boolean isIdle() {
+        return roundsUntilMovementIdle == 0 && roundsUntilAttackIdle == 0
+                && movementAction == ActionType.IDLE && attackAction == ActionType.IDLE
+                && moving == 0 && drawX == 0 && drawY == 0
+                && broadcast == 0 && animations.isEmpty();
+    }
+
     public boolean isAlive() {
         Animation deathAnim = animations.get(AbstractAnimation.AnimationType.DEATH_EXPLOSION);
         return deathAnim == null || deathAnim.isAlive()
@@ -346,4 +374,97 @@ public abstract class AbstractDrawObject<Animation extends AbstractAnimation> {
     public void setPower(boolean b) {
         turnedOn = b;
     }
+
+    /**
+     * Writes everything about this object that signals change, for
+     * {@link #readState} to restore into an object of the same type and team.
+     * Of the animations only death explosions are kept; the others are
+     * cosmetic and are left out.
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(components.size());
+        for (ComponentType c : components) {
+            out.writeByte(c.ordinal());
+        }
+        writeLocation(out, loc);
+        writeEnum(out, dir);
+        out.writeDouble(energon);
+        out.writeDouble(maxEnergon);
+        out.writeInt(moving);
+        writeLocation(out, targetLoc);
+        out.writeInt(broadcast);
+        out.writeLong(controlBits);
+        out.writeInt(bytecodesUsed);
+        for (String str : indicatorStrings) {
+            out.writeBoolean(str != null);
+            if (str != null) {
+                out.writeUTF(str);
+            }
+        }
+        out.writeBoolean(turnedOn);
+        out.writeInt(broadcastRadiusSq);
+        out.writeInt(roundsUntilAttackIdle);
+        out.writeInt(roundsUntilMovementIdle);
+        writeEnum(out, attackAction);
+        writeEnum(out, movementAction);
+        writeEnum(out, componentType);
+        Animation death = animations.get(DEATH_EXPLOSION);
+        out.writeInt(death == null ? -1 : death.roundAge());
+    }
+
+    public void readState(DataInput in) throws IOException {
+        components.clear();
+        for (int n = in.readInt(); n > 0; n--) {
+            addComponent(ComponentType.values()[in.readByte()]);
+        }
+        loc = readLocation(in);
+        dir = readEnum(in, Direction.values());
+        energon = in.readDouble();
+        maxEnergon = in.readDouble();
+        moving = in.readInt();
+        targetLoc = readLocation(in);
+        broadcast = in.readInt();
+        controlBits = in.readLong();
+        bytecodesUsed = in.readInt();
+        for (int i = 0; i < indicatorStrings.length; i++) {
+            indicatorStrings[i] = (in.readBoolean() ? in.readUTF() : null);
+        }
+        turnedOn = in.readBoolean();
+        broadcastRadiusSq = 0;
+        updateBroadcastRadius(in.readInt());
+        roundsUntilAttackIdle = in.readInt();
+        roundsUntilMovementIdle = in.readInt();
+        attackAction = readEnum(in, ActionType.values());
+        movementAction = readEnum(in, ActionType.values());
+        componentType = readEnum(in, ComponentType.values());
+        int deathAge = in.readInt();
+        animations.clear();
+        if (deathAge >= 0) {
+            Animation death = createDeathExplosionAnim(false);
+            death.roundsToLive = death.lifetime - deathAge;
+            animations.put(DEATH_EXPLOSION, death);
+        }
+        updateDrawLoc();
+    }
+
+    protected static void writeLocation(DataOutput out, MapLocation loc) throws IOException {
+        out.writeBoolean(loc != null);
+        if (loc != null) {
+            out.writeInt(loc.getX());
+            out.writeInt(loc.getY());
+        }
+    }
+
+    protected static MapLocation readLocation(DataInput in) throws IOException {
+        return (in.readBoolean() ? new MapLocation(in.readInt(), in.readInt()) : null);
+    }
+
+    protected static void writeEnum(DataOutput out, Enum<?> e) throws IOException {
+        out.writeByte(e == null ? -1 : e.ordinal());
+    }
+
+    protected static <T extends Enum<T>> T readEnum(DataInput in, T[] values) throws IOException {
+        int ordinal = in.readByte();
+        return (ordinal < 0 ? null : values[ordinal]);
+    }
 }
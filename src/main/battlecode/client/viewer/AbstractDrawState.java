@@ -6,17 +6,33 @@ import battlecode.common.ComponentType;
 import battlecode.common.MapLocation;
 import battlecode.common.Chassis;
 import battlecode.common.Team;
+import battlecode.serial.RoundDelta;
 import battlecode.serial.RoundStats;
+import battlecode.server.Config;
 import battlecode.world.GameMap;
 import battlecode.world.signal.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 
 public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> extends GameState {
 
+    // copies of a state share its units until they change, unless disabled
+    // to compare against full copies
+    static final boolean COPY_ON_WRITE =
+            !Config.getGlobalConfig().getBoolean("bc.client.deep-copy-states");
+
     protected abstract DrawObject createDrawObject(Chassis type, Team team);
+
+    protected abstract DrawObject copyDrawObject(DrawObject obj);
     protected Map<Integer, DrawObject> groundUnits;
     protected Map<Integer, DrawObject> airUnits;
     protected Map<Integer, FluxDepositState> fluxDeposits;
@@ -33,6 +49,15 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
     protected static MapLocation origin = null;
     protected GameMap gameMap;
     protected int currentRound;
+    // units owned by this state may be changed in place, others are shared
+    // with another state and are copied first
+    private Object generation = new Object();
+    private boolean componentCountsShared = false;
+    // records of the last rounds applied, newest last, and the one being
+    // filled in by the round being applied
+    private int undoDepth = 0;
+    private final Deque<UndoRecord> undoLog = new ArrayDeque<UndoRecord>();
+    private UndoRecord undo = null;
     protected RoundStats stats = null;
     protected Iterable<Map.Entry<Integer, DrawObject>> drawables =
             new Iterable<Map.Entry<Integer, DrawObject>>() {
@@ -79,6 +104,207 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
         return drawables;
     }
 
+    /**
+     * Makes this state hold the units, deposits and component counts of
+     * another one. They are shared between the two states, and whichever
+     * changes a unit first changes its own copy. With deep copies, this
+     * state gets copies of its own instead and the other state keeps
+     * changing its units in place.
+     */
+    protected void copyUnitsFrom(AbstractDrawState<DrawObject> src) {
+        // copies must carry the new generation, or the first change to
+        // each of them would copy it again
+        generation = new Object();
+        if (COPY_ON_WRITE) {
+            src.generation = new Object();
+        }
+        copyUnits(src.groundUnits, groundUnits);
+        copyUnits(src.airUnits, airUnits);
+        fluxDeposits.clear();
+        for (Map.Entry<Integer, FluxDepositState> entry : src.fluxDeposits.entrySet()) {
+            fluxDeposits.put(entry.getKey(), COPY_ON_WRITE ? entry.getValue()
+                    : new FluxDepositState(entry.getValue()));
+        }
+        if (COPY_ON_WRITE) {
+            componentTypeCountA = src.componentTypeCountA;
+            componentTypeCountB = src.componentTypeCountB;
+            componentCountsShared = src.componentCountsShared = true;
+        } else {
+            componentTypeCountA = new EnumMap<ComponentType, Integer>(src.componentTypeCountA);
+            componentTypeCountB = new EnumMap<ComponentType, Integer>(src.componentTypeCountB);
+            componentCountsShared = false;
+        }
+        teamHP = src.teamHP.clone();
+        undoLog.clear();
+    }
+
+    /**
+     * @return the given hulls, or a copy of them when states are copied in
+     * full
+     */
+    protected static MapLocation[][] copyHulls(MapLocation[][] hulls) {
+        if (COPY_ON_WRITE) {
+            // hulls are replaced rather than changed, so they can be shared
+            return hulls;
+        }
+        MapLocation[][] copy = new MapLocation[hulls.length][];
+        for (int i = 0; i < hulls.length; i++) {
+            copy[i] = hulls[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * What a round changed, enough to put the state back as it was before
+     * the round. Units and deposits are recorded by the version they had
+     * before the round, or null if they didn't exist. Since every unit
+     * changed during a recorded round is copied first, the previous versions
+     * are never changed afterwards.
+     */
+    private class UndoRecord {
+
+        final int round = currentRound;
+        final RoundStats stats = AbstractDrawState.this.stats;
+        final double[] teamHP = AbstractDrawState.this.teamHP.clone();
+        final Map<ComponentType, Integer> componentTypeCountA = AbstractDrawState.this.componentTypeCountA;
+        final Map<ComponentType, Integer> componentTypeCountB = AbstractDrawState.this.componentTypeCountB;
+        final Object extra = saveUndoExtra();
+        final Map<Integer, DrawObject> groundUnits = new HashMap<Integer, DrawObject>();
+        final Map<Integer, DrawObject> airUnits = new HashMap<Integer, DrawObject>();
+        final Map<Integer, FluxDepositState> fluxDeposits = new HashMap<Integer, FluxDepositState>();
+
+        void saveUnit(Map<Integer, DrawObject> units, int id) {
+            Map<Integer, DrawObject> saved = (units == AbstractDrawState.this.airUnits ? airUnits : groundUnits);
+            if (!saved.containsKey(id)) {
+                saved.put(id, units.get(id));
+            }
+        }
+
+        void saveDeposit(int id) {
+            if (!fluxDeposits.containsKey(id)) {
+                fluxDeposits.put(id, AbstractDrawState.this.fluxDeposits.get(id));
+            }
+        }
+    }
+
+    public synchronized void setUndoDepth(int rounds) {
+        undoDepth = Math.max(rounds, 0);
+        while (undoLog.size() > undoDepth) {
+            undoLog.removeFirst();
+        }
+    }
+
+    public synchronized int getUndoableRounds() {
+        return undoLog.size();
+    }
+
+    public synchronized void apply(RoundDelta rd) {
+        if (undoDepth == 0) {
+            super.apply(rd);
+            return;
+        }
+        // make every unit the round changes a copy, so the record can keep
+        // the previous versions
+        generation = new Object();
+        componentCountsShared = true;
+        undo = new UndoRecord();
+        try {
+            super.apply(rd);
+            undoLog.addLast(undo);
+            if (undoLog.size() > undoDepth) {
+                undoLog.removeFirst();
+            }
+        }
+        finally {
+            undo = null;
+        }
+    }
+
+    public synchronized boolean undoRound() {
+        UndoRecord record = undoLog.pollLast();
+        if (record == null) {
+            return false;
+        }
+        restore(groundUnits, record.groundUnits);
+        restore(airUnits, record.airUnits);
+        restore(fluxDeposits, record.fluxDeposits);
+        currentRound = record.round;
+        stats = record.stats;
+        teamHP = record.teamHP;
+        componentTypeCountA = record.componentTypeCountA;
+        componentTypeCountB = record.componentTypeCountB;
+        restoreUndoExtra(record.extra);
+        // the restored units may be shared with older records
+        generation = new Object();
+        componentCountsShared = true;
+        return true;
+    }
+
+    private static <V> void restore(Map<Integer, V> map, Map<Integer, V> saved) {
+        for (Map.Entry<Integer, V> entry : saved.entrySet()) {
+            if (entry.getValue() == null) {
+                map.remove(entry.getKey());
+            } else {
+                map.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return any state of a subclass that signals change, to be handed back
+     * to {@link #restoreUndoExtra} when the round is undone
+     */
+    protected Object saveUndoExtra() {
+        return null;
+    }
+
+    protected void restoreUndoExtra(Object extra) {
+    }
+
+    private void copyUnits(Map<Integer, DrawObject> src, Map<Integer, DrawObject> dst) {
+        dst.clear();
+        for (Map.Entry<Integer, DrawObject> entry : src.entrySet()) {
+            DrawObject obj = entry.getValue();
+            if (!COPY_ON_WRITE) {
+                obj = copyDrawObject(obj);
+                obj.owner = generation;
+            }
+            dst.put(entry.getKey(), obj);
+        }
+    }
+
+    /**
+     * @return the robot with the given id, copied first if it is shared
+     * with another state
+     */
+    protected DrawObject getRobotForUpdate(int id) {
+        Map<Integer, DrawObject> units = groundUnits;
+        DrawObject obj = units.get(id);
+        if (obj == null) {
+            units = airUnits;
+            obj = units.get(id);
+            assert obj != null : "Robot #" + id + " not found";
+        }
+        if (obj.owner != generation) {
+            if (undo != null) {
+                undo.saveUnit(units, id);
+            }
+            obj = copyDrawObject(obj);
+            obj.owner = generation;
+            units.put(id, obj);
+        }
+        return obj;
+    }
+
+    private Map<ComponentType, Integer> getComponentTypeCountForUpdate(Team t) {
+        if (componentCountsShared) {
+            componentTypeCountA = new EnumMap<ComponentType, Integer>(componentTypeCountA);
+            componentTypeCountB = new EnumMap<ComponentType, Integer>(componentTypeCountB);
+            componentCountsShared = false;
+        }
+        return getComponentTypeCount(t);
+    }
+
     protected DrawObject getRobot(int id) {
         DrawObject obj = groundUnits.get(id);
         if (obj == null) {
@@ -104,6 +330,9 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
     }
 
     protected void removeRobot(int id) {
+        if (undo != null) {
+            undo.saveUnit(groundUnits.containsKey(id) ? groundUnits : airUnits, id);
+        }
         DrawObject previous = groundUnits.remove(id);
         if (previous == null) {
             previous = airUnits.remove(id);
@@ -112,6 +341,9 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
     }
 
     protected void putRobot(int id, DrawObject unit) {
+        if (undo != null) {
+            undo.saveUnit(unit.getType().isAirborne() ? airUnits : groundUnits, id);
+        }
         if (unit.getType().isAirborne()) {
             DrawObject previous = airUnits.put(id, unit);
             assert previous == null : "Robot #" + id + " already exists";
@@ -134,6 +366,130 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
         return stats;
     }
 
+    /**
+     * Summarizes the robots, hit points and component counts of this state,
+     * so that states reached from different copies of a replay can be
+     * compared.
+     */
+    public long computeDigest() {
+        long digest = currentRound;
+        Map<Integer, DrawObject> units = new TreeMap<Integer, DrawObject>(groundUnits);
+        units.putAll(airUnits);
+        for (Map.Entry<Integer, DrawObject> entry : units.entrySet()) {
+            DrawObject obj = entry.getValue();
+            MapLocation loc = obj.getLocation();
+            digest = 31 * digest + entry.getKey();
+            digest = 31 * digest + obj.getType().ordinal();
+            digest = 31 * digest + obj.getTeam().ordinal();
+            digest = 31 * digest + (loc == null ? 0 : loc.hashCode());
+            digest = 31 * digest + (obj.getDirection() == null ? 0 : obj.getDirection().ordinal());
+            digest = 31 * digest + Double.doubleToLongBits(obj.getEnergon());
+            digest = 31 * digest + obj.getControlBits();
+        }
+        digest = 31 * digest + Double.doubleToLongBits(teamHP[0]);
+        digest = 31 * digest + Double.doubleToLongBits(teamHP[1]);
+        digest = 31 * digest + componentTypeCountA.hashCode();
+        digest = 31 * digest + componentTypeCountB.hashCode();
+        return digest;
+    }
+
+    /**
+     * Estimates the heap taken by the state's units and deposits, which is
+     * most of what a copy of the state holds.
+     */
+    public long estimateSize() {
+        return 2048 + 640L * (groundUnits.size() + airUnits.size())
+            + 128L * fluxDeposits.size();
+    }
+
+    public boolean isSnapshotSupported() {
+        return true;
+    }
+
+    public synchronized void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(currentRound);
+        out.writeDouble(teamHP[0]);
+        out.writeDouble(teamHP[1]);
+        writeComponentCounts(out, componentTypeCountA);
+        writeComponentCounts(out, componentTypeCountB);
+        writeUnits(out, groundUnits);
+        writeUnits(out, airUnits);
+        out.writeInt(fluxDeposits.size());
+        for (FluxDepositState deposit : fluxDeposits.values()) {
+            out.writeInt(deposit.getID());
+            AbstractDrawObject.writeLocation(out, deposit.getLocation());
+            out.writeInt(deposit.getRoundsAvailable());
+        }
+        writeSnapshotExtra(out);
+    }
+
+    public synchronized void readSnapshot(DataInput in) throws IOException {
+        currentRound = in.readInt();
+        teamHP = new double[]{in.readDouble(), in.readDouble()};
+        componentTypeCountA = readComponentCounts(in);
+        componentTypeCountB = readComponentCounts(in);
+        componentCountsShared = false;
+        undoLog.clear();
+        generation = new Object();
+        readUnits(in, groundUnits);
+        readUnits(in, airUnits);
+        fluxDeposits.clear();
+        for (int n = in.readInt(); n > 0; n--) {
+            FluxDepositState deposit = new FluxDepositState(in.readInt(),
+                    AbstractDrawObject.readLocation(in), in.readInt());
+            fluxDeposits.put(deposit.getID(), deposit);
+        }
+        readSnapshotExtra(in);
+    }
+
+    /**
+     * Writes any state of a subclass that signals change.
+     */
+    protected void writeSnapshotExtra(DataOutput out) throws IOException {
+    }
+
+    protected void readSnapshotExtra(DataInput in) throws IOException {
+    }
+
+    private static void writeComponentCounts(DataOutput out, Map<ComponentType, Integer> counts) throws IOException {
+        out.writeInt(counts.size());
+        for (Map.Entry<ComponentType, Integer> entry : counts.entrySet()) {
+            out.writeByte(entry.getKey().ordinal());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    private static Map<ComponentType, Integer> readComponentCounts(DataInput in) throws IOException {
+        Map<ComponentType, Integer> counts = new EnumMap<ComponentType, Integer>(ComponentType.class);
+        for (int n = in.readInt(); n > 0; n--) {
+            counts.put(ComponentType.values()[in.readByte()], in.readInt());
+        }
+        return counts;
+    }
+
+    private void writeUnits(DataOutput out, Map<Integer, DrawObject> units) throws IOException {
+        out.writeInt(units.size());
+        for (Map.Entry<Integer, DrawObject> entry : units.entrySet()) {
+            DrawObject obj = entry.getValue();
+            out.writeInt(entry.getKey());
+            out.writeByte(obj.getType().ordinal());
+            out.writeByte(obj.getTeam().ordinal());
+            obj.writeState(out);
+        }
+    }
+
+    private void readUnits(DataInput in, Map<Integer, DrawObject> units) throws IOException {
+        units.clear();
+        for (int n = in.readInt(); n > 0; n--) {
+            int id = in.readInt();
+            DrawObject obj = createDrawObject(Chassis.values()[in.readByte()],
+                    Team.values()[in.readByte()]);
+            obj.readState(in);
+            obj.owner = generation;
+            units.put(id, obj);
+        }
+    }
+
     public void setGameMap(GameMap map) {
         gameMap = new GameMap(map);
         origin = gameMap.getMapOrigin();
@@ -149,7 +505,19 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
         currentRound++;
         for (Iterator<Map.Entry<Integer, DrawObject>> it = drawables.iterator();
                 it.hasNext();) {
-            DrawObject obj = it.next().getValue();
+            Map.Entry<Integer, DrawObject> entry = it.next();
+            DrawObject obj = entry.getValue();
+            if (obj.isIdle()) {
+                continue;
+            }
+            if (obj.owner != generation) {
+                if (undo != null) {
+                    undo.saveUnit(airUnits.containsKey(entry.getKey()) ? airUnits : groundUnits, entry.getKey());
+                }
+                obj = copyDrawObject(obj);
+                obj.owner = generation;
+                entry.setValue(obj);
+            }
             obj.updateRound();
             if (!obj.isAlive()) {
                 it.remove();
@@ -164,12 +532,12 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
     }
 
     public Void visitAttackSignal(AttackSignal s) {
-        getRobot(s.getRobotID()).setAttacking(s.getTargetLoc(), s.getTargetHeight(), s.weaponType);
+        getRobotForUpdate(s.getRobotID()).setAttacking(s.getTargetLoc(), s.getTargetHeight(), s.weaponType);
         return null;
     }
 
     public Void visitBroadcastSignal(BroadcastSignal s) {
-        getRobot(s.getRobotID()).setBroadcast();
+        getRobotForUpdate(s.getRobotID()).setBroadcast();
         return null;
     }
 
@@ -177,9 +545,9 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
         int team = getRobot(s.getObjectID()).getTeam().ordinal();
         if (team < 2)
             teamHP[team] -= getRobot(s.getObjectID()).getEnergon();
-        AbstractDrawObject<AbstractAnimation> robot = getRobot(s.getObjectID());
+        AbstractDrawObject<AbstractAnimation> robot = getRobotForUpdate(s.getObjectID());
         for (ComponentType cmp : robot.getComponents()) {
-            Map<ComponentType, Integer> comps = getComponentTypeCount(robot.getTeam());
+            Map<ComponentType, Integer> comps = getComponentTypeCountForUpdate(robot.getTeam());
             comps.put(cmp, comps.get(cmp) - 1);
         }
         robot.destroyUnit();
@@ -190,10 +558,13 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
         int[] robotIDs = s.getRobotIDs();
         double[] energon = s.getEnergon();
         for (int i = 0; i < robotIDs.length; i++) {
+            if (getRobot(robotIDs[i]).getEnergon() == energon[i]) {
+                continue;
+            }
             int team = getRobot(robotIDs[i]).getTeam().ordinal();
             if (team < 2)
                 teamHP[team] -= getRobot(robotIDs[i]).getEnergon();
-            getRobot(robotIDs[i]).setEnergon(energon[i]);
+            getRobotForUpdate(robotIDs[i]).setEnergon(energon[i]);
             if (team < 2)
                 teamHP[team] += energon[i];
         }
@@ -202,23 +573,28 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
 
     public Void visitIndicatorStringSignal(IndicatorStringSignal s) {
         if (!RenderConfiguration.isTournamentMode()) {
-            getRobot(s.getRobotID()).setString(s.getStringIndex(), s.getNewString());
+            String current = getRobot(s.getRobotID()).getIndicatorString(s.getStringIndex());
+            if (current == null ? s.getNewString() != null : !current.equals(s.getNewString())) {
+                getRobotForUpdate(s.getRobotID()).setString(s.getStringIndex(), s.getNewString());
+            }
         }
         return null;
     }
 
     public Void visitControlBitsSignal(ControlBitsSignal s) {
-        getRobot(s.getRobotID()).setControlBits(s.getControlBits());
+        if (getRobot(s.getRobotID()).getControlBits() != s.getControlBits()) {
+            getRobotForUpdate(s.getRobotID()).setControlBits(s.getControlBits());
+        }
         return null;
     }
 
     public Void visitMovementOverrideSignal(MovementOverrideSignal s) {
-        getRobot(s.getRobotID()).setLocation(s.getNewLoc());
+        getRobotForUpdate(s.getRobotID()).setLocation(s.getNewLoc());
         return null;
     }
 
     public Void visitMovementSignal(MovementSignal s) {
-        DrawObject obj = getRobot(s.getRobotID());
+        DrawObject obj = getRobotForUpdate(s.getRobotID());
         boolean teleported = !obj.loc.isAdjacentTo(s.getNewLoc());
         //TODO: this should probably be from a teleported signal
         obj.setLocation(s.getNewLoc());
@@ -234,12 +610,12 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
     //synchronized to make sure we don't get concurrency issues.
     public synchronized Void visitEquipSignal(EquipSignal s) {
         //We have our robot update its components so that we can show it in the infopanel.
-        DrawObject obj = getRobot(s.robotID);
+        DrawObject obj = getRobotForUpdate(s.robotID);
         obj.addComponent(s.component);
         Team objTeam = obj.getTeam();
 
 
-        Map<ComponentType, Integer> componentTypeCount = (objTeam == Team.A) ? componentTypeCountA : componentTypeCountB;
+        Map<ComponentType, Integer> componentTypeCount = getComponentTypeCountForUpdate(objTeam);
         //Iterate through and get the counts
         if (!componentTypeCount.containsKey(s.component)) {
             componentTypeCount.put(s.component, 1);
@@ -253,12 +629,15 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
     }
 
     public Void visitSetDirectionSignal(SetDirectionSignal s) {
-        getRobot(s.getRobotID()).setDirection(s.getDirection());
+        if (getRobot(s.getRobotID()).getDirection() != s.getDirection()) {
+            getRobotForUpdate(s.getRobotID()).setDirection(s.getDirection());
+        }
         return null;
     }
 
     public DrawObject spawnRobot(SpawnSignal s) {
         DrawObject spawn = createDrawObject(s.getType(), s.getTeam());
+        spawn.owner = generation;
         spawn.setLocation(s.getLoc());
         spawn.setDirection(s.getDirection());
         putRobot(s.getRobotID(), spawn);
@@ -278,26 +657,39 @@ public abstract class AbstractDrawState<DrawObject extends AbstractDrawObject> e
         int[] robotIDs = s.getRobotIDs();
         int[] bytecodes = s.getNumBytecodes();
         for (int i = 0; i < robotIDs.length; i++) {
-            getRobot(robotIDs[i]).setBytecodesUsed(bytecodes[i]);
+            if (getRobot(robotIDs[i]).getBytecodesUsed() != bytecodes[i]) {
+                getRobotForUpdate(robotIDs[i]).setBytecodesUsed(bytecodes[i]);
+            }
         }
         return null;
     }
 
     public void visitMineBirthSignal(MineBirthSignal s) {
+        if (undo != null) {
+            undo.saveDeposit(s.id);
+        }
         fluxDeposits.put(s.id, new FluxDepositState(s.id, s.location, s.roundsAvaliable));
 
     }
 
     public void visitMineDepletionSignal(MineDepletionSignal s) {
-        fluxDeposits.get(s.id).setRoundsAvailable(s.roundsAvaliable);
+        // deposits are shared with copies of the state, so replace it
+        if (undo != null) {
+            undo.saveDeposit(s.id);
+        }
+        FluxDepositState deposit = new FluxDepositState(fluxDeposits.get(s.id));
+        deposit.setRoundsAvailable(s.roundsAvaliable);
+        fluxDeposits.put(s.id, deposit);
     }
 
     public void visitTurnOnSignal(TurnOnSignal s) {
         for (int i : s.robotIDs)
-            getRobot(i).setPower(true);
+            if (!getRobot(i).isPowered())
+                getRobotForUpdate(i).setPower(true);
     }
 
     public void visitTurnOffSignal(TurnOffSignal s) {
-        getRobot(s.robotID).setPower(false);
+        if (getRobot(s.robotID).isPowered())
+            getRobotForUpdate(s.robotID).setPower(false);
     }
 }
@@ -0,0 +1,33 @@
+package battlecode.client.viewer;
+
+import battlecode.serial.RoundDelta;
+
+/**
+ * Keeps every round as the RoundDelta object it arrived as.
+ */
+final class BufferedDeltaStore implements RoundDeltaStore {
+
+	private final RoundStore<RoundDelta> deltas = new RoundStore<RoundDelta>();
+
+	public int size() {
+		return deltas.size();
+	}
+
+	public RoundDelta get(int round) {
+		return deltas.get(round);
+	}
+
+	public void add(RoundDelta delta) {
+		deltas.add(delta);
+	}
+
+	public void finish() {
+	}
+
+	public void close() {
+	}
+
+	public String getReport() {
+		return "Round store: " + deltas.size() + " rounds kept as objects";
+	}
+}
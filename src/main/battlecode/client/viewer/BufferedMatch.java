@@ -1,73 +1,119 @@
 package battlecode.client.viewer;
 
 import java.io.EOFException;
+import java.io.IOException;
 import java.util.*;
 
 import battlecode.client.*;
+import battlecode.client.replay.IndexedReplayFile;
+import battlecode.client.util.ConfigOptions;
 import battlecode.serial.*;
 import battlecode.serial.notification.*;
 import battlecode.engine.signal.Signal;
+import battlecode.server.Config;
 import battlecode.world.GameMap;
 
 public final class BufferedMatch {
 
-	
+	// rounds kept in memory when spilling, and the heap budget in MB
+	private static final int DEFAULT_WINDOW = 500;
+	private static final long DEFAULT_HEAP_BUDGET = 64;
+	// rounds over which the buffering rate is measured
+	private static final int BUFFERING_WINDOW = 100;
 
 	private ClientProxy proxy;
 
-	private MatchHeader header = null;
-	private MatchFooter footer = null;
+	private volatile MatchHeader header = null;
+	private volatile MatchFooter footer = null;
 
-	private String teamA = null;
-	private String teamB = null;
-	private String[] mapNames = null;
+	private volatile String teamA = null;
+	private volatile String teamB = null;
+	private volatile String[] mapNames = null;
 
-	private RoundDelta[] deltas;
-	private RoundStats[] stats;
-	private int roundsAvailable = 0;
+	private final RoundDeltaStore deltas = createDeltaStore();
+	private final RoundStore<RoundStats> stats = new RoundStore<RoundStats>();
+	// System.nanoTime() at which each round was published
+	private final RoundStore<Long> arrivals = new RoundStore<Long>();
+	// counts everything readers may be waiting for: rounds, break signals,
+	// the footer and the end of the stream
+	private final Object publicationLock = new Object();
+	private long publications = 0;
+	// guards the hand-over from a break to the round that follows it
+	private final Object breakLock = new Object();
 	private List<Signal> currentBreak = null;
-	private boolean paused = false;
+	private volatile boolean paused = false;
 
-	private List<MatchListener> matchListeners;
-	private List<MatchListener> matchPausedListeners;
+	private final MatchEventDispatcher events = new MatchEventDispatcher(this);
 
-	private boolean earlyTermination = false;
+	private volatile boolean earlyTermination = false;
+
+	// an indexed replay whose rounds are read from the file when asked for,
+	// set once the header is in
+	private volatile IndexedReplayFile index = null;
+	private int indexedMatch;
+	private int indexedRounds;
+	private long indexedTime;
 
 	public BufferedMatch(ClientProxy proxy) {
 		assert proxy != null;
 		this.proxy = proxy;
 
-		matchListeners = new LinkedList<MatchListener>();
-		matchPausedListeners = new LinkedList<MatchListener>();
-
 		(new Thread() { public void run() { readMatch(); } }).start();
 	}
 
+	private static RoundDeltaStore createDeltaStore() {
+		Config config = Config.getGlobalConfig();
+		if (config.getBoolean("bc.client.spill-rounds")) {
+			try {
+				return new SpillingDeltaStore(
+					ConfigOptions.getInt("bc.client.buffer-window", DEFAULT_WINDOW),
+					ConfigOptions.getLong("bc.client.buffer-heap-budget",
+					                      DEFAULT_HEAP_BUDGET) << 20);
+			}
+			catch (IOException e) {
+				System.err.println("Can't create spill file, keeping all rounds in memory");
+				e.printStackTrace();
+			}
+		}
+		if (config.getBoolean("bc.client.compact-rounds")) {
+			return new CompactDeltaStore();
+		}
+		return new BufferedDeltaStore();
+	}
+
 	public MatchHeader getHeader() {
 		return header;
 	}
 
 	public int getRoundsAvailable() {
-		return roundsAvailable;
+		return (index != null ? indexedRounds : deltas.size());
 	}
   
 	public RoundDelta getRound(int round) {
-		if (deltas != null && round < roundsAvailable) {
-			assert deltas[round] != null: "Null delta at round " + round;
-			return deltas[round];
+		if (index != null) {
+			return readIndexedRound(round);
 		}
-		return null;
+		RoundDelta delta = deltas.get(round);
+		assert delta != null || round >= deltas.size(): "Null delta at round " + round;
+		return delta;
 	}
 
 	public RoundStats getRoundStats(int round) {
-		return stats[round];
+		if (index != null) {
+			if (round >= indexedRounds) return null;
+			try {
+				return index.getRoundStats(indexedMatch, round);
+			}
+			catch (IOException e) {
+				return null;
+			}
+		}
+		return stats.get(round);
 	}
 
 	public List<Signal> getDebugSignals(int round) {
-		if (deltas != null) {
-			synchronized(deltas) {
-				if (round == roundsAvailable) return currentBreak;
-			}
+		synchronized(breakLock) {
+			if (round == getRoundsAvailable()) return currentBreak;
 		}
 		return null;
 	}
@@ -76,7 +122,70 @@ public final class BufferedMatch {
 		return footer;
 	}
 
+	/**
+	 * @return the time, as given by System.nanoTime(), at which the round
+	 * became available
+	 */
+	public long getRoundArrivalTime(int round) {
+		return (index != null ? indexedTime : arrivals.get(round));
+	}
+
+	/**
+	 * @return the rate at which the last rounds arrived, in rounds per
+	 * second, or 0 before two rounds have arrived
+	 */
+	public double getBufferingRate() {
+		int last = getRoundsAvailable() - 1;
+		if (last < 1) {
+			return 0;
+		}
+		int first = Math.max(0, last - BUFFERING_WINDOW);
+		long span = getRoundArrivalTime(last) - getRoundArrivalTime(first);
+		return (span > 0 ? (last - first) * 1e9 / span : 0);
+	}
+
+	/**
+	 * @return a count that changes whenever a round, break signals or the
+	 * footer arrive, to be passed to {@link #awaitPublication(long)}
+	 */
+	public long getPublicationCount() {
+		synchronized(publicationLock) {
+			return publications;
+		}
+	}
+
+	/**
+	 * Blocks until something has been published since the given count was
+	 * read.
+	 *
+	 * @return the current publication count
+	 */
+	public long awaitPublication(long seen) throws InterruptedException {
+		synchronized(publicationLock) {
+			while (publications == seen) {
+				publicationLock.wait();
+			}
+			return publications;
+		}
+	}
+
+	private void publish() {
+		synchronized(publicationLock) {
+			publications++;
+			publicationLock.notifyAll();
+		}
+	}
+
 	private void readMatch() {
+		try {
+			bufferMatch();
+		}
+		finally {
+			publish();
+		}
+	}
+
+	private void bufferMatch() {
 		Object obj;
 		do {
 			try {
@@ -87,20 +196,17 @@ public final class BufferedMatch {
 				return;
 			}
 		} while (!(obj instanceof MatchHeader));
-		synchronized(this) {
-			header = (MatchHeader) obj;
-			for (MatchListener listener: matchListeners) {
-				listener.headerReceived(this);
-			}
+		header = (MatchHeader) obj;
+		if (proxy instanceof IndexedClientProxy) {
+			useIndex((IndexedClientProxy) proxy);
 		}
-		deltas = new RoundDelta[header.getMap().getMaxRounds() + 1];
-		stats  = new RoundStats[header.getMap().getMaxRounds() + 1];
+		events.postHeader();
 		while (true) {
 			try {
 				obj = proxy.readObject();
 			}
 			catch (EOFException e) {
-				System.err.println("Unexpected end of line at round " + roundsAvailable);
+				System.err.println("Unexpected end of line at round " + deltas.size());
 				return;
 			}
 			if (obj instanceof Notification) {
@@ -130,33 +236,52 @@ public final class BufferedMatch {
 				earlyTermination = true;
 			}
 		}
-		synchronized(this) {
-			footer = (MatchFooter) obj;
-			for (MatchListener listener: matchListeners) {
-				listener.footerReceived(this);
-			}
-			matchPausedListeners = null;
-		}
-		matchListeners = null;
+		deltas.finish();
+		footer = (MatchFooter) obj;
+		publish();
+		events.postFooter();
 		System.out.println("Stop buffering match");
 	}
 
+	/**
+	 * Makes every round of an indexed replay available at once, read from
+	 * the file when a timeline asks for it, and moves the proxy on to the
+	 * metadata and footer so the rounds are never decoded up front.
+	 */
+	private void useIndex(IndexedClientProxy indexed) {
+		IndexedReplayFile replay = indexed.getReplayFile();
+		indexedMatch = indexed.getMatchIndex();
+		indexedRounds = replay.getNumRounds(indexedMatch);
+		indexedTime = System.nanoTime();
+		// publishes the fields above
+		index = replay;
+		indexed.seek(indexedRounds);
+		publish();
+	}
+
+	private RoundDelta readIndexedRound(int round) {
+		if (round >= indexedRounds) return null;
+		try {
+			return index.getRound(indexedMatch, round);
+		}
+		catch (IOException e) {
+			// the rest of the match still plays, without this round's changes
+			System.err.println("Can't read round " + round + ": " + e.getMessage());
+			return new RoundDelta(new Signal[0]);
+		}
+	}
+
 	private void handleNotification(Notification n) {
 		assert (n instanceof PauseNotification);
 		paused = true;
-		synchronized(matchPausedListeners) {
-			for (MatchListener listener: matchPausedListeners) {
-				listener.breakReceived(this);
-			}
-		}
+		events.postBreak();
 	}
 
 	private void handleRoundDelta(RoundDelta roundDelta) {
-		assert roundDelta != null: "Null delta at round " + roundsAvailable;
+		assert roundDelta != null: "Null delta at round " + deltas.size();
 		paused = false;
 		if (currentBreak == null) {
-			deltas[roundsAvailable] = roundDelta;
-			roundsAvailable++;
+			addRound(roundDelta);
 		}
 		else {
 			Signal[] signals = roundDelta.getSignals();
@@ -167,25 +292,37 @@ public final class BufferedMatch {
 			for (int i = 0; i < signals.length; i++) {
 				merged[currentBreak.size() + i] = signals[i];
 			}
-			synchronized(deltas) {
+			synchronized(breakLock) {
 				currentBreak = null;
-				deltas[roundsAvailable] = new RoundDelta(merged);
-				roundsAvailable++;
+				addRound(new RoundDelta(merged));
 			}
 		}
 	}
 
+	private void addRound(RoundDelta roundDelta) {
+		// the stats slot must exist before the round is published
+		stats.add(null);
+		arrivals.add(System.nanoTime());
+		deltas.add(roundDelta);
+		publish();
+	}
+
 	private void handleRoundStats(RoundStats roundStats) {
-		stats[roundsAvailable - 1] = roundStats;
+		if (stats.size() > 0) {
+			stats.set(stats.size() - 1, roundStats);
+		}
 	}
 
 	private void handleSignals(Signal[] signals) {
-		if (currentBreak == null) {
-			currentBreak = new ArrayList<Signal>();
-		}
-		for (int i = 0; i < signals.length; i++) {
-			currentBreak.add(signals[i]);
+		synchronized(breakLock) {
+			if (currentBreak == null) {
+				currentBreak = new ArrayList<Signal>();
+			}
+			for (int i = 0; i < signals.length; i++) {
+				currentBreak.add(signals[i]);
+			}
 		}
+		publish();
 	}
 
 	private void handleExtensibleMetadata(ExtensibleMetadata metadata) {
@@ -208,23 +345,29 @@ public final class BufferedMatch {
 		return (footer != null);
 	}
 
-	public synchronized void addMatchListener(MatchListener listener) {
-		if (header != null) {
-			listener.headerReceived(this);
-			if (footer != null) {
-				listener.footerReceived(this);
-				return;
-			}
-		}
-		matchListeners.add(listener);
+	/**
+	 * Adds a listener for the header and footer. Listeners are called on the
+	 * match's event thread, and one added after the header or footer has
+	 * arrived is told about it there.
+	 */
+	public void addMatchListener(MatchListener listener) {
+		events.addMatchListener(listener);
 	}
 
-	public synchronized void addMatchPausedListener(MatchListener listener) {
-		if (matchPausedListeners != null) {
-			synchronized(matchPausedListeners) {
-				matchPausedListeners.add(listener);
-			}
-		}
+	/**
+	 * Adds a listener for breaks. Breaks that arrive while the listeners are
+	 * still busy with an earlier one are only reported once.
+	 */
+	public void addMatchPausedListener(MatchListener listener) {
+		events.addMatchPausedListener(listener);
+	}
+
+	/**
+	 * @return how long each kind of listener has taken to handle this match's
+	 * events
+	 */
+	public String getListenerReport() {
+		return events.getListenerReport();
 	}
 
 	public DebugProxy getDebugProxy() {
@@ -237,4 +380,20 @@ public final class BufferedMatch {
 	}
 
 	public boolean isEarlyTermination() { return earlyTermination; }
+
+	/**
+	 * @return how the match's rounds are stored and how much room they take
+	 */
+	public String getStoreReport() {
+		return (index != null ? "Round store: " + indexedRounds + " rounds read from the replay index"
+		        : deltas.getReport());
+	}
+
+	/**
+	 * Releases the storage of a match that is no longer shown. Rounds still
+	 * arriving are discarded.
+	 */
+	public void dispose() {
+		deltas.close();
+	}
 }
@@ -0,0 +1,130 @@
+package battlecode.client.viewer;
+
+import java.io.*;
+import java.util.*;
+
+import battlecode.serial.RoundDelta;
+import battlecode.server.Config;
+
+/**
+ * Keeps every round encoded by a {@link RoundCodec} and rebuilds the
+ * RoundDelta when a round is requested.
+ *
+ * Recently decoded rounds are cached, since timelines read rounds in order
+ * and several timelines follow the same match.
+ */
+final class CompactDeltaStore implements RoundDeltaStore {
+
+	private static final int CACHED_ROUNDS = 64;
+	// every this many rounds, the Java serialized size is measured for the
+	// report, if asked for, since it costs the reading thread time
+	private static final int SAMPLE_INTERVAL = 32;
+	private static final boolean SAMPLE_SERIALIZED =
+		Config.getGlobalConfig().getBoolean("bc.client.measure-compact-rounds");
+
+	private final RoundStore<byte[]> rounds = new RoundStore<byte[]>();
+
+	private final RoundCodec codec = new RoundCodec();
+
+	private final Map<Integer, RoundDelta> cache =
+		new LinkedHashMap<Integer, RoundDelta>(CACHED_ROUNDS, 0.75f, true) {
+			private static final long serialVersionUID = 0; // don't serialize
+			protected boolean removeEldestEntry(Map.Entry<Integer, RoundDelta> e) {
+				return size() > CACHED_ROUNDS;
+			}
+		};
+
+	private volatile long encodedBytes = 0;
+	private volatile long sampledEncodedBytes = 0;
+	private volatile long sampledSerializedBytes = 0;
+
+	public int size() {
+		return rounds.size();
+	}
+
+	public RoundDelta get(int round) {
+		byte[] data = rounds.get(round);
+		if (data == null) {
+			return null;
+		}
+		synchronized (cache) {
+			RoundDelta delta = cache.get(round);
+			if (delta != null) {
+				return delta;
+			}
+		}
+		RoundDelta delta;
+		try {
+			delta = codec.decode(data);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Corrupt compact round " + round, e);
+		}
+		synchronized (cache) {
+			cache.put(round, delta);
+		}
+		return delta;
+	}
+
+	public void add(RoundDelta delta) {
+		byte[] data;
+		try {
+			data = codec.encode(delta);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Can't encode round " + rounds.size(), e);
+		}
+		encodedBytes += data.length;
+		if (SAMPLE_SERIALIZED && rounds.size() % SAMPLE_INTERVAL == 0) {
+			sampledEncodedBytes += data.length;
+			sampledSerializedBytes += serializedSize(delta);
+		}
+		rounds.add(data);
+	}
+
+	public void finish() {
+	}
+
+	public void close() {
+	}
+
+	/**
+	 * @return the average number of bytes each stored round takes
+	 */
+	public double getBytesPerRound() {
+		return (double) encodedBytes / Math.max(rounds.size(), 1);
+	}
+
+	/**
+	 * @return the average Java serialized size of a round, measured on a
+	 * sample of the rounds, or 0 unless bc.client.measure-compact-rounds is
+	 * set
+	 */
+	public double getSerializedBytesPerRound() {
+		if (sampledEncodedBytes == 0) return 0;
+		return getBytesPerRound() * sampledSerializedBytes / sampledEncodedBytes;
+	}
+
+	public String getReport() {
+		String report = String.format("Compact round store: %d rounds, %.0f bytes/round",
+		                              rounds.size(), getBytesPerRound());
+		if (sampledEncodedBytes > 0) {
+			report += String.format(" (%.0f bytes/round serialized)",
+			                        getSerializedBytesPerRound());
+		}
+		return report;
+	}
+
+	private static long serializedSize(RoundDelta delta) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(delta);
+			oos.close();
+			return bytes.size();
+		}
+		catch (IOException e) {
+			return 0;
+		}
+	}
+}
@@ -2,6 +2,8 @@ package battlecode.client.viewer;
 
 import info.clearthought.layout.TableLayout;
 
+import java.awt.Color;
+import java.awt.Graphics;
 import java.awt.event.*;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -9,6 +11,7 @@ import java.text.*;
 import java.util.*;
 import javax.swing.*;
 import javax.swing.event.*;
+import javax.swing.plaf.basic.BasicSliderUI;
 
 public class ControlPanel extends JPanel
         implements ActionListener, ChangeListener, Controller {
@@ -26,6 +29,8 @@ public class ControlPanel extends JPanel
     private NumberFormat stepSizeFmt = NumberFormat.getNumberInstance();
     private JSlider slider;
     private boolean setSliderPrecise = false;
+    // repaints the slider while keyframes are still being built
+    private final javax.swing.Timer keyFrameProgressTimer;
     private String matchCount = "";
     private final ImageIcon playIcon;
     private final ImageIcon pauseIcon;
@@ -102,7 +107,23 @@ public class ControlPanel extends JPanel
         panel.add(stepSizeField);
         panel.add(new JLabel(" rounds"));
 
-        slider = new JSlider(0, 1);
+        slider = new JSlider(0, 1) {
+            private static final long serialVersionUID = 0; // don't serialize
+
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                paintKeyFrameProgress(g);
+            }
+        };
+        keyFrameProgressTimer = new javax.swing.Timer(250, new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                slider.repaint();
+                if (player == null || player.getTimeline().isKeyFramingComplete()) {
+                    keyFrameProgressTimer.stop();
+                }
+            }
+        });
         setSliderValue(0);
         slider.setEnabled(false);
         infoPanel = new InfoPanel();
@@ -171,10 +192,38 @@ public class ControlPanel extends JPanel
             public void headerReceived(BufferedMatch match) {
                 slider.setMaximum(match.getHeader().getMap().getMaxRounds());
                 slider.setEnabled(true);
+                keyFrameProgressTimer.start();
             }
         });
     }
 
+    /**
+     * Marks the rounds of the slider's track that have keyframes, so the
+     * stretches where seeking is fast show up densely marked.
+     */
+    private void paintKeyFrameProgress(Graphics g) {
+        if (player == null || !slider.isEnabled()
+            || !(slider.getUI() instanceof BasicSliderUI)) {
+            return;
+        }
+        GameStateTimeline gst = player.getTimeline();
+        BasicSliderUI ui = (BasicSliderUI) slider.getUI();
+        // find the ends of the track, since the UI only maps x to values
+        int left = 0, right = slider.getWidth() - 1;
+        while (left < right && ui.valueForXPosition(left) <= slider.getMinimum()) {
+            left++;
+        }
+        while (right > left && ui.valueForXPosition(right) >= slider.getMaximum()) {
+            right--;
+        }
+        double scale = (double) (right - left) / Math.max(slider.getMaximum(), 1);
+        int y = slider.getHeight() - 3;
+        g.setColor(new Color(0, 160, 0));
+        for (Object round : gst.getKeyFrameRounds()) {
+            g.fillRect(left + (int) ((Integer) round * scale), y, 1, 2);
+        }
+    }
+
     public void updateRoundLabel(int round, int max) {
         if (round >= 0) {
             label.setText("Round " + round + " of " + max);
@@ -200,7 +249,7 @@ public class ControlPanel extends JPanel
         GameStateTimeline gst = player.getTimeline();
         if (slider.getValueIsAdjusting() && !setSliderPrecise) {
             int round = slider.getValue();
-            gst.setRound(round - (round % gst.getRoundsPerKey()));
+            gst.setRound(gst.getKeyFrameRound(round));
         }
         setSliderPrecise = false;
         if (slider.getValue() > gst.getNumRounds()) {
@@ -1,5 +1,9 @@
 package battlecode.client.viewer;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import battlecode.serial.RoundDelta;
 import battlecode.serial.RoundStats;
 
@@ -24,5 +28,59 @@ public abstract class GameState extends AutoSignalHandler<Void> {
 
 	protected abstract void updateRound();
 
+	/**
+	 * Keeps what is needed to undo up to the given number of the last rounds
+	 * applied, or stops keeping it if the number is 0. States that can't undo
+	 * rounds ignore this.
+	 */
+	public void setUndoDepth(int rounds) {
+	}
+
+	/**
+	 * @return how many of the last rounds applied can be undone
+	 */
+	public int getUndoableRounds() {
+		return 0;
+	}
+
+	/**
+	 * Puts the state back as it was before the last round applied.
+	 *
+	 * @return false if there was no round to undo
+	 */
+	public boolean undoRound() {
+		return false;
+	}
+
+	/**
+	 * The version of the format written by {@link #writeSnapshot}, to be
+	 * raised whenever a state changes what it writes.
+	 */
+	public static final int SNAPSHOT_VERSION = 1;
+
+	/**
+	 * @return true if the state can be written with {@link #writeSnapshot}
+	 * and read back into a state created for the same map
+	 */
+	public boolean isSnapshotSupported() {
+		return false;
+	}
+
+	public void writeSnapshot(DataOutput out) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public void readSnapshot(DataInput in) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return a rough estimate of the heap this state takes up, or 0 if it
+	 * isn't worth counting
+	 */
+	public long estimateSize() {
+		return 0;
+	}
+
 	//public abstract AbstractDrawObject getDrawObject(int id);
 }
@@ -1,18 +1,89 @@
 package battlecode.client.viewer;
 
+import battlecode.client.util.ConfigOptions;
 import battlecode.serial.*;
 import battlecode.engine.signal.Signal;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
 
 public class GameStateTimeline<E extends GameState> extends Observable {
 
+	/** Asks for keyframe spacing that adapts to the match. */
+	public static final int ADAPTIVE_SPACING = 0;
+
+	// rounds the current state can step back without a keyframe
+	private static final int DEFAULT_UNDO_ROUNDS = 64;
+
+	// rounds between the keyframes a follower keeps of rounds it has shown
+	private static final int FOLLOWER_SPACING = 50;
+
+	// seeks whose durations are kept for the latency percentiles
+	private static final int SEEK_SAMPLES = 256;
+
+	// states kept of those prefetched ahead of a scrub
+	private static final int PREFETCH_STATES = 4;
+
   private GameStateFactory<E> gsf;
-  private Vector<E> keyFrames;
-  private final int roundsPerKey;
+  // keyframes by the round whose state they hold
+  private final ConcurrentSkipListMap<Integer, E> keyFrames =
+    new ConcurrentSkipListMap<Integer, E>();
+  private final KeyFrameSpacing spacing;
+  private final Object thinningLock = new Object();
+
+	// fills in keyframes between checkpoints for every timeline
+	private static ForkJoinPool keyFramePool = null;
+	private final AtomicInteger pendingSegments = new AtomicInteger(0);
+	private volatile boolean checkpointsDone = false;
+	// notified whenever keyframing may have completed
+	private final Object keyFramingLock = new Object();
+
+	// builds the states a scrub is predicted to reach next, for every timeline
+	private static ExecutorService prefetchPool = null;
+	private final boolean prefetch;
+	private final ScrubPredictor scrub = new ScrubPredictor();
+	// states built ahead of the scrub by round, which seeks start from like
+	// keyframes
+	private final ConcurrentSkipListMap<Integer, E> prefetched =
+		new ConcurrentSkipListMap<Integer, E>();
+	// the round to prefetch next, or -1, and whether a worker is running
+	private final AtomicInteger prefetchTarget = new AtomicInteger(-1);
+	private final AtomicBoolean prefetching = new AtomicBoolean(false);
+	private volatile long prefetchHits = 0;
+	private volatile long prefetchMisses = 0;
+
+	// catches followers up with their masters, off the thread moving the master
+	private static ExecutorService followerPool = null;
+	// the master's latest round not yet followed, and whether a worker is
+	// following it
+	private static final int NO_ROUND = Integer.MIN_VALUE;
+	private final AtomicInteger masterRound = new AtomicInteger(NO_ROUND);
+	private final AtomicBoolean following = new AtomicBoolean(false);
+	// whether a follower's observers are already due to be told on the EDT
+	private final AtomicBoolean notifyPosted = new AtomicBoolean(false);
+
+	// keyframes saved the last time the replay was opened, used instead of
+	// building them, and the one last decoded
+	private volatile KeyFrameCache.MatchKeyFrames cachedKeyFrames = null;
+	private Map.Entry<Integer, E> decodedKeyFrame = null;
+	private Executor keyFrameExecutor;
 
 	protected BufferedMatch match;
+	// the timeline this one follows, or null if it builds its own keyframes
+	private final GameStateTimeline<?> master;
 	private boolean active = false; // technically volatile, but we can be lenient
+	private volatile boolean terminated = false;
 
 	protected E currentState = null;
 	protected int currentRound = -1;
@@ -23,33 +94,165 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 
   private volatile int roundsProcessed = -1;
 
-  private volatile long cloneTime = 0;
-  private volatile long numClones = 0;
-  private volatile long applyTime = 0;
-  private volatile long numApplies = 0;
+  // updated from the keyframe workers as well as the timeline's own thread
+  private final AtomicLong cloneTime = new AtomicLong();
+  private final AtomicLong numClones = new AtomicLong();
+  private final AtomicLong applyTime = new AtomicLong();
+  private final AtomicLong numApplies = new AtomicLong();
+  private final AtomicLong numSignalsApplied = new AtomicLong();
+
+	// the thread building keyframes, interrupted by terminate()
+	private final Object keyFrameThreadLock = new Object();
+	private Thread keyFrameThread = null;
+	// set once keyframing has started, after which a cache isn't taken
+	private boolean keyFramesStarted = false;
+
+	// durations of the last seeks, in nanoseconds, oldest overwritten first
+	private final long[] seekTimes = new long[SEEK_SAMPLES];
+	private long numSeeks = 0;
+
+	// delay between a round arriving and the timeline being able to show it
+	private volatile long roundLagTotal = 0;
+	private volatile long roundLagMax = 0;
+
+	/**
+	 * Creates a timeline whose keyframe spacing adapts to the match.
+	 */
+	public GameStateTimeline(BufferedMatch match, GameStateFactory<E> gsf) {
+		this(match, gsf, ADAPTIVE_SPACING, null);
+	}
 
 	public GameStateTimeline(BufferedMatch match, GameStateFactory<E> gsf,
 	                         int rpk) {
+		this(match, gsf, rpk, null);
+	}
+
+	/**
+	 * @param rpk the number of rounds between keyframes, or
+	 * {@link #ADAPTIVE_SPACING}
+	 * @param keyFrameExecutor runs the creation of keyframes once the match
+	 * header arrives, or null to start a thread for it
+	 */
+	public GameStateTimeline(BufferedMatch match, GameStateFactory<E> gsf,
+	                         int rpk, final Executor keyFrameExecutor) {
 		this.gsf = gsf;
-		this.roundsPerKey = rpk;
+		this.spacing = (rpk == ADAPTIVE_SPACING ? KeyFrameSpacing.adaptive()
+		                : KeyFrameSpacing.fixed(rpk));
 		this.match = match;
+		this.master = null;
+		this.keyFrameExecutor = keyFrameExecutor;
+		this.prefetch = !battlecode.server.Config.getGlobalConfig()
+			.getBoolean("bc.client.no-prefetch");
 		match.addMatchListener(new MatchListener() {
 			public void headerReceived(BufferedMatch m) {
-				keyFrames = new Vector<E>(1 + m.getHeader().getMap().getMaxRounds() /
-				                              roundsPerKey);
 				active = true;
-				(new Thread() { public void run() { createKeyFrames(); } }).start();
+				startKeyFrames();
 			}
 		});
   }
 
+	/**
+	 * Creates a timeline that shows the rounds another timeline shows, for
+	 * views that need a state of a different kind from the master's.
+	 *
+	 * A follower builds no keyframes ahead of time: it only applies the
+	 * rounds the master moves through, and keeps a keyframe every so often of
+	 * the rounds it has shown to seek back from. It catches up on a worker
+	 * thread, so its observers are notified there rather than on the thread
+	 * that moved the master. Views that can show the master's own kind of
+	 * state should draw the master's state instead of following it.
+	 */
+	public GameStateTimeline(GameStateTimeline<?> master, GameStateFactory<E> gsf) {
+		this.gsf = gsf;
+		this.spacing = KeyFrameSpacing.fixed(FOLLOWER_SPACING);
+		this.match = master.getMatch();
+		this.master = master;
+		this.keyFrameExecutor = null;
+		this.prefetch = false;
+		match.addMatchListener(new MatchListener() {
+			public void headerReceived(BufferedMatch m) {
+				active = true;
+			}
+		});
+		setMasterTimeline(master);
+	}
+
+	private void startKeyFrames() {
+		Runnable task = new Runnable() { public void run() { createKeyFrames(); } };
+		if (keyFrameExecutor != null) {
+			keyFrameExecutor.execute(task);
+		}
+		else {
+			(new Thread(task)).start();
+		}
+	}
+
+	/**
+	 * Makes the timeline seek from cached keyframes instead of building its
+	 * own, unless it has already started building them.
+	 *
+	 * @return false if the timeline keeps building its own keyframes
+	 */
+	boolean useCachedKeyFrames(KeyFrameCache.MatchKeyFrames keyFrames) {
+		synchronized (keyFrameThreadLock) {
+			if (keyFramesStarted) {
+				return false;
+			}
+			cachedKeyFrames = keyFrames;
+			return true;
+		}
+	}
+
+	/**
+	 * @return the keyframes built by the timeline, by round
+	 */
+	SortedMap<Integer, E> getKeyFrames() {
+		return keyFrames;
+	}
+
 	public boolean isActive() { return active; }
 
+	public boolean isTerminated() { return terminated; }
+
 	public boolean isFinished() {
 		return match.isFinished() && roundsProcessed >= match.getRoundsAvailable();
 	}
 
-	public int getRoundsPerKey() { return roundsPerKey; }
+	/**
+	 * @return the keyframe spacing, which is only typical when the spacing
+	 * is adaptive
+	 */
+	public int getRoundsPerKey() { return spacing.getNominalSpacing(); }
+
+	/**
+	 * @return the round of the last keyframe at or before the given round
+	 */
+	public int getKeyFrameRound(int round) {
+		KeyFrameCache.MatchKeyFrames cached = cachedKeyFrames;
+		if (cached != null) {
+			return Math.max(cached.floorRound(round), 0);
+		}
+		Integer key = keyFrames.floorKey(round);
+		return (key != null ? key : 0);
+	}
+
+	/**
+	 * @return a live view of the rounds that have keyframes
+	 */
+	public Set<Integer> getKeyFrameRounds() {
+		KeyFrameCache.MatchKeyFrames cached = cachedKeyFrames;
+		if (cached != null) {
+			return cached.getRounds();
+		}
+		return Collections.unmodifiableSet(keyFrames.keySet());
+	}
+
+	/**
+	 * @return the estimated heap taken by the keyframes
+	 */
+	public long getKeyFrameBytes() {
+		return spacing.getBytes();
+	}
 
 	/**
 	 * Stops the creation of keyframes for this timeline and notifies all Observers.
@@ -57,55 +260,324 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 	 */
 	public void terminate() {
 		active = false;
+		terminated = true;
+		synchronized (keyFrameThreadLock) {
+			if (keyFrameThread != null) {
+				keyFrameThread.interrupt();
+			}
+		}
+		prefetched.clear();
+		keyFramingChanged();
+		// followers share their master's match
+		if (master == null) {
+			match.dispose();
+		}
 		setChanged();
 		notifyObservers();
 		deleteObservers();
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Builds keyframes as rounds are published by the match, sleeping in
+	 * between until the match publishes more.
+	 */
 	protected void createKeyFrames() {
+		synchronized (keyFrameThreadLock) {
+			if (!active) return;
+			keyFrameThread = Thread.currentThread();
+			keyFramesStarted = true;
+		}
+		try {
+			if (cachedKeyFrames != null && followCachedMatch()) {
+				return;
+			}
+			if (match.getDebugProxy() == null
+			    && !battlecode.server.Config.getGlobalConfig()
+			    .getBoolean("bc.client.serial-keyframes")) {
+				buildKeyFramesInParallel();
+			}
+			else {
+				buildKeyFrames();
+			}
+		}
+		catch (InterruptedException e) {
+		}
+		finally {
+			synchronized (keyFrameThreadLock) {
+				keyFrameThread = null;
+				// don't leave the interrupt behind for an executor's next task
+				Thread.interrupted();
+			}
+		}
+	}
+
+	/**
+	 * Keeps up with the rounds published by the match while seeks are served
+	 * from the cache.
+	 *
+	 * @return false if the cache was dropped and keyframes need building
+	 */
+	private boolean followCachedMatch() throws InterruptedException {
+		roundsProcessed = 0;
+		while (active && cachedKeyFrames != null) {
+			long seen = match.getPublicationCount();
+			int roundsAvailable = match.getRoundsAvailable();
+			while (roundsProcessed < roundsAvailable) {
+				recordLag(match.getRoundArrivalTime(roundsProcessed));
+				roundsProcessed++;
+			}
+			if (match.isFinished() && roundsProcessed == match.getRoundsAvailable()) {
+				synchronized (keyFrameThreadLock) {
+					if (cachedKeyFrames != null) {
+						checkpointsDone = true;
+						keyFramingChanged();
+						return true;
+					}
+				}
+				break;
+			}
+			match.awaitPublication(seen);
+		}
+		return (cachedKeyFrames != null);
+	}
+
+	/**
+	 * Stops using a cache that couldn't be read and builds keyframes instead.
+	 */
+	private void dropCachedKeyFrames() {
+		synchronized (keyFrameThreadLock) {
+			cachedKeyFrames = null;
+			// otherwise the follower notices and builds them itself
+			if (checkpointsDone && active) {
+				checkpointsDone = false;
+				startKeyFrames();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void buildKeyFrames() throws InterruptedException {
 		E gs = gsf.createState((battlecode.world.GameMap)match.getHeader().getMap());
-		keyFrames.addElement(cloneState(gs));
+		addKeyFrame(0, cloneState(gs));
+		int roundsSinceKey = 0;
+		long signalsSinceKey = 0;
 		roundsProcessed = 0;
 		while (active) {
+			long seen = match.getPublicationCount();
 			int roundsAvailable = match.getRoundsAvailable();
 			if (roundsProcessed == roundsAvailable && match.isFinished()) {
+				checkpointsDone = true;
+				keyFramingChanged();
 				break;
 			}
+			boolean processed = (roundsProcessed < roundsAvailable);
 			while (roundsProcessed < roundsAvailable && active) {
 				RoundDelta delta = match.getRound(roundsProcessed);
 				assert delta != null: "Null delta after handling " + roundsProcessed + " rounds";
 				applyDelta(gs, delta, match.getRoundStats(roundsProcessed));
-				if ((roundsProcessed + 1) % roundsPerKey == 0) {
-					keyFrames.addElement(cloneState(gs));
+				roundsSinceKey++;
+				signalsSinceKey += delta.getSignals().length;
+				if (isKeyFrameDue(roundsProcessed + 1, roundsSinceKey, signalsSinceKey)) {
+					addKeyFrame(roundsProcessed + 1, cloneState(gs));
+					roundsSinceKey = 0;
+					signalsSinceKey = 0;
 				}
+				recordLag(match.getRoundArrivalTime(roundsProcessed));
 				roundsProcessed++;
 				synchronized (this) { debugSignals = null; }
 			}
-			appliedDebugSignals = 0;
-			debugSignals = match.getDebugSignals(roundsProcessed);
-			if (debugSignals != null) {
+			// the break's signal list fills in place, so it only needs
+			// fetching again once a round has gone by
+			if (processed || debugSignals == null) {
+				appliedDebugSignals = 0;
+				debugSignals = match.getDebugSignals(roundsProcessed);
+			}
+			match.awaitPublication(seen);
+		}
+	}
+
+	/**
+	 * Builds keyframes for a match without debugging. A sequential pass
+	 * makes every round seekable as soon as it arrives, keeping only a few
+	 * coarse checkpoints, and the keyframes between each pair of checkpoints
+	 * are filled in on the shared pool as soon as the pair exists. Until
+	 * then, seeks start from the nearest keyframe before them.
+	 */
+	@SuppressWarnings("unchecked")
+	private void buildKeyFramesInParallel() throws InterruptedException {
+		E gs = gsf.createState((battlecode.world.GameMap)match.getHeader().getMap());
+		E checkpointState = cloneState(gs);
+		addKeyFrame(0, checkpointState);
+		int checkpoint = 0;
+		int checkpointRounds = spacing.getNominalSpacing() * getKeysPerCheckpoint();
+		roundsProcessed = 0;
+		while (active) {
+			long seen = match.getPublicationCount();
+			int roundsAvailable = match.getRoundsAvailable();
+			if (roundsProcessed == roundsAvailable && match.isFinished()) {
+				fillKeyFrames(checkpoint, checkpointState, roundsProcessed + 1);
+				checkpointsDone = true;
+				keyFramingChanged();
+				break;
+			}
+			while (roundsProcessed < roundsAvailable && active) {
+				applyDelta(gs, match.getRound(roundsProcessed),
+				           match.getRoundStats(roundsProcessed));
+				recordLag(match.getRoundArrivalTime(roundsProcessed));
+				roundsProcessed++;
+				if (roundsProcessed % checkpointRounds == 0) {
+					E state = cloneState(gs);
+					addKeyFrame(roundsProcessed, state);
+					fillKeyFrames(checkpoint, checkpointState, roundsProcessed);
+					checkpoint = roundsProcessed;
+					checkpointState = state;
+				}
+			}
+			match.awaitPublication(seen);
+		}
+	}
+
+	/**
+	 * Spaces the checkpoints so that there are a few segments for every
+	 * thread of the pool.
+	 */
+	private int getKeysPerCheckpoint() {
+		int keys = 1 + match.getHeader().getMap().getMaxRounds()
+			/ spacing.getNominalSpacing();
+		return Math.max(2, keys / (4 * getKeyFramePool().getParallelism()));
+	}
+
+	private static synchronized ForkJoinPool getKeyFramePool() {
+		if (keyFramePool == null) {
+			keyFramePool = new ForkJoinPool();
+		}
+		return keyFramePool;
+	}
+
+	/**
+	 * Creates the keyframes for the rounds between from and to on the pool,
+	 * starting from the given state at round from.
+	 */
+	private void fillKeyFrames(final int from, final E start, final int to) {
+		if (to - from <= 1) return;
+		pendingSegments.incrementAndGet();
+		getKeyFramePool().execute(new Runnable() {
+			public void run() {
 				try {
-					while (roundsProcessed == match.getRoundsAvailable()) {
-						Thread.sleep(10);
+					E gs = cloneState(start);
+					int roundsSinceKey = 0;
+					long signalsSinceKey = 0;
+					for (int round = from; round + 1 < to && active; round++) {
+						RoundDelta delta = match.getRound(round);
+						applyDelta(gs, delta, match.getRoundStats(round));
+						roundsSinceKey++;
+						signalsSinceKey += delta.getSignals().length;
+						if (isKeyFrameDue(round + 1, roundsSinceKey, signalsSinceKey)) {
+							addKeyFrame(round + 1, cloneState(gs));
+							roundsSinceKey = 0;
+							signalsSinceKey = 0;
+						}
 					}
 				}
-				catch (InterruptedException e) {}
+				finally {
+					pendingSegments.decrementAndGet();
+					keyFramingChanged();
+				}
 			}
-			else {
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
+		});
+	}
+
+	private boolean isKeyFrameDue(int round, int roundsSinceKey, long signalsSinceKey) {
+		long signals = numSignalsApplied.get();
+		long clones = numClones.get();
+		return spacing.isDue(round, roundsSinceKey, signalsSinceKey,
+		                     (signals > 0 ? (double) applyTime.get() / signals : 0),
+		                     (clones > 0 ? (double) cloneTime.get() / clones : 0));
+	}
+
+	private void addKeyFrame(int round, E state) {
+		keyFrames.put(round, state);
+		spacing.added(state.estimateSize());
+		if (spacing.isOverBudget()) {
+			thinKeyFrames();
+		}
+	}
+
+	/**
+	 * Drops every other keyframe, apart from the first, until the keyframes
+	 * fit the budget again, and makes new keyframes sparser.
+	 */
+	private void thinKeyFrames() {
+		synchronized (thinningLock) {
+			while (spacing.isOverBudget() && keyFrames.size() > 1) {
+				boolean drop = false;
+				for (Map.Entry<Integer, E> entry: keyFrames.entrySet()) {
+					if (drop && keyFrames.remove(entry.getKey(), entry.getValue())) {
+						spacing.removed(entry.getValue().estimateSize());
+					}
+					drop = !drop;
 				}
+				spacing.relax();
+			}
+		}
+	}
+
+	/**
+	 * @return true once the match has ended and every keyframe for it has
+	 * been built
+	 */
+	public boolean isKeyFramingComplete() {
+		return checkpointsDone && pendingSegments.get() == 0;
+	}
+
+	/**
+	 * Blocks until every keyframe for the match has been built, or the
+	 * timeline has been terminated.
+	 */
+	public void awaitKeyFraming() throws InterruptedException {
+		synchronized (keyFramingLock) {
+			while (!isKeyFramingComplete() && !terminated) {
+				keyFramingLock.wait();
 			}
 		}
 	}
 
+	private void keyFramingChanged() {
+		synchronized (keyFramingLock) {
+			keyFramingLock.notifyAll();
+		}
+	}
+
+	private void recordLag(long arrivalTime) {
+		long lag = System.nanoTime() - arrivalTime;
+		roundLagTotal += lag;
+		if (lag > roundLagMax) {
+			roundLagMax = lag;
+		}
+	}
+
+	/**
+	 * @return the mean time in milliseconds between a round arriving and the
+	 * timeline having processed it
+	 */
+	public double getAverageRoundLag() {
+		int rounds = roundsProcessed;
+		return (rounds > 0 ? roundLagTotal / 1e6 / rounds : 0);
+	}
+
+	/**
+	 * @return the longest time in milliseconds between a round arriving and
+	 * the timeline having processed it
+	 */
+	public double getMaxRoundLag() {
+		return roundLagMax / 1e6;
+	}
+
   private E cloneState(E gs) {
     long startTime = System.nanoTime();
     E clone = gsf.cloneState(gs);
-    cloneTime += (System.nanoTime() - startTime);
-    numClones ++;
+    cloneTime.addAndGet(System.nanoTime() - startTime);
+    numClones.incrementAndGet();
     return clone;
   }
 
@@ -116,8 +588,9 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 	private void applyDelta(E gs, RoundDelta delta, RoundStats stats) {
 		long startTime = System.nanoTime();
 		gs.apply(delta);
-		applyTime += (System.nanoTime() - startTime);
-		numApplies ++;
+		applyTime.addAndGet(System.nanoTime() - startTime);
+		numApplies.incrementAndGet();
+		numSignalsApplied.addAndGet(delta.getSignals().length);
 		if (stats != null) {
 			gs.apply(stats);
 		}
@@ -135,16 +608,17 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 		}
 	}
 
-  private boolean isKeyFrameRequired(int round) {
-    if (numApplies == 0      || // we don't know about applies, so just do a clone
+  private boolean isKeyFrameRequired(int round, int keyRound) {
+    long applies = numApplies.get();
+    if (applies == 0         || // we don't know about applies, so just do a clone
 	currentRound == -1   || // no delta available from -1 to 0
 	round < currentRound || // need a key when rewinding
 	round == 0) {
       return true;
     }
-    int numDeltas = round - currentRound - (round % roundsPerKey);
+    int numDeltas = keyRound - currentRound;
     // suggest a copy if the extra delta applications would take more time
-    return numDeltas * applyTime * numClones > cloneTime * numApplies;
+    return numDeltas * applyTime.get() * numClones.get() > cloneTime.get() * applies;
   }
 
 	public BufferedMatch getMatch() {
@@ -160,6 +634,24 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 	}
 
 	public void setRound(int round) {
+		long start = System.nanoTime();
+		int from = currentRound;
+		if (prefetch && round != from) {
+			scrub.request(round, start);
+		}
+		seek(round);
+		if (currentRound != from) {
+			recordSeek(System.nanoTime() - start);
+		}
+		if (prefetch && scrub.isScrubbing()) {
+			prefetch(scrub.predict());
+		}
+	}
+
+	private void seek(int round) {
+		if (master != null) {
+			followMaster(round);
+		}
 		if (round < 0) { // first, clamp the min
 			round = 0;
 		}
@@ -174,10 +666,37 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 			return;
 		}
 
-		if (isKeyFrameRequired(round)) {
-			int keyFrame = round / roundsPerKey;
-			gsf.copyState(keyFrames.get(keyFrame), currentState);
-			currentRound = keyFrame * roundsPerKey;
+		// step back by undoing rounds while the state remembers them
+		if (round < currentRound && currentStateAlignedClone == null
+		    && currentRound - round <= currentState.getUndoableRounds()) {
+			while (currentRound > round) {
+				currentState.undoRound();
+				currentRound--;
+			}
+			setChanged();
+			notifyObservers();
+			return;
+		}
+
+		// the keyframe for the round may still be being built, and a state
+		// prefetched for the scrub may be closer to the round
+		int keyRound = getKeyFrameRound(round);
+		Map.Entry<Integer, E> ahead = prefetched.floorEntry(round);
+		boolean usePrefetched = (ahead != null && ahead.getKey() > keyRound);
+		if (usePrefetched) {
+			keyRound = ahead.getKey();
+		}
+		if (isKeyFrameRequired(round, keyRound)) {
+			E keyFrame = (usePrefetched ? ahead.getValue() : getKeyFrame(keyRound));
+			if (keyFrame == null) {
+				return;
+			}
+			gsf.copyState(keyFrame, currentState);
+			currentRound = keyRound;
+			if (prefetch && scrub.isScrubbing()) {
+				if (usePrefetched) prefetchHits++;
+				else prefetchMisses++;
+			}
 		}
 		else if (currentStateAlignedClone != null) { // realign currentState
 			gsf.copyState(currentStateAlignedClone, currentState);
@@ -187,11 +706,203 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 		while (currentRound < round) {
 			applyDelta(currentState, match.getRound(currentRound), match.getRoundStats(currentRound));
 			currentRound++;
+			if (master != null && spacing.isDue(currentRound, 0, 0, 0, 0)
+			    && !keyFrames.containsKey(currentRound)) {
+				addKeyFrame(currentRound, cloneState(currentState));
+			}
 		}
 		setChanged();
 		notifyObservers();
 	}
 
+	/**
+	 * Catches up with the rounds and debug signals the master has seen.
+	 */
+	private void followMaster(int round) {
+		if (keyFrames.isEmpty()) {
+			if (match.getHeader() == null) {
+				return;
+			}
+			addKeyFrame(0, gsf.createState((battlecode.world.GameMap) match.getHeader().getMap()));
+		}
+		roundsProcessed = master.getNumRounds();
+		// the break's signal list fills in place, so only a new list resets
+		List<Signal> signals = (round == roundsProcessed ? match.getDebugSignals(round) : null);
+		synchronized (this) {
+			if (signals != debugSignals) {
+				debugSignals = signals;
+				appliedDebugSignals = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the keyframe for the given round, decoding it if it comes from
+	 * the cache, or null if it isn't available
+	 */
+	private E getKeyFrame(int round) {
+		KeyFrameCache.MatchKeyFrames cached = cachedKeyFrames;
+		if (cached == null) {
+			return keyFrames.get(round);
+		}
+		if (decodedKeyFrame != null && decodedKeyFrame.getKey() == round) {
+			return decodedKeyFrame.getValue();
+		}
+		E state;
+		try {
+			state = decodeKeyFrame(cached, round);
+		}
+		catch (IOException e) {
+			System.err.println("Can't read cached keyframe, rebuilding keyframes: " + e.getMessage());
+			dropCachedKeyFrames();
+			return null;
+		}
+		catch (RuntimeException e) {
+			e.printStackTrace();
+			dropCachedKeyFrames();
+			return null;
+		}
+		decodedKeyFrame = new AbstractMap.SimpleImmutableEntry<Integer, E>(round, state);
+		return state;
+	}
+
+	@SuppressWarnings("unchecked")
+	private E decodeKeyFrame(KeyFrameCache.MatchKeyFrames cached, int round)
+		throws IOException {
+		E state = gsf.createState((battlecode.world.GameMap) match.getHeader().getMap());
+		cached.read(round, state);
+		if (round > 0) {
+			state.apply(match.getRoundStats(round - 1));
+		}
+		return state;
+	}
+
+	/**
+	 * Asks for the state of the given round to be built in the background,
+	 * replacing any round asked for before that isn't being built yet.
+	 */
+	private void prefetch(int round) {
+		int from = currentRound;
+		round = Math.max(0, Math.min(round, roundsProcessed));
+		// rounds that can be undone or played forward to cheaply need no help
+		if (currentState == null || from < 0 || prefetched.containsKey(round)
+		    || (round <= from && from - round <= currentState.getUndoableRounds())
+		    || (round > from && round - from < ScrubPredictor.MIN_STEP)) {
+			return;
+		}
+		prefetchTarget.set(round);
+		if (prefetching.compareAndSet(false, true)) {
+			getPrefetchPool().execute(new Runnable() {
+				public void run() { runPrefetches(); }
+			});
+		}
+	}
+
+	private void runPrefetches() {
+		do {
+			try {
+				int round;
+				while (active && (round = prefetchTarget.getAndSet(-1)) >= 0) {
+					buildPrefetched(round);
+				}
+			}
+			finally {
+				prefetching.set(false);
+			}
+			// a round asked for as the loop ended would otherwise wait for the
+			// next request
+		} while (active && prefetchTarget.get() >= 0 && prefetching.compareAndSet(false, true));
+	}
+
+	/**
+	 * Builds the state of the given round from the closest keyframe or
+	 * prefetched state before it. If another round is asked for meanwhile,
+	 * the state is kept at the round it got to, since the next seek may
+	 * still start from it.
+	 */
+	private void buildPrefetched(int round) {
+		if (round > roundsProcessed || prefetched.containsKey(round)) {
+			return;
+		}
+		int baseRound = getKeyFrameRound(round);
+		Map.Entry<Integer, E> entry = prefetched.floorEntry(round);
+		E gs;
+		if (entry != null && entry.getKey() >= baseRound) {
+			baseRound = entry.getKey();
+			gs = cloneState(entry.getValue());
+		}
+		else {
+			KeyFrameCache.MatchKeyFrames cached = cachedKeyFrames;
+			try {
+				gs = (cached != null ? decodeKeyFrame(cached, baseRound) : keyFrames.get(baseRound));
+			}
+			catch (IOException e) {
+				// seeking reports the cache and drops it
+				return;
+			}
+			if (gs == null) {
+				return;
+			}
+			if (cached == null) {
+				gs = cloneState(gs);
+			}
+		}
+		int reached = baseRound;
+		while (reached < round && active && prefetchTarget.get() < 0) {
+			applyDelta(gs, match.getRound(reached), match.getRoundStats(reached));
+			reached++;
+		}
+		if (reached == baseRound || !active) {
+			return;
+		}
+		prefetched.put(reached, gs);
+		// keep the states closest to where the timeline is
+		while (prefetched.size() > PREFETCH_STATES) {
+			int from = currentRound;
+			Integer farthest = null;
+			for (Integer key: prefetched.keySet()) {
+				if (farthest == null || Math.abs(key - from) > Math.abs(farthest - from)) {
+					farthest = key;
+				}
+			}
+			prefetched.remove(farthest);
+		}
+	}
+
+	private static synchronized ExecutorService getPrefetchPool() {
+		if (prefetchPool == null) {
+			// leave a core for painting
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			prefetchPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Timeline prefetch");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			});
+		}
+		return prefetchPool;
+	}
+
+	/**
+	 * @return the fraction of the seeks made while scrubbing that needed a
+	 * copied state and found it prefetched, or 0 if there were none
+	 */
+	public double getPrefetchHitRate() {
+		long hits = prefetchHits;
+		long seeks = hits + prefetchMisses;
+		return (seeks > 0 ? (double) hits / seeks : 0);
+	}
+
+	public long getPrefetchHits() {
+		return prefetchHits;
+	}
+
+	public long getPrefetchMisses() {
+		return prefetchMisses;
+	}
+
 	public void refreshRound() {
 		if (roundsProcessed > 0) {
 			syncToDebugSignals();
@@ -202,13 +913,21 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 	public void setTargetState(E state) {
 		currentRound = -1;
 		currentState = state;
+		state.setUndoDepth(ConfigOptions.getInt("bc.client.undo-rounds", DEFAULT_UNDO_ROUNDS));
+	}
+
+	/**
+	 * @return the state the timeline moves, or null if none has been set
+	 */
+	public E getTargetState() {
+		return currentState;
 	}
 
 	public void setMasterTimeline(final GameStateTimeline gst) {
 		gst.addObserver(new Observer() {
 			public void update(Observable o, Object arg) {
 				if (gst.isActive()) {
-					setRound(gst.getRound());
+					follow(gst.getRound());
 				}
 				else {
 					terminate();
@@ -217,8 +936,124 @@ public class GameStateTimeline<E extends GameState> extends Observable {
 		});
 	}
 
-	protected void finalize() throws Throwable {
-		//System.out.println("Clone time (ns): " + (cloneTime/numClones));
-		//System.out.println("Apply time (ns): " + (applyTime/numApplies));
+	/**
+	 * Tells the observers of a follower, which moves on a worker, on the
+	 * event dispatch thread instead, since they draw or play sounds. Changes
+	 * made while a notification is pending are told with it.
+	 */
+	public void notifyObservers(final Object arg) {
+		if (master == null || SwingUtilities.isEventDispatchThread()) {
+			super.notifyObservers(arg);
+			return;
+		}
+		if (notifyPosted.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					notifyPosted.set(false);
+					GameStateTimeline.super.notifyObservers(arg);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Moves to the master's round on a worker, skipping rounds the master
+	 * passed while the worker was still catching up.
+	 */
+	private void follow(int round) {
+		masterRound.set(round);
+		if (following.compareAndSet(false, true)) {
+			getFollowerPool().execute(new Runnable() {
+				public void run() { runFollow(); }
+			});
+		}
+	}
+
+	private void runFollow() {
+		do {
+			try {
+				int round;
+				while (!terminated && (round = masterRound.getAndSet(NO_ROUND)) != NO_ROUND) {
+					setRound(round);
+				}
+			}
+			finally {
+				following.set(false);
+			}
+			// a round set as the loop ended would otherwise wait for the next
+		} while (!terminated && masterRound.get() != NO_ROUND && following.compareAndSet(false, true));
+	}
+
+	private static synchronized ExecutorService getFollowerPool() {
+		if (followerPool == null) {
+			followerPool = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Timeline follower");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return followerPool;
+	}
+
+	private void recordSeek(long nanos) {
+		synchronized (seekTimes) {
+			seekTimes[(int) (numSeeks++ % SEEK_SAMPLES)] = nanos;
+		}
+	}
+
+	/**
+	 * @param fraction the fraction of seeks that took at most the returned
+	 * time, e.g. 0.9 for the 90th percentile
+	 * @return the percentile of the durations of the last seeks that moved
+	 * the timeline, in milliseconds, or 0 if there were none
+	 */
+	public double getSeekLatency(double fraction) {
+		long[] sorted;
+		synchronized (seekTimes) {
+			sorted = Arrays.copyOf(seekTimes, (int) Math.min(numSeeks, SEEK_SAMPLES));
+		}
+		if (sorted.length == 0) {
+			return 0;
+		}
+		Arrays.sort(sorted);
+		int i = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e6;
+	}
+
+	public long getNumSeeks() {
+		synchronized (seekTimes) {
+			return numSeeks;
+		}
+	}
+
+	/**
+	 * @return the mean time to copy a state, in milliseconds
+	 */
+	public double getMeanCloneTime() {
+		long clones = numClones.get();
+		return (clones > 0 ? cloneTime.get() / 1e6 / clones : 0);
+	}
+
+	public long getNumClones() {
+		return numClones.get();
+	}
+
+	/**
+	 * @return the mean time to apply a round, in milliseconds
+	 */
+	public double getMeanApplyTime() {
+		long applies = numApplies.get();
+		return (applies > 0 ? applyTime.get() / 1e6 / applies : 0);
+	}
+
+	public long getNumApplies() {
+		return numApplies.get();
+	}
+
+	public int getKeyFrameCount() {
+		KeyFrameCache.MatchKeyFrames cached = cachedKeyFrames;
+		return (cached != null ? cached.getRounds().size() : keyFrames.size());
 	}
 }
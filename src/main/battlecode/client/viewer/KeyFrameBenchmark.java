@@ -0,0 +1,87 @@
+package battlecode.client.viewer;
+
+import java.io.EOFException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import battlecode.client.ClientProxy;
+import battlecode.client.IndexedClientProxy;
+import battlecode.client.StreamClientProxy;
+import battlecode.client.replay.IndexedReplayFile;
+import battlecode.client.viewer.render.DrawState;
+import battlecode.serial.MatchFooter;
+import battlecode.serial.MatchHeader;
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundStats;
+
+/**
+ * Measures the time and heap it takes to keep keyframes of the first match
+ * of a replay, the way a timeline with fixed spacing does.
+ *
+ * Run it once as is and once with bc.client.deep-copy-states set to compare
+ * copy-on-write states with full copies.
+ *
+ * Usage: KeyFrameBenchmark replay [rounds per keyframe]
+ */
+public class KeyFrameBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: KeyFrameBenchmark replay [rounds per keyframe]");
+			System.exit(1);
+		}
+		int spacing = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+		ClientProxy proxy = (IndexedReplayFile.isIndexedReplay(args[0])
+		                     ? new IndexedClientProxy(args[0])
+		                     : new StreamClientProxy(args[0]));
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		memory.gc();
+		long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+		List<DrawState> keyFrames = new ArrayList<DrawState>();
+		DrawState state = null;
+		int rounds = 0;
+		long applyTime = 0, cloneTime = 0;
+		try {
+			while (true) {
+				Object obj = proxy.readObject();
+				if (obj instanceof MatchHeader && state == null) {
+					state = DrawState.FACTORY.createState(
+						(battlecode.world.GameMap) ((MatchHeader) obj).getMap());
+					keyFrames.add(DrawState.FACTORY.cloneState(state));
+				}
+				else if (obj instanceof RoundDelta && state != null) {
+					long start = System.nanoTime();
+					state.apply((RoundDelta) obj);
+					applyTime += System.nanoTime() - start;
+					if (++rounds % spacing == 0) {
+						start = System.nanoTime();
+						keyFrames.add(DrawState.FACTORY.cloneState(state));
+						cloneTime += System.nanoTime() - start;
+					}
+				}
+				else if (obj instanceof RoundStats && state != null) {
+					state.apply((RoundStats) obj);
+				}
+				else if (obj instanceof MatchFooter && state != null) {
+					break;
+				}
+			}
+		}
+		catch (EOFException e) {
+		}
+
+		memory.gc();
+		long heap = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+		System.out.println(String.format(
+			"%s: %d rounds, %d keyframes, apply %.0f us/round, clone %.0f us/keyframe, %.0f KB/keyframe",
+			(AbstractDrawState.COPY_ON_WRITE ? "copy-on-write" : "deep copy"),
+			rounds, keyFrames.size(), applyTime / 1e3 / Math.max(rounds, 1),
+			cloneTime / 1e3 / Math.max(keyFrames.size() - 1, 1),
+			heap / 1024.0 / keyFrames.size()));
+		// keep the keyframes reachable until they have been measured
+		keyFrames.clear();
+	}
+}
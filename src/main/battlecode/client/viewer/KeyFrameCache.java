@@ -0,0 +1,314 @@
+package battlecode.client.viewer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps the keyframes of every match of a replay in a file next to it, so
+ * that a replay opened again can be seeked at once instead of after all its
+ * keyframes have been rebuilt.
+ *
+ * The cache is keyed by an MD5 hash of the replay, by the kind of state it
+ * holds, and by the snapshot format and client version that wrote it, so a
+ * cache left by an older copy of the replay, by the other renderer or by
+ * another build of the client is ignored, and replaced once the keyframes
+ * have been rebuilt. The file is mapped into memory and a keyframe is only
+ * decoded when a seek starts from it.
+ *
+ * Layout: magic, version, key, kind, snapshot version, client version, the
+ * number of matches, then for each
+ * match the number of keyframes and their rounds, offsets and lengths,
+ * followed by the keyframes written by {@link GameState#writeSnapshot}.
+ */
+final class KeyFrameCache {
+
+	static final String SUFFIX = ".keyframes";
+
+	private static final int MAGIC = 0x42434b46; // "BCKF"
+	private static final int VERSION = 2;
+
+	private static final String CLIENT_VERSION =
+		String.valueOf(battlecode.server.Config.VERSION);
+
+	/**
+	 * The keyframes of one match in the cache.
+	 */
+	final class MatchKeyFrames {
+		private final int[] rounds;
+		private final long[] offsets;
+		private final int[] lengths;
+
+		private MatchKeyFrames(int[] rounds, long[] offsets, int[] lengths) {
+			this.rounds = rounds;
+			this.offsets = offsets;
+			this.lengths = lengths;
+		}
+
+		/**
+		 * @return the round of the last keyframe at or before the given
+		 * round, or -1 if there is none
+		 */
+		int floorRound(int round) {
+			int i = Arrays.binarySearch(rounds, round);
+			if (i < 0) i = -i - 2;
+			return (i < 0 ? -1 : rounds[i]);
+		}
+
+		Set<Integer> getRounds() {
+			Set<Integer> set = new TreeSet<Integer>();
+			for (int round: rounds) set.add(round);
+			return Collections.unmodifiableSet(set);
+		}
+
+		/**
+		 * Reads the keyframe for the given round into a state newly created
+		 * for the match's map.
+		 */
+		void read(int round, GameState state) throws IOException {
+			int i = Arrays.binarySearch(rounds, round);
+			if (i < 0) {
+				throw new IOException("No keyframe for round " + round + " in " + file);
+			}
+			ByteBuffer slice = buffer.duplicate();
+			slice.position((int) offsets[i]);
+			slice.limit((int) (offsets[i] + lengths[i]));
+			state.readSnapshot(new DataInputStream(new ByteBufferInputStream(slice)));
+		}
+	}
+
+	private final File file;
+	private final String kind;
+	private final byte[] key;
+	private MappedByteBuffer buffer = null;
+	private final List<MatchKeyFrames> matches = new ArrayList<MatchKeyFrames>();
+
+	private KeyFrameCache(File file, String kind, byte[] key) {
+		this.file = file;
+		this.kind = kind;
+		this.key = key;
+	}
+
+	/**
+	 * Hashes the replay and maps its cache if the cache matches it.
+	 *
+	 * @param kind names the kind of state the keyframes are for
+	 * @return the cache, which is empty if it was missing or stale, or null
+	 * if the replay can't be read
+	 */
+	static KeyFrameCache open(File replay, String kind) {
+		byte[] key;
+		try {
+			key = hash(replay);
+		}
+		catch (IOException e) {
+			System.err.println("Can't hash " + replay + ", not caching its keyframes: " + e);
+			return null;
+		}
+		KeyFrameCache cache = new KeyFrameCache(
+			new File(replay.getPath() + SUFFIX), kind, key);
+		if (cache.file.exists()) {
+			try {
+				cache.map();
+			}
+			catch (IOException e) {
+				System.err.println("Ignoring keyframe cache " + cache.file + ": " + e.getMessage());
+				cache.matches.clear();
+				cache.buffer = null;
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * @return true if the cache holds keyframes for the replay
+	 */
+	boolean isValid() {
+		return buffer != null;
+	}
+
+	/**
+	 * @return the keyframes of the given match, or null if the cache has none
+	 */
+	MatchKeyFrames getMatch(int index) {
+		return (index < matches.size() ? matches.get(index) : null);
+	}
+
+	private void map() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			DataInputStream in = new DataInputStream(new ByteBufferInputStream(map.duplicate()));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("unknown format");
+			}
+			byte[] cachedKey = new byte[key.length];
+			in.readFully(cachedKey);
+			if (!Arrays.equals(cachedKey, key) || !kind.equals(in.readUTF())) {
+				throw new IOException("made for another replay");
+			}
+			if (in.readInt() != GameState.SNAPSHOT_VERSION
+			    || !CLIENT_VERSION.equals(in.readUTF())) {
+				throw new IOException("made by another version of the client");
+			}
+			for (int n = in.readInt(); n > 0; n--) {
+				int count = in.readInt();
+				int[] rounds = new int[count];
+				long[] offsets = new long[count];
+				int[] lengths = new int[count];
+				for (int i = 0; i < count; i++) {
+					rounds[i] = in.readInt();
+					offsets[i] = in.readLong();
+					lengths[i] = in.readInt();
+					if (offsets[i] < 0 || offsets[i] + lengths[i] > channel.size()) {
+						throw new IOException("truncated");
+					}
+				}
+				matches.add(new MatchKeyFrames(rounds, offsets, lengths));
+			}
+			buffer = map;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * The keyframes of one match written out by
+	 * {@link GameState#writeSnapshot}, ready to be saved.
+	 */
+	static final class EncodedMatch {
+		private final int[] rounds;
+		private final byte[][] data;
+
+		private EncodedMatch(int[] rounds, byte[][] data) {
+			this.rounds = rounds;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Writes out the keyframes of a match, so the match itself can be
+	 * dropped before the cache is saved.
+	 */
+	static EncodedMatch encode(SortedMap<Integer, ? extends GameState> keyFrames)
+		throws IOException {
+		// the map may still be thinned while it's written
+		SortedMap<Integer, GameState> frames = new TreeMap<Integer, GameState>(keyFrames);
+		int[] rounds = new int[frames.size()];
+		byte[][] data = new byte[frames.size()][];
+		int i = 0;
+		for (Map.Entry<Integer, GameState> entry: frames.entrySet()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			entry.getValue().writeSnapshot(out);
+			out.close();
+			rounds[i] = entry.getKey();
+			data[i++] = bytes.toByteArray();
+		}
+		return new EncodedMatch(rounds, data);
+	}
+
+	/**
+	 * Replaces the cache with the given keyframes, one entry per match. The
+	 * file is written next to the cache and renamed over it, so a reader
+	 * never sees it half written.
+	 */
+	void write(List<EncodedMatch> keyFrames) throws IOException {
+		int indexSize = 0;
+		for (EncodedMatch match: keyFrames) {
+			indexSize += 4 + 16 * match.data.length;
+		}
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.write(key);
+		out.writeUTF(kind);
+		out.writeInt(GameState.SNAPSHOT_VERSION);
+		out.writeUTF(CLIENT_VERSION);
+		out.writeInt(keyFrames.size());
+		long offset = header.size() + indexSize;
+		for (EncodedMatch match: keyFrames) {
+			out.writeInt(match.data.length);
+			for (int i = 0; i < match.data.length; i++) {
+				out.writeInt(match.rounds[i]);
+				out.writeLong(offset);
+				out.writeInt(match.data[i].length);
+				offset += match.data[i].length;
+			}
+		}
+		out.close();
+
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+		try {
+			header.writeTo(os);
+			for (EncodedMatch match: keyFrames) {
+				for (byte[] b: match.data) os.write(b);
+			}
+		}
+		finally {
+			os.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// renaming over an existing file fails on some platforms
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException("Can't replace " + file);
+			}
+		}
+	}
+
+	private static byte[] hash(File replay) throws IOException {
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		InputStream in = new FileInputStream(replay);
+		try {
+			byte[] buf = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				md5.update(buf, 0, n);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return md5.digest();
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buf;
+
+		ByteBufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		public int read() {
+			return (buf.hasRemaining() ? buf.get() & 0xFF : -1);
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buf.hasRemaining()) return -1;
+			len = Math.min(len, buf.remaining());
+			buf.get(b, off, len);
+			return len;
+		}
+
+		public int available() {
+			return buf.remaining();
+		}
+	}
+}
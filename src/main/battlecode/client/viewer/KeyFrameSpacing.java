@@ -0,0 +1,117 @@
+package battlecode.client.viewer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import battlecode.client.util.ConfigOptions;
+
+/**
+ * Decides where a timeline places its keyframes.
+ *
+ * Fixed spacing puts a keyframe every n rounds. Adaptive spacing puts one
+ * whenever the rounds since the last keyframe would take about a target time
+ * to apply, estimated from their signal counts and the measured cost of a
+ * signal, so keyframes are dense through fights and sparse through quiet
+ * stretches. A keyframe is never placed before the rounds since the last one
+ * cost as much to apply as copying a keyframe does, since seeking from it
+ * wouldn't be any faster.
+ *
+ * The estimated size of the keyframes is kept under a heap budget: once it is
+ * exceeded the timeline drops every other keyframe and the target time is
+ * doubled.
+ */
+final class KeyFrameSpacing {
+
+	static final int MIN_SPACING = 2;
+	static final int MAX_SPACING = 500;
+
+	// seek time to aim for, in ms, and heap budget per timeline, in MB
+	private static final long DEFAULT_SEEK_TARGET = 20;
+	private static final long DEFAULT_HEAP_BUDGET = 64;
+
+	// the spacing assumed before any costs have been measured
+	private static final int INITIAL_SPACING = 10;
+
+	private final int fixedSpacing;
+	private final long budgetBytes;
+	private volatile long targetNanos;
+	private final AtomicLong bytes = new AtomicLong(0);
+
+	private KeyFrameSpacing(int fixedSpacing, long targetNanos, long budgetBytes) {
+		this.fixedSpacing = fixedSpacing;
+		this.targetNanos = targetNanos;
+		this.budgetBytes = budgetBytes;
+	}
+
+	static KeyFrameSpacing fixed(int rounds) {
+		return new KeyFrameSpacing(rounds, 0, Long.MAX_VALUE);
+	}
+
+	static KeyFrameSpacing adaptive() {
+		return new KeyFrameSpacing(
+			0,
+			ConfigOptions.getLong("bc.client.keyframe-seek-ms", DEFAULT_SEEK_TARGET) * 1000000,
+			ConfigOptions.getLong("bc.client.keyframe-budget", DEFAULT_HEAP_BUDGET) << 20);
+	}
+
+	boolean isFixed() {
+		return fixedSpacing > 0;
+	}
+
+	/**
+	 * @return the spacing used to lay out checkpoints and snap seeks, which
+	 * for adaptive spacing is only a rough guess
+	 */
+	int getNominalSpacing() {
+		return (isFixed() ? fixedSpacing : INITIAL_SPACING);
+	}
+
+	/**
+	 * @param round the round the state has reached
+	 * @param roundsSinceKey the rounds applied since the last keyframe
+	 * @param signalsSinceKey the signals in those rounds
+	 * @param nanosPerSignal the measured cost of applying a signal, or 0 if
+	 * it isn't known yet
+	 * @param nanosPerCopy the measured cost of copying a keyframe
+	 * @return whether a keyframe should be made of the state
+	 */
+	boolean isDue(int round, int roundsSinceKey, long signalsSinceKey,
+	              double nanosPerSignal, double nanosPerCopy) {
+		if (isFixed()) {
+			return round % fixedSpacing == 0;
+		}
+		if (roundsSinceKey < MIN_SPACING) {
+			return false;
+		}
+		if (roundsSinceKey >= MAX_SPACING) {
+			return true;
+		}
+		if (nanosPerSignal <= 0) {
+			return roundsSinceKey >= INITIAL_SPACING;
+		}
+		double cost = signalsSinceKey * nanosPerSignal;
+		return cost >= targetNanos && cost >= nanosPerCopy;
+	}
+
+	void added(long size) {
+		bytes.addAndGet(size);
+	}
+
+	void removed(long size) {
+		bytes.addAndGet(-size);
+	}
+
+	long getBytes() {
+		return bytes.get();
+	}
+
+	boolean isOverBudget() {
+		return bytes.get() > budgetBytes;
+	}
+
+	/**
+	 * Makes keyframes sparser after the budget was exceeded.
+	 */
+	void relax() {
+		targetNanos *= 2;
+	}
+}
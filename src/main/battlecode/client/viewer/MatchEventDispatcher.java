@@ -0,0 +1,186 @@
+package battlecode.client.viewer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers the lifecycle events of a BufferedMatch to its listeners on a
+ * thread of its own, so that slow listeners don't hold up reading the match.
+ *
+ * Events and listener registrations are handled in the order they were
+ * posted by a single worker, so every listener sees the header before any
+ * break and the footer last, and a listener added late is first told about
+ * the events it missed. Breaks that arrive while an earlier break is still
+ * waiting to be delivered are merged into it. The worker exits when idle and
+ * is restarted by the next event.
+ *
+ * The time spent in each listener class is recorded, and listeners that take
+ * longer than {@link #SLOW_LISTENER_MILLIS} are reported.
+ */
+final class MatchEventDispatcher {
+
+	static final long SLOW_LISTENER_MILLIS = 50;
+
+	private static enum Event { HEADER, BREAK, FOOTER }
+
+	private static final ThreadFactory threadFactory = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "MatchEventDispatcher");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final BufferedMatch match;
+	private final ExecutorService executor = new ThreadPoolExecutor(
+		0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+		threadFactory);
+
+	private final List<MatchListener> listeners =
+		new CopyOnWriteArrayList<MatchListener>();
+	private final List<MatchListener> pausedListeners =
+		new CopyOnWriteArrayList<MatchListener>();
+	private final AtomicBoolean breakPending = new AtomicBoolean(false);
+
+	// only touched by the worker
+	private boolean headerDelivered = false;
+	private boolean footerDelivered = false;
+
+	// count, total nanos and max nanos per listener class
+	private final Map<Class<?>, long[]> timings =
+		new ConcurrentHashMap<Class<?>, long[]>();
+	private volatile long eventsPosted = 0;
+	private volatile long breaksCoalesced = 0;
+
+	MatchEventDispatcher(BufferedMatch match) {
+		this.match = match;
+	}
+
+	public void addMatchListener(final MatchListener listener) {
+		executor.execute(new Runnable() {
+			public void run() {
+				if (headerDelivered) {
+					deliver(listener, Event.HEADER);
+				}
+				if (footerDelivered) {
+					deliver(listener, Event.FOOTER);
+				}
+				else {
+					listeners.add(listener);
+				}
+			}
+		});
+	}
+
+	public void addMatchPausedListener(final MatchListener listener) {
+		executor.execute(new Runnable() {
+			public void run() {
+				if (!footerDelivered) {
+					pausedListeners.add(listener);
+				}
+			}
+		});
+	}
+
+	public void postHeader() {
+		post(Event.HEADER);
+	}
+
+	public void postBreak() {
+		if (!breakPending.compareAndSet(false, true)) {
+			breaksCoalesced++;
+			return;
+		}
+		post(Event.BREAK);
+	}
+
+	public void postFooter() {
+		post(Event.FOOTER);
+	}
+
+	/**
+	 * @return the number of events posted, not counting merged breaks
+	 */
+	public long getEventsPosted() {
+		return eventsPosted;
+	}
+
+	public long getBreaksCoalesced() {
+		return breaksCoalesced;
+	}
+
+	/**
+	 * @return one line per listener class with its call count, mean and
+	 * maximum time
+	 */
+	public String getListenerReport() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<Class<?>, long[]> entry: timings.entrySet()) {
+			long[] t = entry.getValue();
+			report.append(String.format("%s: %d calls, %.2f ms mean, %.2f ms max%n",
+			                            entry.getKey().getName(), t[0],
+			                            t[1] / 1e6 / Math.max(t[0], 1), t[2] / 1e6));
+		}
+		return report.toString();
+	}
+
+	private void post(final Event event) {
+		eventsPosted++;
+		executor.execute(new Runnable() {
+			public void run() {
+				switch (event) {
+				case HEADER:
+					headerDelivered = true;
+					for (MatchListener listener: listeners) {
+						deliver(listener, event);
+					}
+					break;
+				case BREAK:
+					breakPending.set(false);
+					for (MatchListener listener: pausedListeners) {
+						deliver(listener, event);
+					}
+					break;
+				case FOOTER:
+					footerDelivered = true;
+					for (MatchListener listener: listeners) {
+						deliver(listener, event);
+					}
+					listeners.clear();
+					pausedListeners.clear();
+					break;
+				}
+			}
+		});
+	}
+
+	private void deliver(MatchListener listener, Event event) {
+		long start = System.nanoTime();
+		try {
+			switch (event) {
+			case HEADER: listener.headerReceived(match); break;
+			case BREAK: listener.breakReceived(match); break;
+			case FOOTER: listener.footerReceived(match); break;
+			}
+		}
+		catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		long elapsed = System.nanoTime() - start;
+		long[] t = timings.get(listener.getClass());
+		if (t == null) {
+			t = new long[3];
+			timings.put(listener.getClass(), t);
+		}
+		t[0]++;
+		t[1] += elapsed;
+		t[2] = Math.max(t[2], elapsed);
+		if (elapsed > SLOW_LISTENER_MILLIS * 1000000) {
+			System.err.println(String.format("Slow match listener %s took %.0f ms for %s",
+			                                 listener.getClass().getName(),
+			                                 elapsed / 1e6, event));
+		}
+	}
+}
@@ -3,6 +3,7 @@ package battlecode.client.viewer;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.GraphicsEnvironment;
+import java.io.File;
 
 import java.util.Observable;
 import java.util.Observer;
@@ -14,8 +15,10 @@ import javax.swing.JPanel;
 import battlecode.client.ClientProxy;
 import battlecode.client.viewer.render.BaseCanvas;
 import battlecode.client.viewer.render.BaseRenderer;
+import battlecode.client.viewer.render.DrawState;
 import battlecode.client.viewer.render.GameCanvas;
 import battlecode.client.viewer.render.GameRenderer;
+import battlecode.client.viewer.renderer3d.GLDrawState;
 import battlecode.client.viewer.renderer3d.GLGameCanvas;
 import battlecode.client.viewer.renderer3d.GLGameRenderer;
 import battlecode.client.viewer.sound.AudioPlayer;
@@ -25,6 +28,8 @@ import battlecode.server.Config;
 public class MatchViewer {
 
     private final ClientProxy proxy;
+    // splits replays so later matches are buffered ahead of time
+    private final ReplayLibrary library;
     private final JPanel panel = new JPanel();
     private final Controller controller;
     private boolean lockstepChoice = false;
@@ -45,17 +50,27 @@ public class MatchViewer {
     public MatchViewer() {
     	
         proxy = null;
+        library = null;
         controller = null;
         bc = null;
     }
 
     public MatchViewer(ClientProxy proxy, boolean lockstepChoice) {
+        this(proxy, lockstepChoice, null);
+    }
+
+    /**
+     * @param replayFile the file the proxy reads, whose keyframes are cached
+     * next to it, or null
+     */
+    public MatchViewer(ClientProxy proxy, boolean lockstepChoice, File replayFile) {
         if (cfg.getBoolean("bc.client.opengl"))
             bc = new GLGameCanvas();
         else
             bc = new GameCanvas();
         System.out.println("Matchviewer 2");
         this.proxy = proxy;
+        library = createLibrary(proxy, replayFile);
         this.lockstepChoice = lockstepChoice;
         ControlPanel cpanel = new ControlPanel();
         info = cpanel.getInfoPanel();
@@ -81,6 +96,7 @@ public class MatchViewer {
             bc = new GameCanvas();
 
         this.proxy = proxy;
+        library = createLibrary(proxy, null);
         tournamentMode = true;
         controller = new Controller.ControlAdapter();
         panel.setLayout(new BorderLayout());
@@ -97,20 +113,48 @@ public class MatchViewer {
         bc.setSpaceBarListener(timer.getSpaceBarListener());
     }
 
+    private ReplayLibrary createLibrary(ClientProxy proxy, File replayFile) {
+        if (proxy.isDebuggingAvailable()) {
+            return null;
+        }
+        if (cfg.getBoolean("bc.client.opengl")) {
+            return new ReplayLibrary<GLDrawState>(proxy, GLDrawState.FACTORY,
+                                                GameStateTimeline.ADAPTIVE_SPACING,
+                                                replayFile);
+        } else {
+            return new ReplayLibrary<DrawState>(proxy, DrawState.FACTORY,
+                                              GameStateTimeline.ADAPTIVE_SPACING,
+                                              replayFile);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     public BaseRenderer setupViewer() {
         if (proxy.isDebuggingAvailable()) {
             proxy.writeNotification(StartNotification.INSTANCE);
         }
-        final BufferedMatch bufferedMatch = new BufferedMatch(proxy);
-        if (cfg.getBoolean("bc.client.opengl")) {
-            br = new GLGameRenderer(bufferedMatch, bc.getGraphics());
+        final BufferedMatch bufferedMatch;
+        if (library != null) {
+            ReplayLibrary.PreparedMatch prepared = library.next();
+            bufferedMatch = prepared.getMatch();
+            if (cfg.getBoolean("bc.client.opengl")) {
+                br = new GLGameRenderer(bufferedMatch, bc.getGraphics(), prepared.getTimeline());
+            } else {
+                br = new GameRenderer(bufferedMatch, prepared.getTimeline());
+            }
         } else {
-            br = new GameRenderer(bufferedMatch);
+            bufferedMatch = new BufferedMatch(proxy);
+            if (cfg.getBoolean("bc.client.opengl")) {
+                br = new GLGameRenderer(bufferedMatch, bc.getGraphics());
+            } else {
+                br = new GameRenderer(bufferedMatch);
+            }
         }
 
 		dbg = new DebugState(bufferedMatch.getDebugProxy(), bc.getParent());
 		br.setDebugState(dbg);
         bc.setRenderer(br);
+        ViewerMetrics.getInstance().track(br.getTimeline(), bufferedMatch, br.getFramerateTracker());
 	
 		if(info!=null) {
 			Observer paintObserver = new Observer() {
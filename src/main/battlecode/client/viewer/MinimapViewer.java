@@ -12,6 +12,7 @@ import javax.swing.JFrame;
 
 import battlecode.client.viewer.render.BaseCanvas;
 import battlecode.client.viewer.render.BaseRenderer;
+import battlecode.client.viewer.render.DrawState;
 import battlecode.client.viewer.render.GameCanvas;
 import battlecode.client.viewer.render.GameRenderer;
 import battlecode.common.Team;
@@ -62,9 +63,18 @@ public class MinimapViewer {
 			renderer.addWin(t);
 	}
 	
+	@SuppressWarnings("unchecked")
 	public void setTimeline(GameStateTimeline master) {
-		renderer = new GameRenderer(master.getMatch());
-		renderer.getTimeline().setMasterTimeline(master);
+		GameStateTimeline<DrawState> timeline;
+		if (master.getTargetState() instanceof DrawState) {
+			// draws the state the master moves anyway
+			timeline = master;
+		}
+		else {
+			// follows the master instead of building keyframes of its own
+			timeline = new GameStateTimeline<DrawState>(master, DrawState.FACTORY);
+		}
+		renderer = new GameRenderer(master.getMatch(), timeline);
 		renderer.setDebugState(new DebugState(master.getMatch().getDebugProxy(),canvas));
 		canvas.setRenderer(renderer);
 	}
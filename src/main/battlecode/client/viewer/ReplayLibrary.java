@@ -0,0 +1,437 @@
+package battlecode.client.viewer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import battlecode.client.ClientProxy;
+import battlecode.client.IndexedClientProxy;
+import battlecode.client.util.ConfigOptions;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.MatchFooter;
+import battlecode.serial.MatchHeader;
+import battlecode.serial.notification.Notification;
+
+/**
+ * Splits a replay holding several matches into one stream per match and
+ * prepares the next few of them while one is played.
+ *
+ * A single thread reads the replay and hands each match's objects to its own
+ * proxy. Every match gets a BufferedMatch and a timeline as soon as its header
+ * is seen, and the timelines build their keyframes on a shared pool of
+ * workers, so by the time a match is played it is usually fully buffered.
+ * Reading pauses once bc.client.prepare-ahead matches (2 by default) are
+ * prepared beyond the one being played, and a match is dropped once a later
+ * one is played and its keyframes have been written out for the cache.
+ *
+ * When the replay is a file, the keyframes of its matches are saved in a
+ * {@link KeyFrameCache} next to it once they have all been built, and the
+ * next time the replay is opened its timelines seek from the cache instead
+ * of building them again. The cache is checked on a thread of its own while
+ * the replay is read, and timelines that start before it is ready build
+ * their own keyframes.
+ *
+ * An indexed replay needs no scan: each match gets its own proxy on the same
+ * file, and its rounds are read from the file when they are needed.
+ *
+ * Only replays can be split this way; a proxy that accepts notifications must
+ * be read one match at a time.
+ */
+public final class ReplayLibrary<E extends GameState> {
+
+	/**
+	 * A match together with the timeline that follows it.
+	 */
+	public static final class PreparedMatch<E extends GameState> {
+		private final BufferedMatch match;
+		private final GameStateTimeline<E> timeline;
+
+		PreparedMatch(BufferedMatch match, GameStateTimeline<E> timeline) {
+			this.match = match;
+			this.timeline = timeline;
+		}
+
+		public BufferedMatch getMatch() { return match; }
+		public GameStateTimeline<E> getTimeline() { return timeline; }
+	}
+
+	private static final int DEFAULT_PREPARE_AHEAD = 2;
+	// objects waiting in a match's stream before reading the replay pauses
+	private static final int SEGMENT_CAPACITY = 4096;
+
+	private final ClientProxy source;
+	private final GameStateFactory<E> factory;
+	private final int roundsPerKey;
+	private final ExecutorService keyFrameWorkers;
+	private final File replayFile;
+	private final int prepareAhead;
+
+	// guarded by this; dropped matches are null, and their segments discard
+	// what they are given
+	private final List<PreparedMatch<E>> matches = new ArrayList<PreparedMatch<E>>();
+	private final List<SegmentProxy> segments = new ArrayList<SegmentProxy>();
+	private int matchesFound = 0;
+	private boolean scanned = false;
+	private KeyFrameCache cache = null;
+	// while true, matches are kept until their keyframes are encoded, which
+	// the first encodedMatches of them are
+	private boolean saving;
+	private int encodedMatches = 0;
+	private int firstKept = 0;
+
+	private int nextMatch = 0;
+
+	/**
+	 * Starts reading the replay.
+	 *
+	 * @param source the replay to split
+	 * @param factory creates the states of the timelines
+	 * @param roundsPerKey the keyframe spacing of the timelines, or
+	 * {@link GameStateTimeline#ADAPTIVE_SPACING}
+	 */
+	public ReplayLibrary(ClientProxy source, GameStateFactory<E> factory,
+	                     int roundsPerKey) {
+		this(source, factory, roundsPerKey, null);
+	}
+
+	/**
+	 * Starts reading the replay, using and keeping a cache of its keyframes.
+	 *
+	 * @param replayFile the file the replay is read from, or null not to
+	 * cache keyframes
+	 */
+	public ReplayLibrary(ClientProxy source, GameStateFactory<E> factory,
+	                     int roundsPerKey, File replayFile) {
+		assert !source.isDebuggingAvailable();
+		this.source = source;
+		this.factory = factory;
+		this.roundsPerKey = roundsPerKey;
+		this.replayFile = (battlecode.server.Config.getGlobalConfig()
+		                   .getBoolean("bc.client.no-keyframe-cache") ? null : replayFile);
+		this.prepareAhead = Math.max(1, ConfigOptions.getInt("bc.client.prepare-ahead",
+		                                                     DEFAULT_PREPARE_AHEAD));
+		// until the cache is checked, it may need saving
+		saving = (this.replayFile != null);
+		keyFrameWorkers = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ReplayLibrary keyframes");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		(new Thread() { public void run() { scan(); } }).start();
+		if (this.replayFile != null) {
+			Thread saver = new Thread("ReplayLibrary cache") {
+				public void run() { openCache(); }
+			};
+			saver.setDaemon(true);
+			saver.start();
+		}
+	}
+
+	/**
+	 * @return the match after the one last returned; if the replay has no
+	 * more matches, its BufferedMatch never receives a header
+	 */
+	public PreparedMatch<E> next() {
+		PreparedMatch<E> prepared;
+		synchronized (this) {
+			prepared = getMatch(nextMatch++);
+			// lets the replay be read further
+			notifyAll();
+		}
+		dropPlayed();
+		return prepared;
+	}
+
+	/**
+	 * @return the number of matches seen in the replay so far
+	 */
+	public synchronized int getMatchesFound() {
+		return matchesFound;
+	}
+
+	/**
+	 * @return the given match, preparing it if the replay hasn't reached it,
+	 * or null if it has been dropped
+	 */
+	public synchronized PreparedMatch<E> getMatch(int index) {
+		while (matches.size() <= index) {
+			SegmentProxy segment = new SegmentProxy();
+			ClientProxy proxy = segment;
+			if (source instanceof IndexedClientProxy) {
+				proxy = new IndexedClientProxy(
+					((IndexedClientProxy) source).getReplayFile(), matches.size());
+			}
+			BufferedMatch match = new BufferedMatch(proxy);
+			GameStateTimeline<E> timeline = new GameStateTimeline<E>(
+				match, factory, roundsPerKey, keyFrameWorkers);
+			useCache(matches.size(), timeline);
+			segments.add(segment);
+			matches.add(new PreparedMatch<E>(match, timeline));
+			if (scanned) {
+				segment.close();
+			}
+		}
+		return matches.get(index);
+	}
+
+	private void useCache(int index, GameStateTimeline<E> timeline) {
+		if (cache != null && cache.isValid() && cache.getMatch(index) != null) {
+			timeline.useCachedKeyFrames(cache.getMatch(index));
+		}
+	}
+
+	/**
+	 * Terminates the matches before the one being played whose keyframes
+	 * don't need saving any more, releasing their rounds and keyframes.
+	 */
+	private void dropPlayed() {
+		List<GameStateTimeline<E>> dropped = new ArrayList<GameStateTimeline<E>>();
+		synchronized (this) {
+			int end = Math.min(nextMatch - 1, matches.size());
+			if (saving) {
+				end = Math.min(end, encodedMatches);
+			}
+			for (; firstKept < end; firstKept++) {
+				dropped.add(matches.get(firstKept).getTimeline());
+				matches.set(firstKept, null);
+				segments.get(firstKept).drop();
+			}
+		}
+		// outside the lock, since terminating notifies the timeline's observers
+		for (GameStateTimeline<E> timeline: dropped) {
+			timeline.terminate();
+		}
+	}
+
+	private void scan() {
+		if (source instanceof IndexedClientProxy) {
+			synchronized (this) {
+				matchesFound = ((IndexedClientProxy) source).getReplayFile().getMatchCount();
+				scanned = true;
+				notifyAll();
+			}
+			return;
+		}
+		SegmentProxy current = null;
+		boolean inMatch = false;
+		try {
+			while (true) {
+				Object obj = source.readObject();
+				if (obj instanceof MatchHeader) {
+					if (current != null) {
+						// lets the previous match see that another one follows
+						current.add(obj);
+						current.close();
+					}
+					int index;
+					synchronized (this) {
+						index = matchesFound++;
+						notifyAll();
+						while (index >= nextMatch + prepareAhead) {
+							wait();
+						}
+					}
+					current = getSegment(index);
+					current.add(obj);
+					inMatch = true;
+				}
+				else if (inMatch) {
+					current.add(obj);
+					inMatch = !(obj instanceof MatchFooter);
+				}
+			}
+		}
+		catch (EOFException e) {
+		}
+		catch (InterruptedException e) {
+		}
+		catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		synchronized (this) {
+			scanned = true;
+			for (int i = Math.max(matchesFound - 1, firstKept); i < segments.size(); i++) {
+				segments.get(i).close();
+			}
+			notifyAll();
+		}
+		System.out.println("Replay library found " + matchesFound + " matches");
+	}
+
+	/**
+	 * Hashes the replay while it is read, hands its cached keyframes to the
+	 * timelines that haven't started building their own, and saves new ones
+	 * if the cache was missing or stale.
+	 */
+	private void openCache() {
+		KeyFrameCache opened = KeyFrameCache.open(replayFile, factory.getClass().getName());
+		boolean save;
+		synchronized (this) {
+			cache = opened;
+			if (cache != null) {
+				for (int i = firstKept; i < matches.size(); i++) {
+					useCache(i, matches.get(i).getTimeline());
+				}
+			}
+			save = (cache != null && !cache.isValid());
+			saving = save;
+		}
+		if (save) {
+			saveKeyFrames();
+		}
+		else {
+			dropPlayed();
+		}
+	}
+
+	/**
+	 * Writes out the keyframes of each match as soon as they have all been
+	 * built, so the match can be dropped once played, and saves them to the
+	 * cache once the replay has been read.
+	 */
+	private void saveKeyFrames() {
+		List<KeyFrameCache.EncodedMatch> keyFrames = new ArrayList<KeyFrameCache.EncodedMatch>();
+		try {
+			for (int i = 0; ; i++) {
+				GameStateTimeline<E> timeline;
+				synchronized (this) {
+					while (i >= matchesFound && !scanned) {
+						wait();
+					}
+					if (i >= matchesFound) {
+						break;
+					}
+					timeline = matches.get(i).getTimeline();
+				}
+				timeline.awaitKeyFraming();
+				if (timeline.isTerminated()) {
+					return;
+				}
+				keyFrames.add(KeyFrameCache.encode(timeline.getKeyFrames()));
+				synchronized (this) {
+					encodedMatches = i + 1;
+				}
+				dropPlayed();
+			}
+			if (!keyFrames.isEmpty()) {
+				cache.write(keyFrames);
+				System.out.println("Saved keyframes to " + replayFile + KeyFrameCache.SUFFIX);
+			}
+		}
+		catch (InterruptedException e) {
+		}
+		catch (IOException e) {
+			System.err.println("Can't save keyframes of " + replayFile + ": " + e.getMessage());
+		}
+		finally {
+			synchronized (this) {
+				saving = false;
+			}
+			dropPlayed();
+		}
+	}
+
+	private SegmentProxy getSegment(int index) {
+		getMatch(index);
+		synchronized (this) {
+			return segments.get(index);
+		}
+	}
+
+	/**
+	 * Delivers the objects of one match, followed by the header of the next
+	 * match if there is one.
+	 */
+	private static final class SegmentProxy implements ClientProxy {
+
+		// marks the end of the segment
+		private static final Object END = new Object();
+
+		private final BlockingQueue<Object> objects =
+			new LinkedBlockingQueue<Object>(SEGMENT_CAPACITY);
+
+		private Object peekBuffer;
+		private boolean peeked = false;
+		private volatile boolean dropped = false;
+
+		void add(Object obj) {
+			if (!dropped) {
+				put(obj);
+			}
+		}
+
+		void close() {
+			if (!dropped) {
+				put(END);
+			}
+		}
+
+		/**
+		 * Discards what is queued and ends the segment, so neither its reader
+		 * nor the replay's reader waits on it any more.
+		 */
+		void drop() {
+			dropped = true;
+			objects.clear();
+			objects.offer(END);
+		}
+
+		private void put(Object obj) {
+			try {
+				objects.put(obj);
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while splitting replay");
+			}
+		}
+
+		public synchronized Object readObject() throws EOFException {
+			if (peeked) {
+				peeked = false;
+				return peekBuffer;
+			}
+			Object obj;
+			try {
+				obj = objects.take();
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while reading match");
+			}
+			if (obj == END) {
+				objects.offer(END);
+				throw new EOFException();
+			}
+			return obj;
+		}
+
+		public synchronized Object peekObject() throws EOFException {
+			if (!peeked) {
+				peekBuffer = readObject();
+				peeked = true;
+			}
+			return peekBuffer;
+		}
+
+		public boolean isDebuggingAvailable() {
+			return false;
+		}
+
+		public void writeNotification(Notification n) {
+			assert isDebuggingAvailable();
+		}
+
+		public void writeSignal(Signal s) {
+			assert isDebuggingAvailable();
+		}
+	}
+}
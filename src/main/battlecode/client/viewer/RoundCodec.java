@@ -0,0 +1,308 @@
+package battlecode.client.viewer;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import battlecode.client.util.FieldLayout;
+import battlecode.common.MapLocation;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.RoundDelta;
+
+/**
+ * Encodes a round as primitive columns.
+ *
+ * The signals of a round are grouped by type, and each field of a group is
+ * written as one column: ints and locations as variable-length deltas from
+ * the previous value in the column, doubles as floats whenever that loses
+ * nothing. A separate column records the type of each signal so the original
+ * order can be restored. Signal types without a {@link FieldLayout} are kept
+ * with Java serialization.
+ *
+ * The ids of signal types are assigned as they are first seen, so a round can
+ * only be decoded by the codec that encoded it. Rounds must be encoded from a
+ * single thread; decoding is thread-safe.
+ */
+final class RoundCodec {
+
+	// signal types by the id used in the encoding; only the writer appends
+	private final List<FieldLayout> layouts = new CopyOnWriteArrayList<FieldLayout>();
+	private final Map<Class<?>, Integer> layoutIds = new HashMap<Class<?>, Integer>();
+
+	public byte[] encode(RoundDelta delta) throws IOException {
+		Signal[] signals = delta.getSignals();
+		Map<Integer, List<Object>> groups = new LinkedHashMap<Integer, List<Object>>();
+		int[] order = new int[signals.length];
+		for (int i = 0; i < signals.length; i++) {
+			int id = layoutId(signals[i].getClass());
+			List<Object> group = groups.get(id);
+			if (group == null) {
+				group = new ArrayList<Object>();
+				groups.put(id, group);
+			}
+			group.add(signals[i]);
+			order[i] = id;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		FieldLayout.writeVarInt(out, signals.length);
+		for (int id: order) {
+			FieldLayout.writeVarInt(out, id);
+		}
+		FieldLayout.writeVarInt(out, groups.size());
+		for (Map.Entry<Integer, List<Object>> group: groups.entrySet()) {
+			FieldLayout.writeVarInt(out, group.getKey());
+			FieldLayout.writeVarInt(out, group.getValue().size());
+			if (group.getKey() == -1) {
+				writeSerialized(group.getValue(), out);
+			}
+			else {
+				FieldLayout layout = layouts.get(group.getKey());
+				for (int field = 0; field < layout.getFieldCount(); field++) {
+					writeColumn(layout, field, group.getValue(), out);
+				}
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	public RoundDelta decode(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		int[] order = new int[FieldLayout.readVarInt(in)];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = FieldLayout.readVarInt(in);
+		}
+		Map<Integer, Iterator<Object>> groups = new HashMap<Integer, Iterator<Object>>();
+		int numGroups = FieldLayout.readVarInt(in);
+		for (int g = 0; g < numGroups; g++) {
+			int id = FieldLayout.readVarInt(in);
+			int count = FieldLayout.readVarInt(in);
+			List<Object> group;
+			if (id == -1) {
+				group = readSerialized(count, in);
+			}
+			else {
+				FieldLayout layout = layouts.get(id);
+				group = new ArrayList<Object>(count);
+				for (int i = 0; i < count; i++) {
+					group.add(layout.newInstance());
+				}
+				for (int field = 0; field < layout.getFieldCount(); field++) {
+					readColumn(layout, field, group, in);
+				}
+			}
+			groups.put(id, group.iterator());
+		}
+		Signal[] signals = new Signal[order.length];
+		for (int i = 0; i < order.length; i++) {
+			signals[i] = (Signal) groups.get(order[i]).next();
+		}
+		return new RoundDelta(signals);
+	}
+
+	/**
+	 * @return the id of the layout of the given type, or -1 if signals of
+	 * that type are serialized
+	 */
+	private int layoutId(Class<?> type) {
+		Integer id = layoutIds.get(type);
+		if (id == null) {
+			FieldLayout layout = FieldLayout.forClass(type);
+			if (layout == null) {
+				id = -1;
+			}
+			else {
+				id = layouts.size();
+				layouts.add(layout);
+			}
+			layoutIds.put(type, id);
+		}
+		return id;
+	}
+
+	private static void writeSerialized(List<Object> objects, DataOutput out)
+		throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		for (Object obj: objects) {
+			oos.writeObject(obj);
+		}
+		oos.close();
+		FieldLayout.writeVarInt(out, bytes.size());
+		out.write(bytes.toByteArray());
+	}
+
+	private static List<Object> readSerialized(int count, DataInput in)
+		throws IOException {
+		byte[] data = new byte[FieldLayout.readVarInt(in)];
+		in.readFully(data);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+		List<Object> objects = new ArrayList<Object>(count);
+		try {
+			for (int i = 0; i < count; i++) {
+				objects.add(ois.readObject());
+			}
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Unknown signal class " + e.getMessage());
+		}
+		return objects;
+	}
+
+	private static void writeColumn(FieldLayout layout, int field,
+	                                List<Object> objects, DataOutput out)
+		throws IOException {
+		switch (layout.getKind(field)) {
+		case INT: {
+			int prev = 0;
+			for (Object obj: objects) {
+				int value = (Integer) layout.get(field, obj);
+				FieldLayout.writeVarInt(out, value - prev);
+				prev = value;
+			}
+			break;
+		}
+		case INT_ARRAY: {
+			int prev = 0;
+			for (Object obj: objects) {
+				int[] values = (int[]) layout.get(field, obj);
+				FieldLayout.writeVarInt(out, (values == null ? -1 : values.length));
+				if (values == null) continue;
+				for (int value: values) {
+					FieldLayout.writeVarInt(out, value - prev);
+					prev = value;
+				}
+			}
+			break;
+		}
+		case DOUBLE: {
+			boolean asFloat = true;
+			for (Object obj: objects) {
+				asFloat &= isFloat((Double) layout.get(field, obj));
+			}
+			out.writeBoolean(asFloat);
+			for (Object obj: objects) {
+				writeDouble(out, (Double) layout.get(field, obj), asFloat);
+			}
+			break;
+		}
+		case DOUBLE_ARRAY: {
+			boolean asFloat = true;
+			for (Object obj: objects) {
+				double[] values = (double[]) layout.get(field, obj);
+				if (values == null) continue;
+				for (double value: values) {
+					asFloat &= isFloat(value);
+				}
+			}
+			out.writeBoolean(asFloat);
+			for (Object obj: objects) {
+				double[] values = (double[]) layout.get(field, obj);
+				FieldLayout.writeVarInt(out, (values == null ? -1 : values.length));
+				if (values == null) continue;
+				for (double value: values) {
+					writeDouble(out, value, asFloat);
+				}
+			}
+			break;
+		}
+		case LOCATION: {
+			int prevX = 0, prevY = 0;
+			for (Object obj: objects) {
+				MapLocation loc = (MapLocation) layout.get(field, obj);
+				out.writeBoolean(loc != null);
+				if (loc == null) continue;
+				FieldLayout.writeVarInt(out, loc.getX() - prevX);
+				FieldLayout.writeVarInt(out, loc.getY() - prevY);
+				prevX = loc.getX();
+				prevY = loc.getY();
+			}
+			break;
+		}
+		default:
+			for (Object obj: objects) {
+				layout.writeValue(field, layout.get(field, obj), out);
+			}
+		}
+	}
+
+	private static void readColumn(FieldLayout layout, int field,
+	                               List<Object> objects, DataInput in)
+		throws IOException {
+		switch (layout.getKind(field)) {
+		case INT: {
+			int prev = 0;
+			for (Object obj: objects) {
+				prev += FieldLayout.readVarInt(in);
+				layout.set(field, obj, prev);
+			}
+			break;
+		}
+		case INT_ARRAY: {
+			int prev = 0;
+			for (Object obj: objects) {
+				int length = FieldLayout.readVarInt(in);
+				if (length == -1) continue;
+				int[] values = new int[length];
+				for (int i = 0; i < length; i++) {
+					prev += FieldLayout.readVarInt(in);
+					values[i] = prev;
+				}
+				layout.set(field, obj, values);
+			}
+			break;
+		}
+		case DOUBLE: {
+			boolean asFloat = in.readBoolean();
+			for (Object obj: objects) {
+				layout.set(field, obj, readDouble(in, asFloat));
+			}
+			break;
+		}
+		case DOUBLE_ARRAY: {
+			boolean asFloat = in.readBoolean();
+			for (Object obj: objects) {
+				int length = FieldLayout.readVarInt(in);
+				if (length == -1) continue;
+				double[] values = new double[length];
+				for (int i = 0; i < length; i++) {
+					values[i] = readDouble(in, asFloat);
+				}
+				layout.set(field, obj, values);
+			}
+			break;
+		}
+		case LOCATION: {
+			int prevX = 0, prevY = 0;
+			for (Object obj: objects) {
+				if (!in.readBoolean()) continue;
+				prevX += FieldLayout.readVarInt(in);
+				prevY += FieldLayout.readVarInt(in);
+				layout.set(field, obj, new MapLocation(prevX, prevY));
+			}
+			break;
+		}
+		default:
+			for (Object obj: objects) {
+				layout.set(field, obj, layout.readValue(field, in));
+			}
+		}
+	}
+
+	private static boolean isFloat(double value) {
+		return (double) (float) value == value;
+	}
+
+	private static void writeDouble(DataOutput out, double value, boolean asFloat)
+		throws IOException {
+		if (asFloat) out.writeFloat((float) value);
+		else out.writeDouble(value);
+	}
+
+	private static double readDouble(DataInput in, boolean asFloat)
+		throws IOException {
+		return (asFloat ? in.readFloat() : in.readDouble());
+	}
+}
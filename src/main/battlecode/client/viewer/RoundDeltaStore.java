@@ -0,0 +1,42 @@
+package battlecode.client.viewer;
+
+import battlecode.serial.RoundDelta;
+
+/**
+ * Holds the rounds of a match as they arrive. Rounds are appended by the
+ * thread that reads the match and may be read concurrently by any number of
+ * timelines.
+ */
+interface RoundDeltaStore {
+
+	/**
+	 * @return the number of rounds stored so far
+	 */
+	public int size();
+
+	/**
+	 * @return the given round, or null if it hasn't arrived yet
+	 */
+	public RoundDelta get(int round);
+
+	/**
+	 * Appends the next round. Only called from the thread reading the match.
+	 */
+	public void add(RoundDelta delta);
+
+	/**
+	 * Called once the last round has been added.
+	 */
+	public void finish();
+
+	/**
+	 * Releases the files or other resources holding the rounds once the
+	 * match is dropped. Rounds that arrive afterwards are discarded.
+	 */
+	public void close();
+
+	/**
+	 * @return a line describing how the rounds are stored, for the metrics
+	 */
+	public String getReport();
+}
@@ -0,0 +1,75 @@
+package battlecode.client.viewer;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An append-only list of per-round objects that grows in fixed-size segments.
+ *
+ * Only memory for the rounds that have actually arrived is allocated, and a
+ * single writer can append while any number of readers call {@link #get}
+ * without locking: an element is stored before the size that covers it is
+ * published, and readers never look past the published size.
+ */
+final class RoundStore<T> {
+
+	private static final int SEGMENT_BITS = 8;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	// replaced, never modified, when more segments are needed
+	private volatile AtomicReferenceArray<AtomicReferenceArray<T>> segments =
+		new AtomicReferenceArray<AtomicReferenceArray<T>>(4);
+	private volatile int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the element for the given round, or null if it hasn't been
+	 * added yet
+	 */
+	public T get(int index) {
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		return segments.get(index >> SEGMENT_BITS).get(index & SEGMENT_MASK);
+	}
+
+	/**
+	 * Appends an element. Must only be called from the writing thread.
+	 */
+	public void add(T value) {
+		int index = size;
+		segmentFor(index).set(index & SEGMENT_MASK, value);
+		size = index + 1;
+	}
+
+	/**
+	 * Replaces an element that has already been added. Must only be called
+	 * from the writing thread.
+	 */
+	public void set(int index, T value) {
+		assert index >= 0 && index < size: "Round " + index + " not added yet";
+		segments.get(index >> SEGMENT_BITS).set(index & SEGMENT_MASK, value);
+	}
+
+	private AtomicReferenceArray<T> segmentFor(int index) {
+		int segment = index >> SEGMENT_BITS;
+		AtomicReferenceArray<AtomicReferenceArray<T>> current = segments;
+		if (segment >= current.length()) {
+			AtomicReferenceArray<AtomicReferenceArray<T>> grown =
+				new AtomicReferenceArray<AtomicReferenceArray<T>>(2 * current.length());
+			for (int i = 0; i < current.length(); i++) {
+				grown.set(i, current.get(i));
+			}
+			segments = current = grown;
+		}
+		AtomicReferenceArray<T> values = current.get(segment);
+		if (values == null) {
+			values = new AtomicReferenceArray<T>(SEGMENT_SIZE);
+			current.set(segment, values);
+		}
+		return values;
+	}
+}
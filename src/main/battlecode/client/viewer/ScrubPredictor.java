@@ -0,0 +1,56 @@
+package battlecode.client.viewer;
+
+/**
+ * Guesses the next round a timeline will be asked for while the user drags
+ * through a match, from the direction and size of the last few jumps.
+ *
+ * Playback moves a round at a time and is cheap to follow, so only jumps of
+ * at least {@link #MIN_STEP} rounds count as scrubbing, and a pause ends the
+ * scrub. The guess leans towards earlier rounds, since a state prefetched
+ * for a round before the one asked for can still be played forward from.
+ */
+final class ScrubPredictor {
+
+	static final int MIN_STEP = 2;
+
+	// a pause this long between requests, in ns, ends a scrub
+	private static final long SCRUB_TIMEOUT = 500000000L;
+
+	private int lastRound = -1;
+	private long lastTime = 0;
+	// smoothed rounds moved per request, negative when moving backwards
+	private double step = 0;
+
+	/**
+	 * Notes that the timeline was asked to move to the given round.
+	 */
+	synchronized void request(int round, long nanos) {
+		if (lastRound < 0 || nanos - lastTime > SCRUB_TIMEOUT) {
+			step = 0;
+		}
+		else {
+			int jump = round - lastRound;
+			if (jump * step <= 0) {
+				// turned around, so the old speed says nothing
+				step = jump;
+			}
+			else {
+				step = (step * 3 + jump) / 4;
+			}
+		}
+		lastRound = round;
+		lastTime = nanos;
+	}
+
+	synchronized boolean isScrubbing() {
+		return Math.abs(step) >= MIN_STEP
+			&& System.nanoTime() - lastTime <= SCRUB_TIMEOUT;
+	}
+
+	/**
+	 * @return the round likely to be asked for next
+	 */
+	synchronized int predict() {
+		return (int) Math.round(lastRound + step - Math.abs(step) / 4);
+	}
+}
@@ -0,0 +1,224 @@
+package battlecode.client.viewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import battlecode.serial.RoundDelta;
+
+/**
+ * Keeps a bounded number of rounds on the heap and the rest in a temporary
+ * file, so that matches of any length can be buffered.
+ *
+ * Every round is encoded with a {@link RoundCodec} and appended to a
+ * memory-mapped file as soon as it arrives, so dropping a round from the heap
+ * costs nothing. The most recent rounds stay decoded in memory; older rounds
+ * are decoded from the file again when a timeline rewinds to them, and are
+ * evicted least recently used first.
+ *
+ * The heap budget is a hard limit on the estimated size of the decoded rounds
+ * held in memory. When it is exceeded even rounds inside the window are
+ * dropped.
+ */
+final class SpillingDeltaStore implements RoundDeltaStore {
+
+	private static final int SEGMENT_SIZE = 16 << 20;
+	// rounds outside the window that may stay decoded after a rewind
+	private static final int PAGED_ROUNDS = 256;
+	// rough ratio between the heap taken by a decoded round and its encoding
+	private static final int HEAP_PER_ENCODED_BYTE = 8;
+
+	private final RoundCodec codec = new RoundCodec();
+	private final int window;
+	private final long heapBudget;
+
+	private final File spillFile;
+	private final FileChannel channel;
+	// mapped regions of the spill file; only the writer appends
+	private final List<MappedByteBuffer> segments =
+		new CopyOnWriteArrayList<MappedByteBuffer>();
+	private volatile long fileLength = 0;
+	// held while appending, so the file isn't closed under the writer; guards closed
+	private final Object fileLock = new Object();
+	private boolean closed = false;
+
+	// where each round is in the spill file, guarded by this
+	private int[] segmentOf = new int[1024];
+	private int[] positionOf = new int[1024];
+	private int[] lengthOf = new int[1024];
+	private int size = 0;
+
+	// decoded rounds on the heap, least recently used first, guarded by this
+	private final LinkedHashMap<Integer, RoundDelta> resident =
+		new LinkedHashMap<Integer, RoundDelta>(16, 0.75f, true);
+	private long residentBytes = 0;
+
+	private volatile long pageIns = 0;
+
+	/**
+	 * @param window the number of most recent rounds to keep on the heap
+	 * @param heapBudget the most heap, in bytes, to spend on decoded rounds
+	 */
+	public SpillingDeltaStore(int window, long heapBudget) throws IOException {
+		this.window = window;
+		this.heapBudget = heapBudget;
+		spillFile = File.createTempFile("bc-rounds", ".tmp");
+		spillFile.deleteOnExit();
+		channel = new RandomAccessFile(spillFile, "rw").getChannel();
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public RoundDelta get(int round) {
+		int segment, position, length;
+		synchronized (this) {
+			if (round < 0 || round >= size) {
+				return null;
+			}
+			RoundDelta delta = resident.get(round);
+			if (delta != null) {
+				return delta;
+			}
+			segment = segmentOf[round];
+			position = positionOf[round];
+			length = lengthOf[round];
+		}
+		byte[] data = new byte[length];
+		ByteBuffer view = segments.get(segment).duplicate();
+		view.position(position);
+		view.get(data);
+		RoundDelta delta;
+		try {
+			delta = codec.decode(data);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Corrupt spilled round " + round, e);
+		}
+		pageIns++;
+		synchronized (this) {
+			makeResident(round, delta);
+		}
+		return delta;
+	}
+
+	public void add(RoundDelta delta) {
+		byte[] data;
+		int segment, position;
+		synchronized (fileLock) {
+			if (closed) {
+				return;
+			}
+			try {
+				data = codec.encode(delta);
+				segment = append(data);
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Can't spill round " + size(), e);
+			}
+			position = segments.get(segment).position() - data.length;
+		}
+		synchronized (this) {
+			if (size == segmentOf.length) {
+				segmentOf = Arrays.copyOf(segmentOf, 2 * size);
+				positionOf = Arrays.copyOf(positionOf, 2 * size);
+				lengthOf = Arrays.copyOf(lengthOf, 2 * size);
+			}
+			segmentOf[size] = segment;
+			positionOf[size] = position;
+			lengthOf[size] = data.length;
+			size++;
+			makeResident(size - 1, delta);
+		}
+	}
+
+	public void finish() {
+		System.err.println(getReport());
+	}
+
+	public String getReport() {
+		return String.format("Spilled %d rounds (%d MB) to %s, %d rounds paged back in",
+		                     size(), fileLength >> 20, spillFile, pageIns);
+	}
+
+	/**
+	 * Closes and deletes the spill file. The segments already mapped stay
+	 * readable until the store is collected, so timelines still winding
+	 * down don't fail; on platforms that can't delete a mapped file it is
+	 * left to be deleted when the JVM exits.
+	 */
+	public void close() {
+		synchronized (fileLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				System.err.println("Can't close spill file " + spillFile + ": " + e.getMessage());
+			}
+			spillFile.delete();
+		}
+	}
+
+	/**
+	 * @return the number of rounds that have been read back from the file
+	 */
+	public long getPageIns() {
+		return pageIns;
+	}
+
+	/**
+	 * @return the estimated heap taken by the decoded rounds in memory
+	 */
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * Writes an encoded round at the end of the last segment, mapping a new
+	 * one if it doesn't fit.
+	 *
+	 * @return the index of the segment the round was written to
+	 */
+	private int append(byte[] data) throws IOException {
+		MappedByteBuffer segment = (segments.isEmpty() ? null
+		                            : segments.get(segments.size() - 1));
+		if (segment == null || segment.remaining() < data.length) {
+			int length = Math.max(SEGMENT_SIZE, data.length);
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, fileLength, length);
+			fileLength += length;
+			segments.add(segment);
+		}
+		segment.put(data);
+		return segments.size() - 1;
+	}
+
+	private void makeResident(int round, RoundDelta delta) {
+		if (resident.put(round, delta) == null) {
+			residentBytes += heapEstimate(round);
+		}
+		// drop rounds outside the window first, then whatever is least recent
+		Iterator<Map.Entry<Integer, RoundDelta>> it = resident.entrySet().iterator();
+		while (it.hasNext() && (residentBytes > heapBudget
+		                        || resident.size() > window + PAGED_ROUNDS)) {
+			int r = it.next().getKey();
+			if (r != round && (r < size - window || residentBytes > heapBudget)) {
+				it.remove();
+				residentBytes -= heapEstimate(r);
+			}
+		}
+	}
+
+	private long heapEstimate(int round) {
+		return (long) lengthOf[round] * HEAP_PER_ENCODED_BYTE;
+	}
+}
@@ -0,0 +1,230 @@
+package battlecode.client.viewer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import battlecode.client.ChannelClientProxy;
+import battlecode.client.viewer.render.FramerateTracker;
+
+/**
+ * Reports where the time of the match being viewed goes: reading rounds,
+ * applying and copying states, seeking, and painting.
+ *
+ * The numbers of the match last passed to {@link #track} are registered as
+ * the MBean battlecode.client:type=ViewerMetrics, and renderers draw the
+ * same numbers for their own match with {@link #describe} when the metrics
+ * overlay is on.
+ */
+public final class ViewerMetrics implements ViewerMetricsMBean {
+
+	private static final String NAME = "battlecode.client:type=ViewerMetrics";
+
+	private static ViewerMetrics instance = null;
+
+	private volatile GameStateTimeline<?> timeline = null;
+	private volatile BufferedMatch match = null;
+	private volatile FramerateTracker fps = null;
+
+	private ViewerMetrics() {}
+
+	/**
+	 * @return the metrics, registering them with the platform MBean server
+	 * the first time
+	 */
+	public static synchronized ViewerMetrics getInstance() {
+		if (instance == null) {
+			instance = new ViewerMetrics();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(NAME);
+				if (!server.isRegistered(name)) {
+					server.registerMBean(instance, name);
+				}
+			}
+			catch (JMException e) {
+				System.err.println("Can't register viewer metrics: " + e.getMessage());
+			}
+			catch (SecurityException e) {
+				System.err.println("Can't register viewer metrics: " + e.getMessage());
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Reports on the given match from now on.
+	 *
+	 * @param fps the renderer's frame rate, or null
+	 */
+	public void track(GameStateTimeline<?> timeline, BufferedMatch match, FramerateTracker fps) {
+		this.timeline = timeline;
+		this.match = match;
+		this.fps = fps;
+	}
+
+	/**
+	 * @return a few lines summing up the given match, for an overlay
+	 */
+	public static List<String> describe(GameStateTimeline<?> timeline, BufferedMatch match,
+	                                    FramerateTracker fps) {
+		List<String> lines = new ArrayList<String>();
+		lines.add(String.format("ingest %d rounds, %.0f rounds/s, lag %.1f ms (max %.1f)",
+		                        match.getRoundsAvailable(), match.getBufferingRate(),
+		                        timeline.getAverageRoundLag(), timeline.getMaxRoundLag()));
+		lines.add(String.format("apply %.3f ms/round (%d), clone %.2f ms (%d)",
+		                        timeline.getMeanApplyTime(), timeline.getNumApplies(),
+		                        timeline.getMeanCloneTime(), timeline.getNumClones()));
+		lines.add(String.format("keyframes %d, %.1f MB%s", timeline.getKeyFrameCount(),
+		                        timeline.getKeyFrameBytes() / 1048576.0,
+		                        (timeline.isKeyFramingComplete() ? "" : ", building")));
+		lines.add(String.format("seek p50 %.1f ms, p90 %.1f ms, p99 %.1f ms (%d)",
+		                        timeline.getSeekLatency(0.5), timeline.getSeekLatency(0.9),
+		                        timeline.getSeekLatency(0.99), timeline.getNumSeeks()));
+		lines.add(String.format("prefetch hit rate %.0f%% (%d of %d)",
+		                        timeline.getPrefetchHitRate() * 100, timeline.getPrefetchHits(),
+		                        timeline.getPrefetchHits() + timeline.getPrefetchMisses()));
+		lines.add(match.getStoreReport());
+		if (match.getDebugProxy() instanceof ChannelClientProxy) {
+			lines.add(((ChannelClientProxy) match.getDebugProxy()).getReport());
+		}
+		if (fps != null) {
+			lines.add(String.format("paint %.1f fps, %.1f ms/frame",
+			                        fps.getFramerate(), fps.getPaintTime()));
+		}
+		return lines;
+	}
+
+	public int getRound() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getRound() : -1);
+	}
+
+	public int getRoundsProcessed() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getNumRounds() : -1);
+	}
+
+	public int getRoundsAvailable() {
+		BufferedMatch match = this.match;
+		return (match != null ? match.getRoundsAvailable() : 0);
+	}
+
+	public double getBufferingRate() {
+		BufferedMatch match = this.match;
+		return (match != null ? match.getBufferingRate() : 0);
+	}
+
+	public double getMeanRoundLag() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getAverageRoundLag() : 0);
+	}
+
+	public double getMaxRoundLag() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getMaxRoundLag() : 0);
+	}
+
+	public double getMeanApplyTime() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getMeanApplyTime() : 0);
+	}
+
+	public long getNumApplies() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getNumApplies() : 0);
+	}
+
+	public double getMeanCloneTime() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getMeanCloneTime() : 0);
+	}
+
+	public long getNumClones() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getNumClones() : 0);
+	}
+
+	public int getKeyFrameCount() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getKeyFrameCount() : 0);
+	}
+
+	public long getKeyFrameBytes() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getKeyFrameBytes() : 0);
+	}
+
+	public double getSeekLatencyMedian() {
+		return getSeekLatency(0.5);
+	}
+
+	public double getSeekLatency90() {
+		return getSeekLatency(0.9);
+	}
+
+	public double getSeekLatency99() {
+		return getSeekLatency(0.99);
+	}
+
+	private double getSeekLatency(double fraction) {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getSeekLatency(fraction) : 0);
+	}
+
+	public long getNumSeeks() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getNumSeeks() : 0);
+	}
+
+	public double getPrefetchHitRate() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getPrefetchHitRate() : 0);
+	}
+
+	public long getPrefetchHits() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getPrefetchHits() : 0);
+	}
+
+	public long getPrefetchMisses() {
+		GameStateTimeline<?> timeline = this.timeline;
+		return (timeline != null ? timeline.getPrefetchMisses() : 0);
+	}
+
+	public double getFramerate() {
+		FramerateTracker fps = this.fps;
+		return (fps != null ? fps.getFramerate() : 0);
+	}
+
+	public double getPaintTime() {
+		FramerateTracker fps = this.fps;
+		return (fps != null ? fps.getPaintTime() : 0);
+	}
+
+	public String getListenerReport() {
+		BufferedMatch match = this.match;
+		return (match != null ? match.getListenerReport() : "");
+	}
+
+	public String getStoreReport() {
+		BufferedMatch match = this.match;
+		return (match != null ? match.getStoreReport() : "");
+	}
+
+	/**
+	 * @return the connection figures of a match watched over the network, or
+	 * an empty string for other matches
+	 */
+	public String getConnectionReport() {
+		BufferedMatch match = this.match;
+		if (match != null && match.getDebugProxy() instanceof ChannelClientProxy) {
+			return ((ChannelClientProxy) match.getDebugProxy()).getReport();
+		}
+		return "";
+	}
+}
@@ -0,0 +1,56 @@
+package battlecode.client.viewer;
+
+/**
+ * The numbers {@link ViewerMetrics} exposes over JMX. Times are in
+ * milliseconds.
+ */
+public interface ViewerMetricsMBean {
+
+	int getRound();
+
+	int getRoundsProcessed();
+
+	int getRoundsAvailable();
+
+	double getBufferingRate();
+
+	double getMeanRoundLag();
+
+	double getMaxRoundLag();
+
+	double getMeanApplyTime();
+
+	long getNumApplies();
+
+	double getMeanCloneTime();
+
+	long getNumClones();
+
+	int getKeyFrameCount();
+
+	long getKeyFrameBytes();
+
+	double getSeekLatencyMedian();
+
+	double getSeekLatency90();
+
+	double getSeekLatency99();
+
+	long getNumSeeks();
+
+	double getPrefetchHitRate();
+
+	long getPrefetchHits();
+
+	long getPrefetchMisses();
+
+	double getFramerate();
+
+	double getPaintTime();
+
+	String getListenerReport();
+
+	String getStoreReport();
+
+	String getConnectionReport();
+}
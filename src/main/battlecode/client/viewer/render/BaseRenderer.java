@@ -38,6 +38,14 @@ public abstract class BaseRenderer {
 
 	protected abstract void toggleFastForward();
 
+	/**
+	 * @return the tracker of the renderer's frame rate, or null if it
+	 * doesn't keep one
+	 */
+	public FramerateTracker getFramerateTracker() {
+		return null;
+	}
+
 	@SuppressWarnings("empty")
 	public void handleAction(char actionCommand) {
 
@@ -107,6 +115,10 @@ public abstract class BaseRenderer {
 		case 'm':
 			RenderConfiguration.toggleAmbientMusic();
 		break;
+		case 'I':
+		case 'i':
+			RenderConfiguration.toggleMetrics();
+		break;
 		default:
 			return;
         }
@@ -21,6 +21,9 @@ import battlecode.common.RobotLevel;
 import battlecode.common.Chassis;
 import battlecode.common.ComponentType;
 import battlecode.common.Team;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import static battlecode.client.viewer.AbstractAnimation.AnimationType.*;
@@ -412,6 +415,22 @@ class DrawObject extends AbstractDrawObject<Animation> {
         }
     }
 
+    public boolean isIdle() {
+        return super.isIdle() && teleportRounds == 0;
+    }
+
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeInt(teleportRounds);
+        writeLocation(out, teleportLoc);
+    }
+
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        teleportRounds = in.readInt();
+        teleportLoc = readLocation(in);
+    }
+
     public void activateTeleporter() {
         teleportRounds = 1;
     }
@@ -19,12 +19,10 @@ import battlecode.common.MapLocation;
 import battlecode.common.Chassis;
 import battlecode.common.GameConstants;
 import battlecode.common.Team;
-import battlecode.common.ComponentType;
 
 import battlecode.world.GameMap;
 import battlecode.serial.RoundStats;
 import java.awt.geom.AffineTransform;
-import java.util.EnumMap;
 
 public class DrawState extends AbstractDrawState<DrawObject> {
 
@@ -80,6 +78,10 @@ public class DrawState extends AbstractDrawState<DrawObject> {
         return new DrawObject(type, team);
     }
 
+    protected DrawObject copyDrawObject(DrawObject obj) {
+        return new DrawObject(obj);
+    }
+
     public MapLocation[][] getConvexHullsA() {
         return convexHullsA;
     }
@@ -89,49 +91,22 @@ public class DrawState extends AbstractDrawState<DrawObject> {
     }
 
     private synchronized void copyStateFrom(DrawState src) {
-        groundUnits.clear();
         //archonsA.clear();
         //archonsB.clear();
         towers.clear();
-        for (Map.Entry<Integer, DrawObject> entry : src.groundUnits.entrySet()) {
-            DrawObject copy = new DrawObject(entry.getValue());
-            groundUnits.put(entry.getKey(), copy);
-        }
-        airUnits.clear();
-        for (Map.Entry<Integer, DrawObject> entry : src.airUnits.entrySet()) {
-            DrawObject copy = new DrawObject(entry.getValue());
-            airUnits.put(entry.getKey(), copy);
-            tryAddArchon(copy);
-        }
-        fluxDeposits.clear();
-        for (Map.Entry<Integer, FluxDepositState> entry : src.fluxDeposits.entrySet()) {
-            fluxDeposits.put(entry.getKey(), new FluxDepositState(entry.getValue()));
+        copyUnitsFrom(src);
+        for (DrawObject obj : airUnits.values()) {
+            tryAddArchon(obj);
         }
         stats = src.stats;
-        componentTypeCountA = new EnumMap<ComponentType, Integer>(src.componentTypeCountA);
-        componentTypeCountB = new EnumMap<ComponentType, Integer>(src.componentTypeCountB);
-        
 
         if (src.gameMap != null) {
             gameMap = src.gameMap;
         }
 
         currentRound = src.currentRound;
-        convexHullsA = new MapLocation[src.convexHullsA.length][];
-        if (convexHullsA.length > 0) {
-            for (int i = 0; i < convexHullsA.length; i++) {
-                convexHullsA[i] = new MapLocation[src.convexHullsA[i].length];
-                System.arraycopy(src.convexHullsA[i], 0, convexHullsA[i], 0, convexHullsA[i].length);
-            }
-        }
-
-        convexHullsB = new MapLocation[src.convexHullsB.length][];
-        if (convexHullsB.length > 0) {
-            for (int i = 0; i < convexHullsB.length; i++) {
-                convexHullsB[i] = new MapLocation[src.convexHullsB[i].length];
-                System.arraycopy(src.convexHullsB[i], 0, convexHullsB[i], 0, convexHullsB[i].length);
-            }
-        }
+        convexHullsA = copyHulls(src.convexHullsA);
+        convexHullsB = copyHulls(src.convexHullsB);
 
 
     }
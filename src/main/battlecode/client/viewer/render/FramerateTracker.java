@@ -4,6 +4,7 @@ public class FramerateTracker {
 
 	private double framerate;
 	private long frames = 0, prevTick = 0;
+	private double paintTime = 0;
 
 	public FramerateTracker() {
 		framerate = 30;
@@ -17,6 +18,17 @@ public class FramerateTracker {
 		return framerate;
 	}
 
+	/**
+	 * @return the smoothed time it takes to paint a frame, in milliseconds
+	 */
+	public double getPaintTime() {
+		return paintTime;
+	}
+
+	public void recordPaintTime(long nanos) {
+		paintTime = (paintTime * 7 + nanos / 1e6) / 8;
+	}
+
 	public void updateFramerate() {
 		if (prevTick == 0) prevTick = System.nanoTime();
 		if ((++frames) % 4 == 0) {
@@ -25,6 +25,8 @@ public class GameRenderer extends BaseRenderer {
     private DebugState debugState;
     private final Color winnerMask = new Color(0, 0, 0, 0.6f);
     private Font debugFont;
+    private final Font metricsFont = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private final Color metricsBackground = new Color(0, 0, 0, 0.7f);
     private float spriteSize = RenderConfiguration.getInstance().getSpriteSize();
     private float unitWidth, unitHeight; // size of gc in sprite [grid] units
     private float unitHUDwidth;
@@ -57,9 +59,19 @@ public class GameRenderer extends BaseRenderer {
     }
 
     public GameRenderer(BufferedMatch match) {
+        this(match, new GameStateTimeline<DrawState>(match, DrawState.FACTORY));
+    }
+
+    /**
+     * Renders a match whose timeline has already been created, and may
+     * already be building keyframes. If the timeline already moves a state
+     * for another view, that state is drawn as it is.
+     */
+    public GameRenderer(BufferedMatch match, GameStateTimeline<DrawState> timeline) {
         this.match = match;
         debugFont = new Font(null, Font.PLAIN, 2);
-        ds = new DrawState();
+        DrawState shared = timeline.getTargetState();
+        ds = (shared != null ? shared : new DrawState());
         try {
             sideA = new DrawHUD(ds, Team.A, match.getTeamA());
             sideB = new DrawHUD(ds, Team.B, match.getTeamB());
@@ -67,8 +79,10 @@ public class GameRenderer extends BaseRenderer {
             e.printStackTrace();
         }
 
-        timeline = new GameStateTimeline<DrawState>(match, DrawState.FACTORY, 10);
-        timeline.setTargetState(ds);
+        this.timeline = timeline;
+        if (shared == null) {
+            timeline.setTargetState(ds);
+        }
         match.addMatchListener(ml);
         match.addMatchPausedListener(ml);
         loadPrefs();
@@ -272,6 +286,7 @@ public class GameRenderer extends BaseRenderer {
             return;
         }
 
+        long paintStart = System.nanoTime();
         Graphics2D g2 = (Graphics2D) g;
         boolean isGraphicsStable = g2.getTransform().isIdentity();
         g2.setColor(Color.BLACK);
@@ -285,7 +300,11 @@ public class GameRenderer extends BaseRenderer {
         if (cutScene != null) {
             cutScene.draw(g2);
         }
-        //fps.updateFramerate(); renderFramerate();
+        fps.updateFramerate();
+        fps.recordPaintTime(System.nanoTime() - paintStart);
+        if (RenderConfiguration.showMetrics()) {
+            renderMetrics(g2);
+        }
         if (fastForward) {
             timeline.setRound(timeline.getRound() + 1);
         }
@@ -320,11 +339,27 @@ public class GameRenderer extends BaseRenderer {
         cutScene.fadeOut();
     }
 
-    private void renderFramerate(Graphics2D g2) {
+    private void renderMetrics(Graphics2D g2) {
+        java.util.List<String> lines = ViewerMetrics.describe(timeline, match, fps);
         g2.setTransform(new AffineTransform());
-        g2.setColor(Color.BLACK);
-        g2.setFont(debugFont);
-        g2.drawString("Framerate: " + fps.getFramerate(), 20, 30);
+        g2.setFont(metricsFont);
+        FontMetrics fm = g2.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        g2.setColor(metricsBackground);
+        g2.fillRect(10, 10, width + 10, fm.getHeight() * lines.size() + 10);
+        g2.setColor(Color.WHITE);
+        int y = 15 + fm.getAscent();
+        for (String line : lines) {
+            g2.drawString(line, 15, y);
+            y += fm.getHeight();
+        }
+    }
+
+    public FramerateTracker getFramerateTracker() {
+        return fps;
     }
 
     public static void preloadGraphics() {
@@ -21,6 +21,7 @@ public class RenderConfiguration {
 	private static boolean ambientMusic = false;
 	private static boolean teleport = true;
 	private static boolean teleportGhosts = true;
+	private static boolean metrics = false;
 
 	private static boolean ground = true;
 	private static boolean air	= true;
@@ -63,6 +64,7 @@ public class RenderConfiguration {
 	public static void toggleAmbientMusic(){ambientMusic = !ambientMusic;}
 	public static void toggleTeleport() { teleport = !teleport; }
 	public static void toggleTeleportGhosts() { teleportGhosts = !teleportGhosts; }
+	public static void toggleMetrics() { metrics = !metrics; }
 
 	public static void toggleDrawHeight() {
 		if(!air && !ground) {
@@ -96,6 +98,7 @@ public class RenderConfiguration {
 	public static boolean showSpawnRadii() { return spawnRadii; }
 	public static boolean showTeleport() { return teleport; }
 	public static boolean showTeleportGhosts() { return teleportGhosts; }
+	public static boolean showMetrics() { return metrics; }
 
 	public static boolean showGround() { return ground; }
 	public static boolean showAir   () { return air;    }
@@ -6,6 +6,9 @@ import java.awt.Color;
 
 import java.awt.Graphics2D;
 import java.awt.geom.Ellipse2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.glu.GLU;
@@ -61,6 +64,16 @@ class GLDrawObject extends AbstractDrawObject<GLAnimation> {
 	return targetHeight;
     }
 
+    public void writeState(DataOutput out) throws IOException {
+	super.writeState(out);
+	writeEnum(out, targetHeight);
+    }
+
+    public void readState(DataInput in) throws IOException {
+	super.readState(in);
+	targetHeight = readEnum(in, RobotLevel.values());
+    }
+
     public GLEnergonTransferAnim getEnergonTransferAnim() {
 	return (GLEnergonTransferAnim)animations.get(AbstractAnimation.AnimationType.ENERGON_TRANSFER);
     }
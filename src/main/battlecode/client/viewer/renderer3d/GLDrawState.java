@@ -1,6 +1,9 @@
 package battlecode.client.viewer.renderer3d;
 
 import java.awt.Color;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 
 
@@ -179,6 +182,10 @@ public class GLDrawState extends AbstractDrawState<GLDrawObject> {
         return new GLDrawObject(type, team);
     }
 
+    protected GLDrawObject copyDrawObject(GLDrawObject obj) {
+        return new GLDrawObject(obj);
+    }
+
     public Vector2f getAwesomePoint() {
         return awesomePoint;
     }
@@ -195,6 +202,31 @@ public class GLDrawState extends AbstractDrawState<GLDrawObject> {
         return radius;
     }
 
+    protected Object saveUndoExtra() {
+        return new Object[] { awesomePoint, radius };
+    }
+
+    protected void restoreUndoExtra(Object extra) {
+        awesomePoint = (Vector2f) ((Object[]) extra)[0];
+        radius = (Float) ((Object[]) extra)[1];
+    }
+
+    protected void writeSnapshotExtra(DataOutput out) throws IOException {
+        out.writeBoolean(awesomePoint != null);
+        if (awesomePoint != null) {
+            out.writeFloat(awesomePoint.x);
+            out.writeFloat(awesomePoint.y);
+            out.writeFloat(radius);
+        }
+    }
+
+    protected void readSnapshotExtra(DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            awesomePoint = new Vector2f(in.readFloat(), in.readFloat());
+            radius = in.readFloat();
+        }
+    }
+
     private void clearAccelerators() {
         /*	snipers.clear();
         mortars.clear();
@@ -221,25 +253,16 @@ public class GLDrawState extends AbstractDrawState<GLDrawObject> {
     }
 
     private synchronized void copyStateFrom(GLDrawState src) {
-        groundUnits.clear();
         //archonsA.clear();
         //archonsB.clear();
         clearAccelerators();
-        for (Map.Entry<Integer, GLDrawObject> entry : src.groundUnits.entrySet()) {
-            GLDrawObject copy = new GLDrawObject(entry.getValue());
-            groundUnits.put(entry.getKey(), copy);
-            addAcceleratorUnit(copy);
+        copyUnitsFrom(src);
+        for (GLDrawObject obj : groundUnits.values()) {
+            addAcceleratorUnit(obj);
         }
-        airUnits.clear();
-        for (Map.Entry<Integer, GLDrawObject> entry : src.airUnits.entrySet()) {
-            GLDrawObject copy = new GLDrawObject(entry.getValue());
-            airUnits.put(entry.getKey(), copy);
-            tryAddArchon(copy);
-            addAcceleratorUnit(copy);
-        }
-        fluxDeposits.clear();
-        for (Map.Entry<Integer, FluxDepositState> entry : src.fluxDeposits.entrySet()) {
-            fluxDeposits.put(entry.getKey(), new FluxDepositState(entry.getValue()));
+        for (GLDrawObject obj : airUnits.values()) {
+            tryAddArchon(obj);
+            addAcceleratorUnit(obj);
         }
 
         stats = src.stats;
@@ -263,21 +286,8 @@ public class GLDrawState extends AbstractDrawState<GLDrawObject> {
             gameMap = src.gameMap;
         }
         currentRound = src.currentRound;
-        convexHullsA = new MapLocation[src.convexHullsA.length][];
-        if (convexHullsA.length > 0) {
-            for (int i = 0; i < convexHullsA.length; i++) {
-                convexHullsA[i] = new MapLocation[src.convexHullsA[i].length];
-                System.arraycopy(src.convexHullsA[i], 0, convexHullsA[i], 0, convexHullsA[i].length);
-            }
-        }
-
-        convexHullsB = new MapLocation[src.convexHullsB.length][];
-        if (convexHullsB.length > 0) {
-            for (int i = 0; i < convexHullsB.length; i++) {
-                convexHullsB[i] = new MapLocation[src.convexHullsB[i].length];
-                System.arraycopy(src.convexHullsB[i], 0, convexHullsB[i], 0, convexHullsB[i].length);
-            }
-        }
+        convexHullsA = copyHulls(src.convexHullsA);
+        convexHullsB = copyHulls(src.convexHullsB);
     }
 
     public Void visitAwesomenessSignal(AwesomenessSignal s) {
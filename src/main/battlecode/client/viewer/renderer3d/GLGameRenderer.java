@@ -36,6 +36,7 @@ import battlecode.client.viewer.GameStateTimeline;
 import battlecode.client.viewer.InfoPanel;
 import battlecode.client.viewer.MatchListener;
 import battlecode.client.viewer.MatchPlayer;
+import battlecode.client.viewer.ViewerMetrics;
 import battlecode.client.viewer.render.BaseRenderer;
 import battlecode.client.viewer.render.FramerateTracker;
 import battlecode.client.viewer.render.RenderConfiguration;
@@ -100,6 +101,8 @@ public class GLGameRenderer extends BaseRenderer implements GLEventListener {
     private AffineTransform hudScale;
     private ImageFile teamA, teamB, winnerImage;
     private FramerateTracker fps = new FramerateTracker(30);
+    private TextRenderer metricsRenderer = null;
+    private FontMetrics metricsMetrics;
     private boolean fastForward = false;
     private int targetID = -1;
     static private boolean loadedPrefsAlready = false;
@@ -137,6 +140,15 @@ public class GLGameRenderer extends BaseRenderer implements GLEventListener {
     private Runnable matchStarter = null;
 
     public GLGameRenderer(BufferedMatch match, Graphics canvas) {
+        this(match, canvas, new GameStateTimeline<GLDrawState>(match, GLDrawState.FACTORY));
+    }
+
+    /**
+     * Renders a match whose timeline has already been created, and may
+     * already be building keyframes.
+     */
+    public GLGameRenderer(BufferedMatch match, Graphics canvas,
+                          GameStateTimeline<GLDrawState> timeline) {
         this.match = match;
         this.canvas = canvas;
         debugFont = new Font(null, Font.PLAIN, 2);
@@ -155,7 +167,7 @@ public class GLGameRenderer extends BaseRenderer implements GLEventListener {
         fullscreen = new Window(new Frame(dg.getDefaultConfiguration()));
          */
 
-        timeline = new GameStateTimeline<GLDrawState>(match, GLDrawState.FACTORY, 10);
+        this.timeline = timeline;
         timeline.setTargetState(ds);
         //timeline.addObserver(observer);
         match.addMatchListener(ml);
@@ -440,6 +452,28 @@ public class GLGameRenderer extends BaseRenderer implements GLEventListener {
         //}
     }
 
+    private void renderMetrics(GLAutoDrawable ad) {
+        if (metricsRenderer == null) {
+            Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+            metricsMetrics = canvas.getFontMetrics(font);
+            metricsRenderer = new TextRenderer(font);
+        }
+        int y = ad.getHeight() - 10 - metricsMetrics.getAscent();
+        metricsRenderer.beginRendering(ad.getWidth(), ad.getHeight());
+        for (String line : ViewerMetrics.describe(timeline, match, fps)) {
+            metricsRenderer.setColor(0.0f, 0.0f, 0.0f, 1.0f);
+            metricsRenderer.draw(line, 11, y - 1);
+            metricsRenderer.setColor(1.0f, 1.0f, 1.0f, 1.0f);
+            metricsRenderer.draw(line, 10, y);
+            y -= metricsMetrics.getHeight();
+        }
+        metricsRenderer.endRendering();
+    }
+
+    public FramerateTracker getFramerateTracker() {
+        return fps;
+    }
+
     private void renderFramerate(Graphics2D g2) {
         g2.setTransform(new AffineTransform());
         g2.setColor(Color.BLACK);
@@ -508,6 +542,7 @@ public class GLGameRenderer extends BaseRenderer implements GLEventListener {
                 txtRenderer = null;
             }
         }
+        long paintStart = System.nanoTime();
 
 
 
@@ -903,8 +938,11 @@ public class GLGameRenderer extends BaseRenderer implements GLEventListener {
         if (cutScene != null)
             cutScene.draw(gl, ad.getWidth(), ad.getHeight(), cutsceneFont, cutsceneMetrics);
 
-
-        //fps.updateFramerate(); renderFramerate();
+        fps.updateFramerate();
+        fps.recordPaintTime(System.nanoTime() - paintStart);
+        if (RenderConfiguration.showMetrics()) {
+            renderMetrics(ad);
+        }
         if (fastForward) {
             timeline.setRound(timeline.getRound() + 1);
         }
@@ -6,13 +6,8 @@ import java.util.*;
 
 class AudioTimeline extends GameStateTimeline<PlayState> {
 
-	public AudioTimeline(BufferedMatch match) {
-		super(match, PlayState.FACTORY, Integer.MAX_VALUE);
-	}
-
 	public AudioTimeline(GameStateTimeline master) {
-		this(master.getMatch());
-		setMasterTimeline(master);
+		super(master, PlayState.FACTORY);
 	}
 /*
 	protected void createKeyFrames() {}